@@ -15,6 +15,7 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -594,6 +595,13 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // warm the buffer pool up with the pages that were hot last time
+        String hotPages = System.getProperty("simpledb.hotpages");
+        if (hotPages != null) {
+            File f = new File(hotPages);
+            Database.getBufferPool().warmUp(f);
+            Database.getBufferPool().startHotPageDump(f, BufferPool.DEFAULT_HOT_PAGE_DUMP_MILLIS);
+        }
 
         String queryFile = null;
 
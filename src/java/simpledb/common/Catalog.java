@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PageCodec;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -61,11 +62,26 @@ public class Catalog {
 		// some code goes here
 		for (Integer key : hashTable.keySet()) {
 			if (hashTable.get(key).name.equals(name)) {
-				hashTable.remove(key);
+				close(hashTable.remove(key), file);
 				break;
 			}
 		}
-		hashTable.put(file.getId(), new Table(file, name, pkeyField));
+		close(hashTable.put(file.getId(), new Table(file, name, pkeyField)), file);
+	}
+
+	/**
+	 * Closes the file of a table dropped from the catalog, unless it is the
+	 * file replacing it.
+	 */
+	private static void close(Table dropped, DbFile replacement) {
+		if (dropped == null || dropped.file == replacement)
+			return;
+		try {
+			dropped.file.close();
+		} catch (IOException e) {
+			// closing doesn't discard what was written to it
+			e.printStackTrace();
+		}
 	}
 
 	public void addTable(DbFile file, String name) {
@@ -152,12 +168,20 @@ public class Catalog {
 	/** Delete all tables from the catalog */
 	public void clear() {
 		// some code goes here
+		for (Table t : hashTable.values())
+			close(t, null);
 		hashTable.clear();
 	}
 
 	/**
 	 * Reads the schema from a file and creates the appropriate tables in the
-	 * database.
+	 * database. Each line describes a table as
+	 * <code>name (field type [pk], ...) [slotted|pax] [rle|lz] [pagesize=N]</code>,
+	 * where the optional words choose the format of the table's pages (see
+	 * {@link HeapFile.PageFormat}), the codec they are compressed with on
+	 * disk (see {@link PageCodec}) and the size of its pages; tables are
+	 * FIXED and uncompressed by default, and have pages of the size recorded
+	 * in their file, or of the database's page size.
 	 * 
 	 * @param catalogFile
 	 */
@@ -199,7 +223,29 @@ public class Catalog {
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
 				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+				// an optional page format and codec may follow the field list
+				HeapFile.PageFormat pageFormat = HeapFile.PageFormat.FIXED;
+				PageCodec codec = null;
+				int pageSize = 0;
+				for (String opt : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+					if (opt.isEmpty())
+						continue;
+					if (opt.equalsIgnoreCase("slotted"))
+						pageFormat = HeapFile.PageFormat.SLOTTED;
+					else if (opt.equalsIgnoreCase("pax"))
+						pageFormat = HeapFile.PageFormat.PAX;
+					else if (opt.equalsIgnoreCase("rle"))
+						codec = PageCodec.RLE;
+					else if (opt.equalsIgnoreCase("lz"))
+						codec = PageCodec.LZ;
+					else if (opt.toLowerCase().startsWith("pagesize="))
+						pageSize = Integer.parseInt(opt.substring("pagesize=".length()));
+					else {
+						System.out.println("Unknown table option " + opt);
+						System.exit(0);
+					}
+				}
+				HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, pageFormat, codec, pageSize);
 				addTable(tabHf, name, primaryKey);
 				System.out.println("Added table : " + name + " with schema " + t);
 			}
@@ -209,6 +255,9 @@ public class Catalog {
 		} catch (IndexOutOfBoundsException e) {
 			System.out.println("Invalid catalog entry : " + line);
 			System.exit(0);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid catalog entry : " + line + ": " + e.getMessage());
+			System.exit(0);
 		}
 	}
 }
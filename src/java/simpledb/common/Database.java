@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.storage.ReplacementPolicy;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -13,20 +14,40 @@ import java.util.concurrent.atomic.AtomicReference;
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
+ * <p>
+ * The buffer pool's replacement policy is CLOCK unless the system property
+ * simpledb.replacement names another (see {@link ReplacementPolicy.Type#parse}).
+ * Deadlocks are detected unless the system property simpledb.deadlock names
+ * a policy that prevents them (see {@link BufferPool.DeadlockPolicy#parse}),
+ * and transactions lock pages unless simpledb.locking is "record" (see
+ * {@link BufferPool.LockGranularity#parse}); read-only transactions can read
+ * snapshots if simpledb.mvcc is "true". These are read when the database
+ * starts, and kept by the pools it resets to.
  * 
  * @Threadsafe
  */
 public class Database {
-    private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
+    private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database(defaultPolicy()));
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final ReplacementPolicy.Type _policy;
+    private final BufferPool.DeadlockPolicy _deadlockPolicy;
+    private final BufferPool.LockGranularity _granularity;
+    private final boolean _snapshotReads;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
-    private Database() {
+    private Database(ReplacementPolicy.Type policy) {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _policy = policy;
+        _deadlockPolicy = defaultDeadlockPolicy();
+        _granularity = defaultGranularity();
+        _snapshotReads = Boolean.getBoolean("simpledb.mvcc");
+        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES, policy);
+        _bufferpool.setDeadlockPolicy(_deadlockPolicy);
+        _bufferpool.setLockGranularity(_granularity);
+        _bufferpool.setSnapshotReads(_snapshotReads);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -48,6 +69,21 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    private static ReplacementPolicy.Type defaultPolicy() {
+        String name = System.getProperty("simpledb.replacement");
+        return name == null ? ReplacementPolicy.Type.CLOCK : ReplacementPolicy.Type.parse(name);
+    }
+
+    private static BufferPool.DeadlockPolicy defaultDeadlockPolicy() {
+        String name = System.getProperty("simpledb.deadlock");
+        return name == null ? BufferPool.DeadlockPolicy.DETECT : BufferPool.DeadlockPolicy.parse(name);
+    }
+
+    private static BufferPool.LockGranularity defaultGranularity() {
+        String name = System.getProperty("simpledb.locking");
+        return name == null ? BufferPool.LockGranularity.PAGE : BufferPool.LockGranularity.parse(name);
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -58,11 +94,30 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, _instance.get()._policy);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool with
+     * the specified replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Type policy) {
         java.lang.reflect.Field bufferPoolF=null;
+        try {
+            // committed pages the old pool hadn't written back yet
+            _instance.get()._bufferpool.stopBackgroundWriter();
+            _instance.get()._bufferpool.stopHotPageDump();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool pool = new BufferPool(pages, policy);
+            pool.setDeadlockPolicy(_instance.get()._deadlockPolicy);
+            pool.setLockGranularity(_instance.get()._granularity);
+            pool.setSnapshotReads(_instance.get()._snapshotReads);
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -72,7 +127,12 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.set(new Database(defaultPolicy()));
+    }
+
+    // reset the database with the specified replacement policy
+    public static void reset(ReplacementPolicy.Type policy) {
+        _instance.set(new Database(policy));
     }
 
 }
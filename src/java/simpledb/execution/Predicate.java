@@ -1,6 +1,8 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.LazyTuple;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -110,6 +112,12 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+    	if (t instanceof LazyTuple && operand instanceof IntField) {
+    		// compare straight from the page bytes without decoding the field
+    		LazyTuple lt = (LazyTuple) t;
+    		if (lt.isIntField(this.field))
+    			return IntField.compare(lt.getInt(this.field), op, ((IntField) operand).getValue());
+    	}
     	if(t.getField(this.field).compare(op, operand))
     	//if(operand.compare(op, t.getField(this.field)))
     		return true;
@@ -5,7 +5,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -25,6 +27,8 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     //private DbFile dbFile;
     private DbFileIterator dbfileIterator;
+    private final int[] fields; // null to return whole tuples
+    private final TupleDesc projected; // set if the file's iterator can't project
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -43,12 +47,42 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that returns only the
+     * specified fields of each tuple, in the order given. Scans of a HeapFile
+     * never decode the other fields of tuples on PAX pages, so Project and
+     * Aggregate over such a scan read only the columns they need.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param fields
+     *            the indexes of the fields to return, or null for all fields
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
         // some code goes here
     	this.transactionId = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.fields = fields == null ? null : fields.clone();
         //this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        this.dbfileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(transactionId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (this.fields != null && file instanceof HeapFile) {
+            this.dbfileIterator = ((HeapFile) file).iterator(transactionId, this.fields,
+                    HeapFile.getDefaultReadAhead());
+            this.projected = null;
+        } else {
+            this.dbfileIterator = file.iterator(transactionId);
+            this.projected = this.fields == null ? null
+                    : TupleDesc.project(file.getTupleDesc(), this.fields);
+        }
     }
 
     /**
@@ -93,6 +127,19 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Sets the number of pages this scan reads ahead of the page it is on,
+     * overriding {@link HeapFile#setDefaultReadAhead}. Only scans of a
+     * HeapFile read ahead; must be called before open().
+     *
+     * @param pages the number of pages to read ahead; 0 disables read-ahead
+     */
+    public void setReadAhead(int pages) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile)
+            this.dbfileIterator = ((HeapFile) file).iterator(transactionId, fields, pages);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
     	dbfileIterator.open();
@@ -110,7 +157,9 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-    	 final TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+    	 TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+    	 if (fields != null)
+    	     td = TupleDesc.project(td, fields);
          Type[] typeAr = new Type[td.numFields()];
          String[] fieldAr = new String[td.numFields()];
 
@@ -143,8 +192,16 @@ public class SeqScan implements OpIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-    	if( hasNext() )
-    		return dbfileIterator.next();
+    	if( hasNext() ) {
+    		Tuple t = dbfileIterator.next();
+    		if (projected == null)
+    			return t;
+    		Tuple ret = new Tuple(projected);
+    		for (int i = 0; i < fields.length; i++)
+    			ret.setField(i, t.getField(fields[i]));
+    		ret.setRecordId(t.getRecordId());
+    		return ret;
+    	}
     	else
     		throw new NoSuchElementException("NoSuchElementException");
         //return null;
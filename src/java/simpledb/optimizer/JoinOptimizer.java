@@ -261,6 +261,8 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
     	int numJoinNodes = this.joins.size();
+        if (numJoinNodes == 0)
+            return this.joins;
         PlanCache memo = new PlanCache();
         for (int i = 1; i <= numJoinNodes; i ++) {
             Set<Set<LogicalJoinNode>> setOfSubset = this.enumerateSubsets(this.joins, i);
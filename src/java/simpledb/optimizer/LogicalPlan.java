@@ -292,12 +292,14 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,Set<String>> referenced = referencedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 int id = Database.getCatalog().getDatabaseFile(table.t).getId();
+                 ss = new SeqScan(t, id, table.alias, scanFields(id, referenced.get(table.alias)));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -339,7 +341,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats cover every field of the table, not just the scanned ones
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            double sel = s.estimateSelectivity(tableTd.fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -478,6 +482,69 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Returns the names of the fields of each table alias that the filters,
+     * joins, select list, aggregate and ORDER BY refer to. A table that
+     * isn't in the map, or maps to null because tableAlias.* is referred
+     * to, is scanned whole; the map is empty if * is, which needs every
+     * field of every table.
+     *
+     * @throws ParsingException if a name isn't of the form tableAlias.fieldName
+     */
+    private Map<String,Set<String>> referencedFields() throws ParsingException {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        Map<String,Set<String>> referenced = new HashMap<>();
+        for (String name : names) {
+            if (name.equals("*") || name.equals("null.*"))
+                return new HashMap<>();
+            String[] parts = name.split("[.]");
+            if (parts.length != 2)
+                throw new ParsingException("Field " + name + " is not a valid field reference.");
+            if (parts[1].equals("*"))
+                referenced.put(parts[0], null);
+            // unless the table is already scanned whole
+            else if (!referenced.containsKey(parts[0]) || referenced.get(parts[0]) != null)
+                referenced.computeIfAbsent(parts[0], k -> new HashSet<>()).add(parts[1]);
+        }
+        return referenced;
+    }
+
+    /**
+     * Returns the indices, in the table's order, of the named fields of a
+     * table, or null to scan every field: if names is null, names them all,
+     * or names a field the table doesn't have, which the caller reports.
+     */
+    private static int[] scanFields(int tableId, Set<String> names) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        if (names == null || names.size() >= td.numFields())
+            return null;
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(td.getFieldName(i)))
+                fields.add(i);
+        }
+        if (fields.size() != names.size())
+            return null;
+        return fields.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ArcReplacer implements Adaptive Replacement Cache (Megiddo and Modha,
+ * 2003). Cached pages are split between T1, pages seen once recently, and
+ * T2, pages seen at least twice; both are LRU lists. Pages evicted from T1
+ * and T2 are remembered in the ghost lists B1 and B2. A miss that hits B1
+ * means T1 was too small, and grows its target size p; a miss that hits B2
+ * shrinks it. A scan only churns T1, so the frequently used pages in T2
+ * survive it.
+ * <p>
+ * All operations are O(1), apart from skipping pages that can't be evicted.
+ *
+ * @Threadsafe
+ */
+public class ArcReplacer implements ReplacementPolicy {
+
+    private final int capacity;
+    // all protected by this; iteration order is least recently used first
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+    private int p = 0; // target size of T1
+
+    /**
+     * Creates an ARC policy for a pool of capacity pages.
+     */
+    public ArcReplacer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid))
+            t2.add(pid);
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid))
+            return;
+        if (b1.remove(pid)) {
+            p = Math.min(capacity, p + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+            t2.add(pid);
+        } else if (b2.remove(pid)) {
+            p = Math.max(0, p - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        // trimmed here rather than on eviction, since victim is called
+        // before add for the page being read
+        trimGhosts();
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        if (!t1.remove(pid))
+            t2.remove(pid);
+        if (!b1.remove(pid))
+            b2.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        PageId pid;
+        if (!t1.isEmpty() && (t1.size() > p || t2.isEmpty())) {
+            pid = evict(t1, b1, evictable);
+            if (pid == null)
+                pid = evict(t2, b2, evictable);
+        } else {
+            pid = evict(t2, b2, evictable);
+            if (pid == null)
+                pid = evict(t1, b1, evictable);
+        }
+        return pid;
+    }
+
+    /**
+     * Moves the least recently used evictable page of list to its ghost
+     * list, returning it.
+     */
+    private PageId evict(LinkedHashSet<PageId> list, LinkedHashSet<PageId> ghost,
+            Predicate<PageId> evictable) {
+        Iterator<PageId> it = list.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                ghost.add(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps |T1| + |B1| and the size of all four lists within the bounds of
+     * the ARC directory: capacity and twice the capacity.
+     */
+    private void trimGhosts() {
+        while (!b1.isEmpty() && t1.size() + b1.size() > capacity)
+            dropOldest(b1);
+        while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity)
+            dropOldest(b2);
+    }
+
+    private static void dropOldest(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        it.next();
+        it.remove();
+    }
+
+    @Override
+    public synchronized int size() {
+        return t1.size() + t2.size();
+    }
+
+    @Override
+    public synchronized List<PageId> pages() {
+        // the list victim takes from first, LRU first, then the other
+        boolean t1First = !t1.isEmpty() && (t1.size() > p || t2.isEmpty());
+        List<PageId> pages = new ArrayList<>(t1First ? t1 : t2);
+        pages.addAll(t1First ? t2 : t1);
+        Collections.reverse(pages);
+        return pages;
+    }
+}
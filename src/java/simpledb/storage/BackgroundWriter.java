@@ -0,0 +1,173 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackgroundWriter is a daemon thread that trickles the pages committed
+ * transactions left dirty in a BufferPool to disk. While a pool has a
+ * background writer, commit only logs the after-images of a transaction's
+ * pages and forces the log once; the pages are written later, by this
+ * thread or by eviction. Since a page is handed to the writer only once its
+ * log records are durable, the writer never breaks write-ahead logging.
+ * <p>
+ * The writer is rate limited: every interval it writes at most
+ * pagesPerRound pages.
+ * <p>
+ * Since commits no longer write their pages, only a checkpoint lets the log
+ * be truncated. After a round in which the log has grown by checkpointBytes
+ * since the last checkpoint, the writer takes one with
+ * {@link LogFile#logCommittedCheckpoint}, which writes the committed pages
+ * still pending but not those of running transactions.
+ *
+ * @see BufferPool#startBackgroundWriter
+ */
+public class BackgroundWriter implements Runnable {
+
+    /** Default number of pages written per round. */
+    public static final int DEFAULT_PAGES_PER_ROUND = 64;
+    /** Default time between rounds, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+    /** Default growth of the log, in bytes, between checkpoints. */
+    public static final long DEFAULT_CHECKPOINT_BYTES = 16L << 20;
+
+    private final BufferPool pool;
+    private final int pagesPerRound;
+    private final long intervalMillis;
+    private final long checkpointBytes;
+    private final Thread thread;
+    private volatile boolean running = true;
+    /** Size of the log after the last checkpoint; only used by the thread */
+    private long checkpointedSize = 0;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    BackgroundWriter(BufferPool pool, int pagesPerRound, long intervalMillis, long checkpointBytes) {
+        if (pagesPerRound < 1 || intervalMillis < 1)
+            throw new IllegalArgumentException("the writer must write at least one page per round");
+        if (checkpointBytes < 0)
+            throw new IllegalArgumentException("checkpoint distance must not be negative");
+        this.pool = pool;
+        this.pagesPerRound = pagesPerRound;
+        this.intervalMillis = intervalMillis;
+        this.checkpointBytes = checkpointBytes;
+        this.thread = new Thread(this, "simpledb-bgwriter");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for it to finish its round.
+     */
+    void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                written.addAndGet(pool.writeBackPending(pagesPerRound));
+            } catch (IOException e) {
+                // the pages stay pending, and are retried in the next round
+                errors.incrementAndGet();
+            }
+            try {
+                checkpointIfDue();
+            } catch (IOException e) {
+                // retried after the next round
+                errors.incrementAndGet();
+            }
+            rounds.incrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a checkpoint if the log has grown by checkpointBytes since the
+     * last one.
+     */
+    private void checkpointIfDue() throws IOException {
+        if (checkpointBytes == 0)
+            return;
+        LogFile log = Database.getLogFile();
+        long size = log.getLogSize();
+        // truncation may leave the log smaller than it was after the last one
+        if (size < checkpointedSize)
+            checkpointedSize = size;
+        if (size - checkpointedSize < checkpointBytes)
+            return;
+        log.logCommittedCheckpoint();
+        checkpointedSize = log.getLogSize();
+        checkpoints.incrementAndGet();
+    }
+
+    /**
+     * Returns the maximum number of pages written per round.
+     */
+    public int getPagesPerRound() {
+        return pagesPerRound;
+    }
+
+    /**
+     * Returns the time between rounds, in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Returns the number of pages this writer has written.
+     */
+    public long getPagesWritten() {
+        return written.get();
+    }
+
+    /**
+     * Returns the growth of the log, in bytes, after which this writer takes
+     * a checkpoint; 0 if it takes none.
+     */
+    public long getCheckpointBytes() {
+        return checkpointBytes;
+    }
+
+    /**
+     * Returns the number of checkpoints this writer has taken.
+     */
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    /**
+     * Returns the number of rounds this writer has completed.
+     */
+    public long getRounds() {
+        return rounds.get();
+    }
+
+    /**
+     * Returns the number of rounds in which writing pages or taking a
+     * checkpoint failed with an I/O error.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+}
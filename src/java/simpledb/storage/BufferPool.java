@@ -8,10 +8,28 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.Random;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,394 +38,1919 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. The locks are kept by a {@link LockManager},
+ * on pages or, with {@link LockGranularity#RECORD}, on the records of
+ * HeapFiles. With snapshot reads on, read-only transactions take no locks
+ * at all and read the pages as they were committed when they began; see
+ * {@link #beginSnapshot}.
  * 
  * @Threadsafe, all fields are final
  */
-class LockManager {
-    enum LockType {
-        SLock, XLock
+public class BufferPool {
+    /** Bytes per page, including header. */
+    private static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private static int pageSize = DEFAULT_PAGE_SIZE;
+    
+    /** Default number of pages passed to the constructor. This is used by
+    other classes. BufferPool should use the numPages argument to the
+    constructor instead. */
+    public static final int DEFAULT_PAGES = 50;
+    
+    /** Smallest number of pages per shard when the shard count is chosen. */
+    public static final int MIN_SHARD_PAGES = 256;
+    /** Largest number of shards chosen by default. */
+    public static final int MAX_SHARDS = 64;
+
+    private int numPages = 0;
+    private final Shard[] shards;
+    
+    private LockManager lockMgr;
+    private static int TRANSATION_FACTOR = 2;
+    /** Longest wait for a page lock in milliseconds, or 0 for no limit. */
+    private volatile int lockTimeout = 0;
+
+    /**
+     * How a deadlock chooses the transaction it aborts.
+     *
+     * @see #setDeadlockVictimPolicy
+     */
+    public enum VictimPolicy {
+        /** The transaction that began last, which has likely done the least work. */
+        YOUNGEST,
+        /** The transaction holding the fewest locks, the youngest among equals. */
+        FEWEST_LOCKS
+    }
+
+    /**
+     * How deadlocks are handled: detected and broken, or prevented by the
+     * age of the transactions, older meaning a smaller
+     * {@link TransactionId#getId}.
+     *
+     * @see #setDeadlockPolicy
+     */
+    public enum DeadlockPolicy {
+        /** Waits are checked for cycles, one transaction of each is aborted. */
+        DETECT,
+        /** An older transaction waits for a younger one, a younger one is aborted. */
+        WAIT_DIE,
+        /** An older transaction aborts a younger one, a younger one waits. */
+        WOUND_WAIT;
+
+        /**
+         * Returns the policy named by s, e.g. "detect", "wait-die" or
+         * "wound-wait", ignoring case.
+         *
+         * @throws IllegalArgumentException if s names no policy
+         */
+        public static DeadlockPolicy parse(String s) {
+            return valueOf(s.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * What a transaction locks to read or change the tuples of a HeapFile.
+     *
+     * @see #setLockGranularity
+     */
+    public enum LockGranularity {
+        /** The pages, shared to read and exclusive to change any of their tuples. */
+        PAGE,
+        /**
+         * The records, shared or exclusive, under intention locks on their
+         * page and table, so that transactions changing different tuples of
+         * a page don't wait for each other. Pages of other files, such as
+         * B+ trees, are still locked whole.
+         */
+        RECORD;
+
+        /**
+         * Returns the granularity named by s, "page" or "record", ignoring
+         * case.
+         *
+         * @throws IllegalArgumentException if s names no granularity
+         */
+        public static LockGranularity parse(String s) {
+            return valueOf(s.trim().toUpperCase());
+        }
+    }
+
+    /** Default number of record locks on a page a transaction trades for a page lock. */
+    public static final int DEFAULT_PAGE_RECORD_LOCKS = 64;
+    /** Default number of record locks on a table a transaction trades for a table lock. */
+    public static final int DEFAULT_TABLE_RECORD_LOCKS = 1024;
+
+    private volatile LockGranularity granularity = LockGranularity.PAGE;
+    private volatile int pageRecordLocks = DEFAULT_PAGE_RECORD_LOCKS;
+    private volatile int tableRecordLocks = DEFAULT_TABLE_RECORD_LOCKS;
+    private final AtomicLong escalations = new AtomicLong();
+
+    /**
+     * What a transaction did under record locking; synchronized on itself.
+     * Changes to inserted are also made holding the page's latch, the page
+     * object's monitor, so that a commit sees which records of a page it
+     * must leave out.
+     */
+    private static final class RowState {
+        /** Records it inserted, in order; removed from their pages on abort */
+        final List<RecordId> inserted = new ArrayList<>();
+        /** Records it deleted, which are removed from their pages on commit */
+        final Set<RecordId> deleted = new LinkedHashSet<>();
+        /** The record locks it holds, by page */
+        final Map<PageId, Set<RecordId>> locks = new HashMap<>();
+        /** The number of record locks it holds, by table */
+        final Map<Integer, Integer> tableLocks = new HashMap<>();
+
+        /** Returns the pages it inserted or deleted records on. */
+        Set<PageId> pages() {
+            Set<PageId> pids = new HashSet<>();
+            for (RecordId rid : inserted)
+                pids.add(rid.getPageId());
+            for (RecordId rid : deleted)
+                pids.add(rid.getPageId());
+            return pids;
+        }
+    }
+
+    private final ConcurrentHashMap<TransactionId, RowState> rowStates = new ConcurrentHashMap<>();
+
+    /**
+     * The committed versions of a page that snapshots may still read,
+     * synchronized on itself. Entries are only added holding the page's
+     * latch, the page object's monitor, and the ones nobody needs any more
+     * are pruned; a chain with none left is removed from versions. A chain
+     * also keeps the page's last committed image once a snapshot has read
+     * it, so that the snapshots share one copy until the next commit.
+     */
+    private static final class VersionChain {
+        /** Commit after which each image was superseded, ascending */
+        private final ArrayDeque<Long> until = new ArrayDeque<>();
+        private final ArrayDeque<Page> images = new ArrayDeque<>();
+        /**
+         * The last committed image of the page, or null if no snapshot has
+         * read it since the last commit. A record locked page that has
+         * uncommitted records on it always has one, since its before-image
+         * is then out of date.
+         */
+        private Page latest;
+
+        /**
+         * Keeps the page's image as of before the specified commit, which is
+         * the shared committed image if snapshots already read one.
+         */
+        synchronized void supersede(Page image, long commit) {
+            until.addLast(commit);
+            images.addLast(latest != null ? latest : image);
+        }
+
+        synchronized void setLatest(Page image) {
+            latest = image;
+        }
+
+        /** Returns the image a snapshot of the specified commit reads, or null. */
+        synchronized Page find(long snapshot) {
+            Iterator<Long> u = until.iterator();
+            for (Page image : images) {
+                if (u.next() > snapshot)
+                    return image;
+            }
+            return latest;
+        }
+
+        /** Drops the images no snapshot of horizon or later reads. */
+        synchronized void prune(long horizon) {
+            while (!until.isEmpty() && until.peekFirst() <= horizon) {
+                until.removeFirst();
+                images.removeFirst();
+            }
+        }
+
+        synchronized int size() {
+            return images.size();
+        }
+
+        synchronized boolean isEmpty() {
+            return images.isEmpty() && latest == null;
+        }
+    }
+
+    private volatile boolean snapshotReads = false;
+    /** The number of the last commit snapshots can see; guarded by commitClock. */
+    private volatile long lastCommit = 0;
+    /** The number of the last commit that was numbered; guarded by commitClock. */
+    private long lastNumbered = 0;
+    private final Object commitClock = new Object();
+    /** The commit each running snapshot transaction reads as of. */
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<PageId, VersionChain> versions = new ConcurrentHashMap<>();
+    
+    private final ReplacementPolicy.Type policyType;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Pages of committed transactions whose after-images are in the log but
+     * that haven't been written back yet; only used with a background writer.
+     */
+    private final Set<PageId> pending = ConcurrentHashMap.newKeySet();
+    private volatile BackgroundWriter writer = null;
+
+    /** STEAL/NO-FORCE instead of NO-STEAL/FORCE. */
+    private volatile boolean stealNoForce = false;
+    /**
+     * Pages evicted while dirty, by the transaction that dirtied them, so
+     * that an abort can undo them on disk.
+     */
+    private final ConcurrentHashMap<TransactionId, StolenPages> stolen = new ConcurrentHashMap<>();
+
+    /**
+     * Held shared by commits while they log and write their pages, and by
+     * flushes and steals of single pages; held exclusively by the LogFile's
+     * checkpoints, rollbacks and recovery, so that they never see a commit
+     * half done. Taken before any page latch or the LogFile's monitor, and
+     * never held waiting for the pool's monitor.
+     */
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes commits under record locking: each builds the committed
+     * image of a page from the records the others have left uncommitted.
+     */
+    private final Object recordCommits = new Object();
+
+    /**
+     * The before-images of a transaction's pages evicted while dirty. Any
+     * transaction stealing one of its pages holds it while it logs and writes
+     * the page, and the transaction marks it complete before it commits or
+     * aborts, so that none of its pages is written once it has begun to.
+     */
+    private static final class StolenPages {
+        final Map<PageId, Page> before = new HashMap<>(); // protected by this
+        boolean complete = false; // protected by this
+    }
+
+    private final AtomicLong stealCount = new AtomicLong();
+    private final AtomicLong evictionWrites = new AtomicLong();
+    /** Lock owner the background writer and eviction write pending pages as. */
+    private static final TransactionId WRITER_TID = LockManager.LATCH_OWNER;
+
+    /** Pin counts of pinned pages; a page with no entry isn't pinned. */
+    private final ConcurrentHashMap<PageId, Integer> pins = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Set<PageHandle>> handles = new ConcurrentHashMap<>();
+
+    /** Number of threads issuing read-ahead requests, shared by all pools. */
+    private static final int PREFETCH_THREADS = 2;
+
+    /** Largest number of frames in a bulk read ring. */
+    public static final int RING_PAGES = 32;
+    private static ExecutorService prefetcher = null;
+
+    /**
+     * Bumped whenever a page may have been written to disk or dropped from the
+     * pool, so that a prefetch that raced with it doesn't install a stale page.
+     */
+    private final AtomicLong writeEpoch = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    /** Direct memory the pages of fixed-format HeapFiles are read into, or null. */
+    private volatile FrameArena arena = null;
+
+    /** Number of pages a warm-up task reads in one go. */
+    public static final int WARMUP_BATCH = 32;
+    /** Default time between dumps of the hot pages, in milliseconds. */
+    public static final long DEFAULT_HOT_PAGE_DUMP_MILLIS = 60 * 1000;
+
+    /** File the hot pages are dumped to, or null if they aren't. */
+    private volatile File hotPageFile = null;
+    private ScheduledExecutorService hotPageDumper = null; // protected by this
+    private Thread hotPageHook = null; // protected by this
+    /** Serializes dumps, which may come from the dumper and the exit hook at once. */
+    private final Object hotPageLock = new Object();
+    private final AtomicLong hotPageDumpErrors = new AtomicLong();
+
+    /**
+     * A partition of the pool: the pages whose ids hash to it, with their own
+     * replacement state. Misses, evictions and discards synchronize on the
+     * shard of the page only, so that they don't hold up the other shards;
+     * misses don't hold it while reading from disk, and hits don't
+     * synchronize at all. Code holding a shard never waits for the
+     * pool's monitor or the log.
+     */
+    private static final class Shard {
+        final ConcurrentHashMap<PageId, Page> pages = new ConcurrentHashMap<>();
+        /** Pages being read in by a miss, each holding a frame of the shard. */
+        final Map<PageId, Load> loading = new HashMap<>();
+        /** Chooses the page to evict; tracks exactly the pages in pages. */
+        final ReplacementPolicy replacer;
+        final int capacity;
+
+        Shard(ReplacementPolicy.Type policy, int capacity) {
+            this.capacity = capacity;
+            this.replacer = policy.create(capacity);
+        }
+
+        /**
+         * Adds a page to the shard, or replaces the cached version of it, and
+         * makes it a candidate for eviction. Called holding the shard.
+         */
+        void cache(Page pg) {
+            Page old = pages.put(pg.getId(), pg);
+            if (old != pg)
+                release(old);
+            replacer.add(pg.getId());
+        }
+
+        /** Whether every frame holds a page or is kept for one being read in. */
+        boolean full() {
+            return pages.size() + loading.size() >= capacity;
+        }
+    }
+
+    /**
+     * A page a miss is reading in without holding the shard; the other
+     * requesters of the page wait for it instead of reading it too. Its
+     * fields other than done are guarded by the shard.
+     */
+    private static final class Load {
+        /** Completes with the page once cached, or with null if the read failed. */
+        final CompletableFuture<Page> done = new CompletableFuture<>();
+        /** Set if the page is discarded meanwhile, as the read may predate the write before it. */
+        boolean stale = false;
+    }
+
+    /**
+     * Gives back the arena frame of a page that has left the pool, or was
+     * never cached; see {@link OffHeapHeapPage#release}.
+     *
+     * @param pg the page, or null
+     */
+    private static void release(Page pg) {
+        if (pg instanceof OffHeapHeapPage)
+            ((OffHeapHeapPage) pg).release();
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+    	this(numPages, ReplacementPolicy.Type.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting pages
+     * with the specified replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Type policy) {
+    	this(numPages, policy, defaultShards(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the specified
+     * number of shards. Pages are assigned to shards by the hash of their id;
+     * each shard holds an equal part of the pages and evicts them with its
+     * own instance of the replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy
+     * @param shards the number of shards, at most numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Type policy, int shards) {
+        // some code goes here
+    	if (shards < 1 || shards > Math.max(1, numPages))
+    		throw new IllegalArgumentException("a pool of " + numPages + " pages can't have " + shards + " shards");
+    	this.numPages = numPages;
+    	this.policyType = policy;
+    	this.shards = new Shard[shards];
+    	for (int i = 0; i < shards; i++)
+    		this.shards[i] = new Shard(policy, numPages / shards + (i < numPages % shards ? 1 : 0));
+    	this.lockMgr = new LockManager(numPages, TRANSATION_FACTOR * numPages);
+    }
+
+    /**
+     * Returns the number of shards a pool of numPages pages gets by default:
+     * the largest power of two that leaves every shard at least
+     * {@link #MIN_SHARD_PAGES} pages, up to {@link #MAX_SHARDS}.
+     */
+    public static int defaultShards(int numPages) {
+    	return Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(1, numPages / MIN_SHARD_PAGES)));
+    }
+
+    private Shard shardOf(PageId pid) {
+    	// page ids of a table hash to nearby values; spread them over the shards
+    	int h = pid.hashCode() * 0x9E3779B9;
+    	return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    /** Returns the cached version of a page, or null. */
+    private Page cachedPage(PageId pid) {
+    	return shardOf(pid).pages.get(pid);
+    }
+    
+    public static int getPageSize() {
+      return pageSize;
+    }
+    
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setPageSize(int pageSize) {
+    	BufferPool.pageSize = pageSize;
+    }
+    
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetPageSize() {
+    	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool.  If it
+     * is present, it should be returned.  If it is not present, it should
+     * be added to the buffer pool and returned.  If there is insufficient
+     * space in the buffer pool, a page should be evicted and the new page
+     * should be added in its place.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+    	return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId,
+     * Permissions)} does, except that if the page has to be read from disk,
+     * it reuses a frame of the specified ring instead of evicting a page
+     * chosen by the replacement policy.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the bulk read, or null to use the whole pool
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        // some code goes here
+    	//System.out.println("111");
+    	Long snapshot = snapshots.get(tid);
+    	if (snapshot != null) {
+    		if (perm != Permissions.READ_ONLY)
+    			throw new DbException("snapshot transaction " + tid + " is read-only");
+    		return snapshotPage(tid, pid, snapshot, ring);
+    	}
+    	LockManager.LockType lockType;
+    	if (perm == Permissions.READ_ONLY) {
+            lockType = LockManager.LockType.S;
+        } else {
+            lockType = LockManager.LockType.X;
+        }
+    	if (recordLocked(pid)) {
+    		// the HeapFile locks the records it reads or changes
+    		lockType = lockType.intention();
+    		lockMgr.acquireLock(tid, LockManager.tableKey(pid.getTableId()), lockType, lockTimeout);
+    	}
+    	lockMgr.acquireLock(tid, pid, lockType, lockTimeout);
+    	return fetchPage(tid, pid, ring);
+    }
+
+    /**
+     * Returns a page as it was after the specified commit: the image a later
+     * commit superseded, if there is one, or else the page's last committed
+     * image. The page is read into the pool, without a lock, if it isn't
+     * cached; the image returned is never changed.
+     */
+    private Page snapshotPage(TransactionId tid, PageId pid, long snapshot, BufferRing ring)
+            throws DbException {
+    	Page pg = fetchPage(tid, pid, ring);
+    	// commits supersede an image before they change it, holding the latch
+    	synchronized (pg) {
+    		VersionChain chain = versions.get(pid);
+    		Page image = chain == null ? null : chain.find(snapshot);
+    		if (image != null)
+    			return image;
+    		// copied once per commit; an off-heap page's copy stays on the heap
+    		Page committed = pg.getBeforeImage();
+    		versions.compute(pid, (k, c) -> {
+    			if (c == null)
+    				c = new VersionChain();
+    			c.setLatest(committed);
+    			return c;
+    		});
+    		return committed;
+    	}
+    }
+
+    /**
+     * Returns the cached version of a page the transaction has locked,
+     * reading it in if it isn't cached.
+     */
+    private Page fetchPage(TransactionId tid, PageId pid, BufferRing ring) throws DbException {
+    	// hits don't synchronize at all, misses only on the page's shard
+    	Shard sh = shardOf(pid);
+    	Page pg = sh.pages.get(pid);
+    	if (pg != null) {
+    		sh.replacer.recordAccess(pid);
+    		hits.increment();
+    		return pg;
+    	}
+    	if (ring != null)
+    		reuseRingFrame(ring.advance(pid));
+    	while (true) {
+    		Load load;
+    		boolean reader = false;
+    		synchronized (sh) {
+    			pg = sh.pages.get(pid);
+    			if (pg != null) {
+    				sh.replacer.recordAccess(pid);
+    				hits.increment();
+    				return pg;
+    			}
+    			load = sh.loading.get(pid);
+    			if (load == null && (!sh.full() || evictPage(sh))) {
+    				load = new Load();
+    				sh.loading.put(pid, load);
+    				reader = true;
+    			}
+    			if (load == null && !stealNoForce)
+    				throw new DbException("evictPage: all pages in the buffer pool are dirty or pinned");
+    		}
+    		if (reader) {
+    			misses.increment();
+    			return readIn(sh, pid, load);
+    		}
+    		if (load != null) {
+    			pg = load.done.join();
+    			if (pg != null) {
+    				hits.increment();
+    				return pg;
+    			}
+    			// the read failed; try it again
+    			continue;
+    		}
+    		// stealing logs the page, which can't be done holding the shard
+    		if (!stealPage(sh, tid))
+    			throw new DbException("evictPage: all pages in the buffer pool are dirty or pinned");
+    	}
+    }
+
+    /**
+     * Reads a page into the frame a miss kept for it, holding the shard only
+     * to cache it. The page is read again if it was discarded during the
+     * read. The requesters waiting for it are woken whether the read
+     * succeeds or not.
+     */
+    private Page readIn(Shard sh, PageId pid, Load load) {
+    	try {
+    		while (true) {
+    			Page pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    			synchronized (sh) {
+    				if (!load.stale) {
+    					sh.loading.remove(pid);
+    					Page cached = sh.pages.get(pid);
+    					if (cached != null) {
+    						release(pg);
+    						pg = cached;
+    					} else {
+    						sh.cache(pg);
+    					}
+    					load.done.complete(pg);
+    					return pg;
+    				}
+    				load.stale = false;
+    			}
+    			release(pg);
+    		}
+    	} finally {
+    		if (!load.done.isDone()) {
+    			synchronized (sh) {
+    				sh.loading.remove(pid);
+    			}
+    			load.done.complete(null);
+    		}
+    	}
+    }
+
+    /**
+     * Asynchronously reads the specified page into the buffer pool, if it is
+     * not already cached, so that a later getPage for it doesn't wait on disk.
+     * No lock is acquired on the page: the page is only cached, and a
+     * transaction still locks it when it calls getPage. A prefetched page
+     * never forces out a dirty page; if the pool has no clean page to evict,
+     * the request is dropped.
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) {
+    	prefetchPage(pid, null);
+    }
+
+    /**
+     * Asynchronously reads the specified page into the buffer pool as
+     * {@link #prefetchPage(PageId)} does, into a frame of the specified ring.
+     *
+     * @param pid the ID of the page to read ahead
+     * @param ring the ring of the bulk read, or null to use the whole pool
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+    	Shard sh = shardOf(pid);
+    	if (sh.pages.containsKey(pid))
+    		return;
+    	prefetcher().execute(() -> {
+    		if (sh.pages.containsKey(pid))
+    			return;
+    		long epoch = writeEpoch.get();
+    		Page pg;
+    		try {
+    			pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    		} catch (RuntimeException e) {
+    			// the table was dropped or the page is unreadable; getPage will report it
+    			return;
+    		}
+    		if (ring != null)
+    			reuseRingFrame(ring.advance(pid));
+    		if (install(sh, pg, epoch, true))
+    			prefetched.incrementAndGet();
+    	});
+    }
+
+    /**
+     * Caches a page read without a lock, unless the page was cached or may
+     * have changed on disk since the read began.
+     *
+     * @param sh the shard of the page
+     * @param pg the page read
+     * @param epoch the write epoch when the read began
+     * @param evict whether a clean page may be evicted to make room for pg
+     * @return true if the page was cached
+     */
+    private boolean install(Shard sh, Page pg, long epoch, boolean evict) {
+    	synchronized (sh) {
+    		try {
+    			if (sh.pages.containsKey(pg.getId()) || sh.loading.containsKey(pg.getId())
+    					|| writeEpoch.get() != epoch || sh.full() && !(evict && evictPage(sh))) {
+    				release(pg);
+    				return false;
+    			}
+    		} catch (DbException e) {
+    			release(pg);
+    			return false;
+    		}
+    		sh.cache(pg);
+    		return true;
+    	}
+    }
+
+    /**
+     * Returns the ids of the cached pages in order of replacement priority,
+     * the page the pool would keep longest first. The shards' lists are
+     * interleaved rank by rank.
+     */
+    public List<PageId> getHotPages() {
+    	List<List<PageId>> lists = new ArrayList<>(shards.length);
+    	for (Shard sh : shards)
+    		lists.add(sh.replacer.pages());
+    	List<PageId> pages = new ArrayList<>();
+    	for (int rank = 0; pages.size() < numPages; rank++) {
+    		boolean more = false;
+    		for (List<PageId> l : lists) {
+    			if (rank < l.size()) {
+    				pages.add(l.get(rank));
+    				more = true;
+    			}
+    		}
+    		if (!more)
+    			break;
+    	}
+    	return pages;
+    }
+
+    /**
+     * Saves the ids of the cached pages, hottest first, to the specified
+     * file, for a later {@link #warmUp}.
+     *
+     * @param f the file to save the list to
+     * @return the number of page ids saved
+     */
+    public int saveHotPages(File f) throws IOException {
+    	List<PageId> pages = getHotPages();
+    	synchronized (hotPageLock) {
+    		HotPageFile.write(f, pages);
+    	}
+    	return pages.size();
+    }
+
+    /**
+     * Asynchronously reads the pages saved by {@link #saveHotPages} into the
+     * pool, so that the first queries after a restart find them cached. The
+     * hottest pages that fit in the pool are sorted by file and page number
+     * and read in batches of {@link #WARMUP_BATCH} pages by the read-ahead
+     * threads, so that each batch reads one stretch of a file in order. No
+     * locks are acquired, and a warm-up never evicts a page: pages that no
+     * longer fit, or whose tables are no longer in the catalog, are skipped.
+     *
+     * @param f the file the list was saved to; if it doesn't exist, nothing
+     *          is read
+     * @return a future that completes with the number of pages read in
+     * @throws IOException if the list can't be read
+     */
+    public CompletableFuture<Integer> warmUp(File f) throws IOException {
+    	List<PageId> hot = HotPageFile.read(f);
+    	List<PageId> pids = new ArrayList<>(hot.subList(0, Math.min(hot.size(), numPages)));
+    	pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+    	List<CompletableFuture<Integer>> batches = new ArrayList<>();
+    	for (int i = 0; i < pids.size(); i += WARMUP_BATCH) {
+    		List<PageId> batch = pids.subList(i, Math.min(pids.size(), i + WARMUP_BATCH));
+    		batches.add(CompletableFuture.supplyAsync(() -> warmUp(batch), prefetcher()));
+    	}
+    	return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+    			.thenApply(v -> batches.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    /**
+     * Reads a batch of pages for warmUp, returning the number cached.
+     */
+    private int warmUp(List<PageId> batch) {
+    	int n = 0;
+    	for (PageId pid : batch) {
+    		Shard sh = shardOf(pid);
+    		if (sh.pages.containsKey(pid))
+    			continue;
+    		long epoch = writeEpoch.get();
+    		Page pg;
+    		try {
+    			DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    			// a heap file reads pages past its end as empty ones
+    			if (file instanceof HeapFile && pid.getPageNumber() >= ((HeapFile) file).cachedNumPages())
+    				continue;
+    			pg = file.readPage(pid);
+    		} catch (RuntimeException e) {
+    			// the table was dropped or is unreadable since the list was saved
+    			continue;
+    		}
+    		if (install(sh, pg, epoch, false))
+    			n++;
+    	}
+    	return n;
+    }
+
+    /**
+     * Saves the hot pages to the specified file every intervalMillis
+     * milliseconds, and when the JVM exits, so that the next run can
+     * {@link #warmUp} from it. Replaces any earlier dump.
+     *
+     * @param f the file to save the list to
+     * @param intervalMillis the time between dumps, or 0 to dump only on exit
+     *                       and {@link #stopHotPageDump}
+     */
+    public synchronized void startHotPageDump(File f, long intervalMillis) {
+    	if (intervalMillis < 0)
+    		throw new IllegalArgumentException("negative dump interval " + intervalMillis);
+    	cancelHotPageDump();
+    	hotPageFile = f;
+    	if (intervalMillis > 0) {
+    		hotPageDumper = Executors.newSingleThreadScheduledExecutor(r -> {
+    			Thread t = new Thread(r, "simpledb-hotpages");
+    			t.setDaemon(true);
+    			return t;
+    		});
+    		hotPageDumper.scheduleWithFixedDelay(this::dumpHotPages, intervalMillis, intervalMillis,
+    				TimeUnit.MILLISECONDS);
+    	}
+    	hotPageHook = new Thread(this::dumpHotPages, "simpledb-hotpages-exit");
+    	Runtime.getRuntime().addShutdownHook(hotPageHook);
+    }
+
+    /**
+     * Stops dumping the hot pages, after a last dump.
+     */
+    public void stopHotPageDump() throws IOException {
+    	File f;
+    	synchronized (this) {
+    		f = hotPageFile;
+    		cancelHotPageDump();
+    	}
+    	if (f != null)
+    		saveHotPages(f);
+    }
+
+    private void cancelHotPageDump() {
+    	hotPageFile = null;
+    	if (hotPageDumper != null) {
+    		hotPageDumper.shutdownNow();
+    		try {
+    			hotPageDumper.awaitTermination(1, TimeUnit.MINUTES);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    		hotPageDumper = null;
+    	}
+    	if (hotPageHook != null) {
+    		try {
+    			Runtime.getRuntime().removeShutdownHook(hotPageHook);
+    		} catch (IllegalStateException e) {
+    			// the JVM is exiting, and the hook is running or has run
+    		}
+    		hotPageHook = null;
+    	}
+    }
+
+    private void dumpHotPages() {
+    	File f = hotPageFile;
+    	if (f == null)
+    		return;
+    	try {
+    		saveHotPages(f);
+    	} catch (IOException e) {
+    		// the previous list stays; the next dump retries
+    		hotPageDumpErrors.incrementAndGet();
+    	}
+    }
+
+    /**
+     * Returns the number of periodic dumps of the hot pages that failed.
+     */
+    public long getHotPageDumpErrors() {
+    	return hotPageDumpErrors.get();
+    }
+
+    /**
+     * Retrieves the specified page as getPage does, and pins it: the page
+     * is not evicted until the returned handle is closed, or the transaction
+     * completes.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public PageHandle pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+    	return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves and pins the specified page as {@link #pinPage(TransactionId,
+     * PageId, Permissions)} does, reading it into a frame of the specified
+     * ring if it isn't cached.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the bulk read, or null to use the whole pool
+     */
+    public PageHandle pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+    	// pinned before the lookup, so that the page can't be evicted in between
+    	pins.merge(pid, 1, Integer::sum);
+    	Page pg;
+    	try {
+    		do {
+    			pg = getPage(tid, pid, perm, ring);
+    			// an unsynchronized hit may have raced with the page's eviction;
+    			// a snapshot's image is its own, never cached
+    		} while (!snapshots.containsKey(tid) && cachedPage(pid) != pg);
+    	} catch (TransactionAbortedException | DbException | RuntimeException e) {
+    		unpin(pid);
+    		throw e;
+    	}
+    	PageHandle h = new PageHandle(this, tid, pg);
+    	handles.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(h);
+    	return h;
+    }
+
+    /**
+     * Unpins the page of a handle being closed.
+     */
+    void unpin(PageHandle h) {
+    	Set<PageHandle> open = handles.get(h.getTransactionId());
+    	if (open != null)
+    		open.remove(h);
+    	unpin(h.getPage().getId());
+    }
+
+    private void unpin(PageId pid) {
+    	pins.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Returns the number of open handles on the specified page.
+     */
+    public int getPinCount(PageId pid) {
+    	return pins.getOrDefault(pid, 0);
+    }
+
+    /**
+     * Returns the number of pages that read-ahead has brought into this
+     * buffer pool.
+     */
+    public long getPrefetchedCount() {
+    	return prefetched.get();
+    }
+
+    /**
+     * Returns the replacement policy this buffer pool evicts pages with.
+     */
+    public ReplacementPolicy.Type getReplacementPolicy() {
+    	return policyType;
+    }
+
+    /**
+     * Gives this buffer pool an arena of the specified number of frames of
+     * direct memory, or takes it away if frames is 0. While the pool has an
+     * arena, HeapFiles read their fixed-format pages into its frames as
+     * {@link OffHeapHeapPage}s, so that the pool's pages take almost no Java
+     * heap. Pages already cached are left as they are.
+     * <p>
+     * A page frees its frame when it leaves the pool; see {@link FrameArena}.
+     * Giving the arena a few more frames than the pool has pages leaves room
+     * for pages being read ahead, and for those read outside the pool.
+     *
+     * @param frames the number of frames, or 0 to keep pages on the heap
+     * @return the new arena, or null
+     */
+    public synchronized FrameArena setOffHeapFrames(int frames) {
+    	arena = frames == 0 ? null : new FrameArena(frames, getPageSize());
+    	return arena;
+    }
+
+    /**
+     * Returns the arena of off-heap frames, or null if pages are kept on the
+     * heap.
+     */
+    public FrameArena getFrameArena() {
+    	return arena;
+    }
+
+    /**
+     * Returns the number of shards this buffer pool is partitioned into.
+     */
+    public int getShardCount() {
+    	return shards.length;
+    }
+
+    /**
+     * Returns the number of getPage calls that found the page in this buffer
+     * pool, including pages brought in by read-ahead.
+     */
+    public long getHitCount() {
+    	return hits.sum();
+    }
+
+    /**
+     * Returns the number of getPage calls that had to read the page from disk.
+     */
+    public long getMissCount() {
+    	return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of getPage calls that were hits, or 0 if there
+     * were none.
+     */
+    public double getHitRatio() {
+    	long h = hits.sum();
+    	long total = h + misses.sum();
+    	return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Adds a page to the pool, or replaces the cached version of it, and
+     * makes it a candidate for eviction.
+     */
+    private void cachePage(Page pg) {
+    	Shard sh = shardOf(pg.getId());
+    	synchronized (sh) {
+    		sh.cache(pg);
+    	}
+    }
+
+    /**
+     * Returns a ring for a bulk read of scanPages pages, or null if the read
+     * fits in the pool: reads larger than the pool, which would evict every
+     * cached page, get a ring of an eighth of the pool, up to
+     * {@link #RING_PAGES} frames.
+     *
+     * @param scanPages the number of pages the read is expected to touch
+     */
+    public BufferRing bulkReadRing(int scanPages) {
+    	if (scanPages <= numPages)
+    		return null;
+    	return new BufferRing(Math.max(1, Math.min(RING_PAGES, numPages / 8)));
+    }
+
+    /**
+     * Drops the page a ring frame held before it was reused, if it is still
+     * cached and clean, making room for the page about to be read. Called
+     * without holding any shard. The page's disk version is current, so a
+     * racing prefetch of it isn't stale and the write epoch is left alone.
+     *
+     * @param old the page returned by {@link BufferRing#advance}, or null
+     */
+    private void reuseRingFrame(PageId old) {
+    	if (old == null)
+    		return;
+    	Shard sh = shardOf(old);
+    	synchronized (sh) {
+    		Page pg = sh.pages.get(old);
+    		// a page another transaction dirtied stays; the policy evicts instead
+    		if (pg == null || pg.isDirty() != null || pins.containsKey(old) || pending.contains(old))
+    			return;
+    		release(sh.pages.remove(old));
+    		sh.replacer.remove(old);
+    	}
+    }
+
+    private static synchronized ExecutorService prefetcher() {
+    	if (prefetcher == null) {
+    		prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+    			Thread t = new Thread(r, "simpledb-prefetch");
+    			t.setDaemon(true);
+    			return t;
+    		});
+    	}
+    	return prefetcher;
+    }
+
+    /**
+     * Releases the lock on a page.
+     * Calling this is very risky, and may result in wrong behavior. Think hard
+     * about who needs to call this and why, and why they can run the risk of
+     * calling it.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param pid the ID of the page to unlock
+     */
+    public  void unsafeReleasePage(TransactionId tid, PageId pid) {
+        // some code goes here
+        // not necessary for lab1|lab2
+    	lockMgr.releaseLock(tid, pid);
+    }
+
+    /**
+     * Release all locks associated with a given transaction.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @throws IOException 
+     */
+    public void transactionComplete(TransactionId tid) {
+        // some code goes here
+        // not necessary for lab1|lab2
+    	transactionComplete(tid, true);
     }
 
-    class ObjLock {
-        // boolean blocked;
-        LockType type;
-        PageId obj;
-        ArrayList<TransactionId> holders;
+    /** Return true if the specified transaction has a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        // some code goes here
+        // not necessary for lab1|lab2
+    	return lockMgr.holdsLock(tid, p);
+        //return false;
+    }
 
-        /*
-        public boolean isBlocked() {
-            return blocked;
+    /**
+     * Commit or abort a given transaction; release all locks associated to
+     * the transaction.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @throws UncheckedIOException if the transaction's pages or log records
+     *         couldn't be written or forced, in which case the commit isn't
+     *         durable; the locks are released all the same
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) {
+        // some code goes here
+        // not necessary for lab1|lab2
+        ArrayList<PageId> lockList = lockMgr.getLockList(tid);
+        RowState rows = rowStates.get(tid);
+        IOException failure = null;
+        boolean aborting = !commit;
+        if (stealNoForce) {
+            // from here on no other transaction steals its pages
+            StolenPages s = stolen.computeIfAbsent(tid, t -> new StolenPages());
+            synchronized (s) {
+                s.complete = true;
+            }
+        }
+        if (lockList != null) {
+            if (commit) {
+                try {
+                    commitPages(tid, lockList, rows);
+                } catch (IOException e) {
+                    // nothing of it was committed; abort it instead
+                    failure = e;
+                    aborting = true;
+                }
+            }
+            if (aborting) {
+                try {
+                    undoStolenPages(tid);
+                } catch (IOException e) {
+                    if (failure == null)
+                        failure = e;
+                    else
+                        failure.addSuppressed(e);
+                }
+                if (rows != null) {
+                    undoInserts(tid, rows);
+                    releaseDeletePages(tid, rows);
+                }
+                for (PageId pid : lockList) {
+                    // other transactions may have changes on it too
+                    if (recordLocked(pid))
+                        continue;
+                    Page pg = cachedPage(pid);
+                    if (pg != null && pg.isDirty() != null)
+                        abortPage(pg);
+                }
+            }
         }
-        public void setBlocked(boolean blocked) {
-            this.blocked = blocked;
+        // before the locks go, so that no commit takes its changes for another's
+        rowStates.remove(tid);
+        stolen.remove(tid);
+        if (snapshots.remove(tid) != null)
+            pruneVersions(versions.keySet());
+
+        Set<PageHandle> open = handles.remove(tid);
+        if (open != null) {
+            for (PageHandle h : open)
+                h.close();
         }
-        */
 
-        public ObjLock(LockType t, PageId obj, ArrayList<TransactionId> holders) {
-            // this.blocked = false;
-            this.type = t;
-            this.obj = obj;
-            this.holders = holders;
+        if (commit && aborting) {
+            // before the locks go, so that recovery undoes it before later commits
+            try {
+                Database.getLogFile().logAbortWithoutRollback(tid);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
         }
 
-        public void setType(LockType type) {
-            this.type = type;
+        // release locks finally
+        lockMgr.releaseLocksOnTransaction(tid);
+        if (failure != null)
+            throw new UncheckedIOException("transaction " + tid.getId()
+                    + (commit ? " could not commit" : " could not abort"), failure);
+    }
+
+    /**
+     * Logs the after-images of the dirty pages among pids and forces the log
+     * once. In NO-STEAL/FORCE mode without a background writer the pages are
+     * then written and their files forced; otherwise they are left for the
+     * writer, eviction or the next checkpoint.
+     * <p>
+     * Under record locking, a HeapFile page is only committed if the
+     * transaction changed records on it. What is logged and written is then
+     * a copy of the page without the records the transaction deleted and the
+     * ones other transactions inserted and haven't committed, logged with the
+     * page on disk as its before-image; the page stays dirty as long as such
+     * records are on it.
+     * <p>
+     * The cached pages only change once the log and the pages have been
+     * written. If that fails, the pages already written are put back as
+     * they were and the exception is thrown, leaving the transaction to be
+     * aborted.
+     * <p>
+     * With snapshot reads on, each before-image is kept as the version of the
+     * page the running snapshots read, before the page changes, and the
+     * commit only becomes visible to new snapshots once all its pages have,
+     * and all the commits numbered before it.
+     * <p>
+     * Commits hold the commit lock shared, so that they go on at once,
+     * except under record locking, where they take turns.
+     *
+     * @param rows what the transaction did under record locking, or null
+     */
+    private void commitPages(TransactionId tid, List<PageId> pids, RowState rows)
+            throws IOException {
+        commitLock.readLock().lock();
+        try {
+            if (rows == null) {
+                logAndWritePages(tid, pids, null);
+            } else {
+                synchronized (recordCommits) {
+                    logAndWritePages(tid, pids, rows);
+                }
+            }
+        } finally {
+            commitLock.readLock().unlock();
         }
+    }
 
-        public LockType getType() {
-            return type;
+    /** Does the work of {@link #commitPages}, holding its locks. */
+    private void logAndWritePages(TransactionId tid, List<PageId> pids, RowState rows)
+            throws IOException {
+        Set<PageId> changed = new HashSet<>();
+        if (rows != null) {
+            synchronized (rows) {
+                changed = rows.pages();
+            }
+        }
+        List<Page> dirty = new ArrayList<>();
+        List<Page> befores = new ArrayList<>();
+        List<Page> images = new ArrayList<>();
+        for (PageId pid : pids) {
+            Page pg = cachedPage(pid);
+            if (pg == null || recordLocked(pid))
+                continue;
+            TransactionId dirtier = pg.isDirty();
+            if (dirtier != null) {
+                Page before = pg.getBeforeImage();
+                Database.getLogFile().logWrite(dirtier, before, pg);
+                dirty.add(pg);
+                befores.add(before);
+                images.add(pg);
+            }
         }
+        for (PageId pid : changed) {
+            if (!recordLocked(pid))
+                continue;
+            HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            HeapFilePage pg = holdRecordPage(tid, pid);
+            Page before = hf.readPageCopy((HeapPageId) pid);
+            Page image = committedImage(tid, hf, pg, rows);
+            Database.getLogFile().logWrite(tid, before, image);
+            dirty.add(pg);
+            befores.add(before);
+            images.add(image);
+        }
+        if (!dirty.isEmpty())
+            Database.getLogFile().force();
+
+        // a page is pending or written before it turns clean, so that
+        // eviction, which doesn't synchronize on the pool, never drops it unwritten
+        boolean deferred = writer != null || stealNoForce;
+        if (!deferred)
+            writeCommitted(images, befores);
 
-        public PageId getObj() {
-            return obj;
+        if (rows != null)
+            removeDeleted(tid, rows);
+        long commit = 0;
+        if (!dirty.isEmpty()) {
+            synchronized (commitClock) {
+                commit = ++lastNumbered;
+            }
+        }
+        try {
+            for (int i = 0; i < dirty.size(); i++) {
+                Page pg = dirty.get(i);
+                boolean record = recordLocked(pg.getId());
+                if (snapshotReads)
+                    supersede(pg, befores.get(i), record ? images.get(i) : null, commit);
+                if (deferred)
+                    pending.add(pg.getId());
+                if (record)
+                    markInserter(tid, (HeapFilePage) pg);
+                else
+                    pg.markDirty(false, null);
+            }
+            for (PageId pid : pids) {
+                Page pg = cachedPage(pid);
+                // markInserter took care of record locked pages
+                if (pg != null && !recordLocked(pid))
+                    pg.setBeforeImage();
+            }
+        } finally {
+            if (commit != 0)
+                publishCommit(commit);
+        }
+        if (!dirty.isEmpty()) {
+            List<PageId> superseded = new ArrayList<>();
+            for (Page pg : dirty)
+                superseded.add(pg.getId());
+            pruneVersions(superseded);
         }
+    }
 
-        public ArrayList<TransactionId> getHolders() {
-            return holders;
+    /**
+     * Makes a commit visible to new snapshots, once the commits numbered
+     * before it are, so that a snapshot that sees a commit sees every
+     * earlier one too.
+     */
+    private void publishCommit(long commit) {
+        boolean interrupted = false;
+        synchronized (commitClock) {
+            while (lastCommit != commit - 1) {
+                try {
+                    commitClock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            lastCommit = commit;
+            commitClock.notifyAll();
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
 
-        public boolean tryUpgradeLock(TransactionId tid) {
-            if (type == LockType.SLock && holders.size() == 1 && holders.get(0).equals(tid)) {
-                type = LockType.XLock;
-                return true;
+    /**
+     * Returns the cached page a committing transaction changed records on,
+     * marked dirty so that it stays cached until the commit is done with it.
+     * A page it only deleted records on may be clean, or not cached at all.
+     */
+    private HeapFilePage holdRecordPage(TransactionId tid, PageId pid) throws IOException {
+        while (true) {
+            HeapFilePage pg;
+            try {
+                // already locked; locking again could abort the committing transaction
+                pg = (HeapFilePage) fetchPage(tid, pid, null);
+            } catch (DbException e) {
+                throw new IOException("can't read " + pid, e);
             }
-            return false;
+            synchronized (pg) {
+                if (pg.isDirty() == null)
+                    pg.markDirty(true, tid);
+            }
+            // an unsynchronized hit may have raced with the page's eviction
+            if (cachedPage(pid) == pg)
+                return pg;
         }
+    }
 
-        public TransactionId addHolder(TransactionId tid) {
-            if (type == LockType.SLock) {
-                if (!holders.contains(tid)) {
-                    holders.add(tid);
+    /**
+     * Writes the committed images of a transaction's pages and forces their
+     * files. If that fails, the before-images of the pages are written back,
+     * so that the files are as they were, and the exception is thrown.
+     */
+    private void writeCommitted(List<Page> images, List<Page> befores) throws IOException {
+        Set<Integer> written = new HashSet<>();
+        int i = 0;
+        try {
+            for (; i < images.size(); i++) {
+                Page image = images.get(i);
+                writeEpoch.incrementAndGet();
+                written.add(image.getId().getTableId());
+                Database.getCatalog().getDatabaseFile(image.getId().getTableId()).writePage(image);
+            }
+            forceFiles(written);
+        } catch (IOException e) {
+            // the page that failed may be partly written
+            for (int j = 0; j < befores.size() && j <= i; j++) {
+                Page before = befores.get(j);
+                try {
+                    writeEpoch.incrementAndGet();
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                } catch (IOException ex) {
+                    e.addSuppressed(ex);
                 }
-                return tid;
             }
-            return null;
+            try {
+                forceFiles(written);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
         }
     }
 
-    private ConcurrentHashMap<PageId, ObjLock> lockTable;
-    private ConcurrentHashMap<TransactionId, ArrayList<PageId>> transactionTable;
+    /**
+     * Keeps the before-image of a page a commit is about to change as the
+     * version snapshots of earlier commits read, and, for a record locked
+     * page, its committed image as the one later snapshots read; otherwise
+     * the next snapshot to read the page copies its new before-image.
+     */
+    private void supersede(Page pg, Page before, Page committed, long commit) {
+        synchronized (pg) {
+            versions.compute(pg.getId(), (pid, chain) -> {
+                if (chain == null)
+                    chain = new VersionChain();
+                chain.supersede(before, commit);
+                chain.setLatest(committed);
+                return chain;
+            });
+        }
+    }
 
-    public LockManager(int lockTabCap, int transTabCap) {
-        this.lockTable = new ConcurrentHashMap<>(lockTabCap);
-        this.transactionTable = new ConcurrentHashMap<>(transTabCap);
+    /**
+     * Drops the versions of the specified pages that neither the running
+     * snapshots nor the ones yet to begin read.
+     */
+    private void pruneVersions(Collection<PageId> pids) {
+        long oldest;
+        synchronized (commitClock) {
+            oldest = lastCommit;
+            for (long snapshot : snapshots.values())
+                oldest = Math.min(oldest, snapshot);
+        }
+        final long horizon = oldest;
+        for (PageId pid : pids) {
+            versions.computeIfPresent(pid, (k, chain) -> {
+                chain.prune(horizon);
+                return chain.isEmpty() ? null : chain;
+            });
+        }
     }
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        ArrayList<PageId> lockList = getLockList(tid);
-        return lockList != null && lockList.contains(pid);
+    /**
+     * Forgets the committed image snapshots share of a page that has left
+     * the pool, whose before-image is read from disk again if it comes back.
+     */
+    private void dropCommittedImage(PageId pid) {
+        versions.computeIfPresent(pid, (k, chain) -> {
+            chain.setLatest(null);
+            return chain.isEmpty() ? null : chain;
+        });
     }
 
-    private synchronized void block(PageId what, long start, long timeout)
-            throws TransactionAbortedException {
-        // activate blocking
-        // lockTable.get(what).setBlocked(true);
+    /** Returns true if the page's records are locked instead of the page. */
+    private boolean recordLocked(PageId pid) {
+        return granularity == LockGranularity.RECORD && pid instanceof HeapPageId;
+    }
 
-        if (System.currentTimeMillis() - start > timeout) {
-            // System.out.println(Thread.currentThread().getId() + ": aborted");
-            throw new TransactionAbortedException();
+    /**
+     * Removes the records a committing transaction deleted under record
+     * locking from their cached pages, once the commit has been written.
+     * Called holding the pool's monitor, so that no other commit writes the
+     * pages in between.
+     */
+    private void removeDeleted(TransactionId tid, RowState rows) throws IOException {
+        List<RecordId> deleted;
+        synchronized (rows) {
+            deleted = new ArrayList<>(rows.deleted);
+        }
+        for (RecordId rid : deleted) {
+            PageId pid = rid.getPageId();
+            HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            try {
+                // already locked; locking again could abort the committing transaction
+                HeapFilePage pg = (HeapFilePage) fetchPage(tid, pid, null);
+                synchronized (pg) {
+                    hf.removeTuple(pg, rid);
+                    pg.markDirty(true, tid);
+                }
+            } catch (DbException e) {
+                throw new IOException("can't delete " + rid, e);
+            }
         }
+    }
 
-        try {
-            wait(timeout);
-            if (System.currentTimeMillis() - start > timeout) {
-                // System.out.println(Thread.currentThread().getId() + ": aborted");
-                throw new TransactionAbortedException();
+    /**
+     * Returns a copy of a page changed under record locking without the
+     * records tid deleted and those inserted by transactions other than tid.
+     */
+    private Page committedImage(TransactionId tid, HeapFile hf, HeapFilePage pg, RowState rows)
+            throws IOException {
+        synchronized (pg) {
+            HeapFilePage copy = hf.copyPage(pg);
+            synchronized (rows) {
+                leaveOut(copy, rows.deleted);
+            }
+            for (Map.Entry<TransactionId, RowState> e : rowStates.entrySet()) {
+                if (e.getKey().equals(tid))
+                    continue;
+                synchronized (e.getValue()) {
+                    leaveOut(copy, e.getValue().inserted);
+                }
             }
-        } catch (InterruptedException e) {
-            /* do nothing */
-            e.printStackTrace();
+            return copy;
         }
     }
 
-    private synchronized void updateTransactionTable(TransactionId tid, PageId pid) {
-        if (transactionTable.containsKey(tid)) {
-            if (!transactionTable.get(tid).contains(pid)) {
-                transactionTable.get(tid).add(pid);
+    /** Deletes the records among rids that are on the page from it. */
+    private static void leaveOut(HeapFilePage copy, Collection<RecordId> rids) throws IOException {
+        for (RecordId rid : rids) {
+            if (!rid.getPageId().equals(copy.getId()))
+                continue;
+            Tuple t = copy.getTuple(rid.getTupleNumber());
+            try {
+                if (t != null)
+                    copy.deleteTuple(t);
+            } catch (DbException ex) {
+                throw new IOException("can't leave out " + rid, ex);
             }
-        } else {
-            // no entry tid
-            ArrayList<PageId> lockList = new ArrayList<PageId>();
-            lockList.add(pid);
-            transactionTable.put(tid, lockList);
         }
     }
 
-    public synchronized void acquireLock(TransactionId tid, PageId pid, LockType reqLock, int maxTimeout)
-            throws TransactionAbortedException {
-        // boolean isAcquired = false;
-        long start = System.currentTimeMillis();
-        Random rand = new Random();
-        long randomTimeout = rand.nextInt((maxTimeout - 0) + 1) + 0;
-        while (true) {
-            if (lockTable.containsKey(pid)) {
-                // page is locked by some transaction
-                if (lockTable.get(pid).getType() == LockType.SLock) {
-                    if (reqLock == LockType.SLock) {
-                        updateTransactionTable(tid, pid);
-                        assert lockTable.get(pid).addHolder(tid) != null;
-                        // isAcquired = true;
-                        return;
-                    } else {
-                        // request XLock
-                        if (transactionTable.containsKey(tid) && transactionTable.get(tid).contains(pid)
-                                && lockTable.get(pid).getHolders().size() == 1) {
-                            // sanity check
-                            assert lockTable.get(pid).getHolders().get(0) == tid;
-                            // this is a combined case when lock on pid hold only by one trans (which is exactly tid)
-                            lockTable.get(pid).tryUpgradeLock(tid);
-                            // isAcquired = true;
-                            return;
-                        } else {
-                            // all need to do is just blocking
-                            block(pid, start, randomTimeout);
-                        }
-                    }
-                } else {
-                    // already get a Xlock on pid
-                    if (lockTable.get(pid).getHolders().get(0) == tid) {
-                        // Xlock means only one holder
-                        // request xlock or slock on the pid with that tid
-                        // sanity check
-                        assert lockTable.get(pid).getHolders().size() == 1;
-                        // isAcquired = true;
-                        return;
-                    } else {
-                        // otherwise block
-                        block(pid, start, randomTimeout);
+    /**
+     * Marks a page changed under record locking dirty by a transaction other
+     * than tid that has inserted records on it, or clean if there is none,
+     * in which case the page is what was last committed.
+     */
+    private void markInserter(TransactionId tid, HeapFilePage pg) {
+        synchronized (pg) {
+            TransactionId inserter = null;
+            for (Map.Entry<TransactionId, RowState> e : rowStates.entrySet()) {
+                if (e.getKey().equals(tid))
+                    continue;
+                synchronized (e.getValue()) {
+                    for (RecordId rid : e.getValue().inserted) {
+                        if (rid.getPageId().equals(pg.getId()))
+                            inserter = e.getKey();
                     }
                 }
-            } else {
-                ArrayList<TransactionId> initialHolders = new ArrayList<>();
-                initialHolders.add(tid);
-                lockTable.put(pid, new ObjLock(reqLock, pid, initialHolders));
-                updateTransactionTable(tid, pid);
-                // isAcquired = true;
-                return;
+            }
+            pg.markDirty(inserter != null, inserter);
+            if (inserter == null) {
+                pg.setBeforeImage();
+                // which snapshots read from now on
+                versions.computeIfPresent(pg.getId(), (pid, chain) -> {
+                    chain.setLatest(null);
+                    return chain.isEmpty() ? null : chain;
+                });
             }
         }
     }
 
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-
-        // remove from trans table
-        if (transactionTable.containsKey(tid)) {
-            transactionTable.get(tid).remove(pid);
-            if (transactionTable.get(tid).size() == 0) {
-                transactionTable.remove(tid);
+    /**
+     * Removes the records an aborting transaction inserted under record
+     * locking from their pages, newest first. Its deletes need no undoing,
+     * since they only take effect on commit.
+     */
+    private void undoInserts(TransactionId tid, RowState rows) {
+        Set<HeapFilePage> pages = new HashSet<>();
+        while (true) {
+            RecordId rid;
+            synchronized (rows) {
+                if (rows.inserted.isEmpty())
+                    break;
+                rid = rows.inserted.get(rows.inserted.size() - 1);
+            }
+            HeapFilePage pg = (HeapFilePage) cachedPage(rid.getPageId());
+            HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+            if (pg == null) {
+                // dirty pages stay cached, so this is just in case
+                synchronized (rows) {
+                    rows.inserted.remove(rows.inserted.size() - 1);
+                }
+                noteRestored(rid.getPageId());
+                continue;
+            }
+            synchronized (pg) {
+                try {
+                    hf.removeTuple(pg, rid);
+                } catch (DbException e) {
+                    e.printStackTrace();
+                }
+                synchronized (rows) {
+                    rows.inserted.remove(rows.inserted.size() - 1);
+                }
             }
+            pages.add(pg);
         }
+        for (HeapFilePage pg : pages)
+            markInserter(tid, pg);
+    }
 
-        // remove from locktable
-        if (lockTable.containsKey(pid)) {
-            lockTable.get(pid).getHolders().remove(tid);
-            if (lockTable.get(pid).getHolders().size() == 0) {
-                // no more threads are waiting here
-                lockTable.remove(pid);
-            } else {
-                // ObjLock lock = lockTable.get(pid);
-                // synchronized (lock) {
-                notifyAll();
-                //}
-            }
+    /**
+     * Lets go of the pages an aborting transaction deleted records on, which
+     * a failed commit may have marked dirty to keep them cached. Its deletes
+     * never reached them.
+     */
+    private void releaseDeletePages(TransactionId tid, RowState rows) {
+        Set<PageId> pids = new HashSet<>();
+        synchronized (rows) {
+            for (RecordId rid : rows.deleted)
+                pids.add(rid.getPageId());
+        }
+        for (PageId pid : pids) {
+            Page pg = cachedPage(pid);
+            if (pg != null && tid.equals(pg.isDirty()))
+                markInserter(tid, (HeapFilePage) pg);
+        }
+    }
+
+    /**
+     * Drops the changes an aborting transaction made to a cached page. If the
+     * last committed version hasn't been written back yet, it is restored
+     * from the page's before-image rather than read back from disk.
+     */
+    private void abortPage(Page pg) {
+        PageId pid = pg.getId();
+        if (pending.contains(pid)) {
+            cachePage(pg.getBeforeImage());
+        } else {
+            discardPage(pid);
         }
+        noteRestored(pid);
+    }
+
+    /**
+     * Marks a HeapFile page an abort restored as having room in the file's
+     * free space map, since the inserts the abort undid may have filled it.
+     */
+    private static void noteRestored(PageId pid) {
+        if (!(pid instanceof HeapPageId))
+            return;
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).noteFreeSpace(pid.getPageNumber(), true);
+    }
+
+    /**
+     * Writes back the before-images of the pages the aborting transaction
+     * had evicted while dirty, and drops any copy of them in the pool.
+     */
+    private synchronized void undoStolenPages(TransactionId tid) throws IOException {
+        StolenPages s = stolen.remove(tid);
+        if (s == null)
+            return;
+        Set<Integer> written = new HashSet<>();
+        // complete, so no longer changed
+        for (Page pg : s.before.values()) {
+            writeEpoch.incrementAndGet();
+            Database.getCatalog().getDatabaseFile(pg.getId().getTableId()).writePage(pg);
+            written.add(pg.getId().getTableId());
+            discardPage(pg.getId());
+            noteRestored(pg.getId());
+        }
+        forceFiles(written);
+    }
+
+    /**
+     * Switches between NO-STEAL/FORCE (the default) and STEAL/NO-FORCE.
+     * <p>
+     * In STEAL/NO-FORCE mode, commit only logs the after-images of the
+     * transaction's dirty pages and forces the log, like with a background
+     * writer, so its latency doesn't depend on how many pages were changed.
+     * When a transaction needs a frame and no clean page can be evicted, it
+     * may evict a dirty page: the page's update record is logged and forced,
+     * for the transaction that dirtied it, before the page is written, and
+     * that transaction's abort writes the page's before-image back.
+     * Transactions can therefore change more pages than the pool holds, and
+     * a pool full of pages other writers dirtied doesn't stop one either.
+     * Besides its own pages, a transaction only evicts the heap pages of
+     * others, whose changes are made holding the page's latch, and never
+     * those of a transaction that has begun to commit or abort.
+     *
+     * @param steal true for STEAL/NO-FORCE
+     * @throws IllegalStateException if steal is set under record locking or
+     *         with snapshot reads on
+     */
+    public synchronized void setStealNoForce(boolean steal) {
+    	if (steal && granularity == LockGranularity.RECORD)
+    		throw new IllegalStateException("record locking needs NO-STEAL/FORCE");
+    	if (steal && snapshotReads)
+    		throw new IllegalStateException("snapshot reads need NO-STEAL");
+    	this.stealNoForce = steal;
+    }
+
+    /**
+     * Sets the longest time a transaction waits for a page lock before it is
+     * aborted. Deadlocks are detected whatever the timeout, so by default
+     * there is none.
+     *
+     * @param timeoutMillis the longest wait, in milliseconds, or 0 for no limit
+     */
+    public void setLockTimeout(int timeoutMillis) {
+    	if (timeoutMillis < 0)
+    		throw new IllegalArgumentException("negative lock timeout " + timeoutMillis);
+    	this.lockTimeout = timeoutMillis;
+    }
+
+    /**
+     * Sets how a deadlock chooses the transaction it aborts; see
+     * {@link LockManager}.
+     */
+    public void setDeadlockVictimPolicy(VictimPolicy policy) {
+    	lockMgr.setVictimPolicy(policy);
+    }
+
+    /**
+     * Returns how a deadlock chooses the transaction it aborts.
+     */
+    public VictimPolicy getDeadlockVictimPolicy() {
+    	return lockMgr.getVictimPolicy();
+    }
+
+    /**
+     * Sets whether deadlocks are detected or prevented; see
+     * {@link LockManager}. Should be set before transactions run, since
+     * waits that began under one policy aren't revisited under another.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+    	lockMgr.setDeadlockPolicy(policy);
+    }
+
+    /**
+     * Returns whether deadlocks are detected or prevented.
+     */
+    public DeadlockPolicy getDeadlockPolicy() {
+    	return lockMgr.getDeadlockPolicy();
+    }
+
+    /**
+     * Returns the number of transactions aborted to prevent a deadlock, by
+     * dying under wait-die or being wounded under wound-wait.
+     */
+    public long getDeadlockPreventionAbortCount() {
+    	return lockMgr.getPreventionAbortCount();
+    }
+
+    /**
+     * Returns the number of deadlocks found, each of which aborted one
+     * transaction.
+     */
+    public long getDeadlockCount() {
+    	return lockMgr.getDeadlockCount();
+    }
+
+    /**
+     * Returns the number of times the waits-for graph was checked for
+     * deadlocks.
+     */
+    public long getDeadlockCheckCount() {
+    	return lockMgr.getDeadlockCheckCount();
     }
 
-    public synchronized void releaseLocksOnTransaction(TransactionId tid) {
-        if (transactionTable.containsKey(tid)) {
-        	//System.out.println("11");
-            //PageId[] pidArr = new PageId[transactionTable.get(tid).size()];
-            PageId[] toRelease = transactionTable.get(tid).toArray(new PageId[] {});
-            for (PageId pid : toRelease) {
-                releaseLock(tid, pid);
-            }
+    /**
+     * Returns the total time spent checking for deadlocks, in nanoseconds.
+     */
+    public long getDeadlockCheckNanos() {
+    	return lockMgr.getDeadlockCheckNanos();
+    }
 
-        }
+    /**
+     * Returns the time the longest check for deadlocks took, in nanoseconds.
+     */
+    public long getMaxDeadlockCheckNanos() {
+    	return lockMgr.getMaxDeadlockCheckNanos();
     }
 
-    public synchronized ArrayList<PageId> getLockList(TransactionId tid) {
-        return transactionTable.getOrDefault(tid, null);
+    /**
+     * Returns true if the pool is in STEAL/NO-FORCE mode.
+     */
+    public boolean isStealNoForce() {
+    	return stealNoForce;
     }
-}
-public class BufferPool {
-    /** Bytes per page, including header. */
-    private static final int DEFAULT_PAGE_SIZE = 4096;
 
-    private static int pageSize = DEFAULT_PAGE_SIZE;
-    
-    /** Default number of pages passed to the constructor. This is used by
-    other classes. BufferPool should use the numPages argument to the
-    constructor instead. */
-    public static final int DEFAULT_PAGES = 50;
-    
-    private int numPages = 0;
-    private ConcurrentHashMap<PageId,Page> PagesMap = null;
-    
-    private LockManager lockMgr;
-    private static int TRANSATION_FACTOR = 2;
-    // timeout 1s for deadlock detection
-    private static int DEFAUT_MAXTIMEOUT = 1500;
-    
-    ArrayList<PageId> queue;
+    /**
+     * Returns the number of dirty pages evicted in STEAL/NO-FORCE mode.
+     */
+    public long getStealCount() {
+    	return stealCount.get();
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Starts a background writer that writes the pages of committed
+     * transactions back to disk, at most pagesPerRound pages every
+     * intervalMillis milliseconds, and checkpoints the log every
+     * {@link BackgroundWriter#DEFAULT_CHECKPOINT_BYTES} bytes of log.
+     * From then on, commits no longer write pages; see
+     * {@link BackgroundWriter}. Replaces any running writer.
      *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @param pagesPerRound the largest number of pages written per round
+     * @param intervalMillis the time between rounds
+     * @throws IllegalStateException under record locking
      */
-    public BufferPool(int numPages) {
-        // some code goes here
-    	this.numPages = numPages;
-    	PagesMap = new ConcurrentHashMap<PageId,Page>();
-    	this.lockMgr = new LockManager(numPages, TRANSATION_FACTOR * numPages);
-    	queue = new ArrayList<PageId>();
+    public BackgroundWriter startBackgroundWriter(int pagesPerRound, long intervalMillis) {
+        return startBackgroundWriter(pagesPerRound, intervalMillis, BackgroundWriter.DEFAULT_CHECKPOINT_BYTES);
     }
-    
-    public static int getPageSize() {
-      return pageSize;
+
+    /**
+     * Starts a background writer as {@link #startBackgroundWriter(int, long)}
+     * does, which checkpoints the log whenever it has grown by
+     * checkpointBytes bytes since the last checkpoint.
+     *
+     * @param pagesPerRound the largest number of pages written per round
+     * @param intervalMillis the time between rounds
+     * @param checkpointBytes the log growth between checkpoints; 0 disables them
+     * @throws IllegalStateException under record locking
+     */
+    public BackgroundWriter startBackgroundWriter(int pagesPerRound, long intervalMillis, long checkpointBytes) {
+        BackgroundWriter w = new BackgroundWriter(this, pagesPerRound, intervalMillis, checkpointBytes);
+        BackgroundWriter old;
+        synchronized (this) {
+            if (granularity == LockGranularity.RECORD)
+                throw new IllegalStateException("record locking needs commits to write their pages");
+            old = writer;
+            writer = w;
+        }
+        // not holding the pool's monitor, which a checkpoint in progress needs
+        if (old != null)
+            old.stop();
+        w.start();
+        return w;
     }
-    
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void setPageSize(int pageSize) {
-    	BufferPool.pageSize = pageSize;
+
+    /**
+     * Stops the background writer, if any, and writes back every page it
+     * hadn't written yet, so that commits are FORCE again.
+     */
+    public void stopBackgroundWriter() throws IOException {
+        BackgroundWriter w;
+        synchronized (this) {
+            w = writer;
+            writer = null;
+        }
+        if (w != null)
+            w.stop();
+        synchronized (this) {
+            Set<Integer> written = new HashSet<>();
+            for (PageId pid : pending.toArray(new PageId[0])) {
+                written.add(pid.getTableId());
+                flushPage(pid);
+            }
+            forceFiles(written);
+        }
     }
-    
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void resetPageSize() {
-    	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Returns the running background writer, or null if there is none.
+     */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer;
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool.  If it
-     * is present, it should be returned.  If it is not present, it should
-     * be added to the buffer pool and returned.  If there is insufficient
-     * space in the buffer pool, a page should be evicted and the new page
-     * should be added in its place.
-     *
-     * @param tid the ID of the transaction requesting the page
-     * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * Returns the number of committed pages not written back yet.
      */
-    int count = 0;
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
-        throws TransactionAbortedException, DbException {
-        // some code goes here
-    	//System.out.println("111");
-    	LockManager.LockType lockType;
-    	if (perm == Permissions.READ_ONLY) {
-            lockType = LockManager.LockType.SLock;
-        } else {
-            lockType = LockManager.LockType.XLock;
-        }
-    	lockMgr.acquireLock(tid, pid, lockType, DEFAUT_MAXTIMEOUT);
-    	
-    	if(PagesMap.containsKey(pid))
-    	{
-    		
-    		//System.out.println("--------------------we find Pages!"+pid);
-    		queue.remove(pid);
-    		queue.add(pid);
-    		return PagesMap.get(pid);
-    	}
-    	else {
-    		//System.out.println("calc hashcode!");
-    		if(PagesMap.size() >= this.numPages)
-    		{
-    			evictPage();//TODO
-    		}
-			PagesMap.put(pid, Database.getCatalog()
-					.getDatabaseFile(pid.getTableId())
-					.readPage(pid));
-			queue.add(pid);
-			count++;
-    			//if( PagesMap.contains(pid) )
-    				//System.out.println("success!!");
-    			//System.out.println("numPages:"+numPages+"   count:"+count);
-    		
-    	}
-    	//System.out.println("page:"+PagesMap.get(pid));
-    	//System.out.println("pid:"+pid);
-    	//queue.remove(pid);
-    	//System.out.println(pid+" "+((HeapPage)PagesMap.get(pid)).getNumEmptySlots());
-        return PagesMap.get(pid);
+    public int getPendingWriteCount() {
+        return pending.size();
     }
 
     /**
-     * Releases the lock on a page.
-     * Calling this is very risky, and may result in wrong behavior. Think hard
-     * about who needs to call this and why, and why they can run the risk of
-     * calling it.
-     *
-     * @param tid the ID of the transaction requesting the unlock
-     * @param pid the ID of the page to unlock
+     * Returns the number of pending pages that eviction had to write itself,
+     * because the background writer hadn't got to them yet.
      */
-    public  void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
-    	lockMgr.releaseLock(tid, pid);
+    public long getEvictionWriteCount() {
+        return evictionWrites.get();
     }
 
     /**
-     * Release all locks associated with a given transaction.
-     *
-     * @param tid the ID of the transaction requesting the unlock
-     * @throws IOException 
+     * Writes the last committed version of every pending page back to disk
+     * and forces the files, leaving the pages of running transactions
+     * unwritten. Called by a checkpoint the background writer takes; holds
+     * the commit lock exclusively, so that no commit adds pages meanwhile.
      */
-    public void transactionComplete(TransactionId tid) {
-        // some code goes here
-        // not necessary for lab1|lab2
-    	transactionComplete(tid, true);
+    void flushPendingPages() throws IOException {
+        commitLock.writeLock().lock();
+        try {
+            Set<Integer> written = new HashSet<>();
+            for (PageId pid : pending.toArray(new PageId[0])) {
+                Page pg = cachedPage(pid);
+                if (pg != null) {
+                    // its before-image is what was last committed, even while
+                    // a transaction is changing it
+                    writeEpoch.incrementAndGet();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg.getBeforeImage());
+                    written.add(pid.getTableId());
+                }
+                pending.remove(pid);
+            }
+            forceFiles(written);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
     }
 
-    /** Return true if the specified transaction has a lock on the specified page */
-    public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-    	return lockMgr.holdsLock(tid, p);
-        //return false;
+    /**
+     * Returns the exclusive side of the lock commits hold while they log and
+     * write their pages. The LogFile takes it after the pool's monitor and
+     * before its own, to checkpoint, roll back or recover.
+     */
+    Lock exclusiveCommitLock() {
+        return commitLock.writeLock();
     }
 
     /**
-     * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * Writes back up to max pending pages, skipping those a transaction is
+     * modifying. Called by the background writer.
      *
-     * @param tid the ID of the transaction requesting the unlock
-     * @param commit a flag indicating whether we should commit or abort
-     * @throws IOException 
+     * @return the number of pages written
      */
-    public void transactionComplete(TransactionId tid, boolean commit) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        ArrayList<PageId> lockList = lockMgr.getLockList(tid);
-        if (lockList != null) {
-            for (PageId pid : lockList) {
-                Page pg = PagesMap.getOrDefault(pid, null);
-                if (pg != null) {
-                    if (commit) {
-                        try {
-							flushPage(pg.getId());
-						} catch (IOException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-                        pg.setBeforeImage();
-                        //TODO commit log ?????
-                    } else if (pg.isDirty() != null){
-                        // all dirty pages are flushed and not dirty page are still in cache
-                        // discard
-                        discardPage(pid);
-                    }
-                }
+    int writeBackPending(int max) throws IOException {
+        int n = 0;
+        Set<Integer> written = new HashSet<>();
+        for (PageId pid : pending) {
+            if (n >= max)
+                break;
+            if (writeBack(pid)) {
+                written.add(pid.getTableId());
+                n++;
             }
         }
+        forceFiles(written);
+        return n;
+    }
 
-        // release locks finally
-        lockMgr.releaseLocksOnTransaction(tid);
+    /**
+     * Writes a pending page back to disk, unless a transaction holds an
+     * exclusive lock on it. A shared lock is held during the write, so that
+     * no transaction changes the page while it is written; the pool's monitor
+     * is not, so that foreground work isn't held up by the write.
+     *
+     * @return true if the page was written
+     */
+    private boolean writeBack(PageId pid) throws IOException {
+        if (!lockMgr.tryAcquireLock(WRITER_TID, pid, LockManager.LockType.S))
+            return false;
+        try {
+            Page pg = cachedPage(pid);
+            if (pg == null || pg.isDirty() != null || !pending.contains(pid))
+                return false;
+            writeEpoch.incrementAndGet();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg);
+            // removed only once written, so that eviction never drops it unwritten
+            pending.remove(pid);
+            return true;
+        } finally {
+            lockMgr.releaseLock(WRITER_TID, pid);
+        }
     }
 
     /**
@@ -435,8 +1978,11 @@ public class BufferPool {
             page.markDirty(true, tid);
             // bufferPool.replace(page.getId(), page);
             // bufferPool.remove(page.getId());
-	        PagesMap.put(page.getId(), page);
+	        cachePage(page);
         }
+        writeEpoch.incrementAndGet();
+        if (t.getRecordId() != null && recordLocked(t.getRecordId().getPageId()))
+            escalate(tid, t.getRecordId().getPageId());
     }
 
     /**
@@ -457,26 +2003,335 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
     	DbFile cur = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+    	if (cur instanceof HeapFile && recordLocked(t.getRecordId().getPageId())) {
+    		deleteRecord(tid, t.getRecordId());
+    		return;
+    	}
     	ArrayList<Page> affectedPg = (ArrayList<Page>)cur.deleteTuple(tid, t);
         affectedPg.get(0).markDirty(true, tid);
 
         // bufferPool.remove(affectedPg.getId());
-        PagesMap.put(affectedPg.get(0).getId(), affectedPg.get(0));
+        cachePage(affectedPg.get(0));
+        writeEpoch.incrementAndGet();
+    }
+
+    /**
+     * Deletes a record under record locking. The record is locked
+     * exclusively now, but only removed from its page when the transaction
+     * commits, so that an abort has nothing to undo and no other transaction
+     * can reuse its slot meanwhile.
+     */
+    private void deleteRecord(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        lockRecord(tid, rid, Permissions.READ_WRITE);
+        HeapFilePage pg = (HeapFilePage) getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        boolean present;
+        synchronized (pg) {
+            present = pg.getTuple(rid.getTupleNumber()) != null;
+        }
+        RowState rows = rowState(tid);
+        synchronized (rows) {
+            if (!present || !rows.deleted.add(rid))
+                throw new DbException("deleteTuple: Error: tuple slot is empty");
+        }
+    }
+
+    /**
+     * Turns snapshot reads, multi-version concurrency control for read-only
+     * transactions, on or off; see {@link #beginSnapshot}. While they are on,
+     * each commit keeps the images of the pages it changes for as long as a
+     * running snapshot may read them. Since an evicted page must be on disk
+     * as it was last committed, snapshot reads need NO-STEAL.
+     *
+     * @throws IllegalStateException if snapshot reads are turned on in
+     *         STEAL/NO-FORCE mode, or off while snapshots are running
+     */
+    public synchronized void setSnapshotReads(boolean on) {
+    	if (on && stealNoForce)
+    		throw new IllegalStateException("snapshot reads need NO-STEAL");
+    	if (!on && !snapshots.isEmpty())
+    		throw new IllegalStateException("snapshots are running");
+    	snapshotReads = on;
+    	if (!on)
+    		versions.clear();
+    }
+
+    /**
+     * Returns true if read-only transactions can read snapshots.
+     */
+    public boolean isSnapshotReads() {
+    	return snapshotReads;
+    }
+
+    /**
+     * Makes the specified transaction, which must not have read or changed
+     * any page yet, a read-only snapshot transaction: until it completes,
+     * getPage returns the pages as they were after the last commit before
+     * this call, without locking them, so its reads never wait for writers
+     * and never hold writers up. It can't fetch a page to change it.
+     *
+     * @param tid the ID of the transaction
+     * @throws IllegalStateException if snapshot reads are off, or the
+     *         transaction already holds locks
+     */
+    public void beginSnapshot(TransactionId tid) {
+    	if (!snapshotReads)
+    		throw new IllegalStateException("snapshot reads are off");
+    	if (lockMgr.getLockList(tid) != null)
+    		throw new IllegalStateException("transaction " + tid + " already holds locks");
+    	synchronized (commitClock) {
+    		snapshots.put(tid, lastCommit);
+    	}
+    }
+
+    /**
+     * Returns true if the specified transaction is a running snapshot
+     * transaction.
+     */
+    public boolean isSnapshot(TransactionId tid) {
+    	return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Returns the number of superseded page images kept for snapshots.
+     */
+    public int getSnapshotVersionCount() {
+    	int n = 0;
+    	for (VersionChain chain : versions.values())
+    		n += chain.size();
+    	return n;
+    }
+
+    /**
+     * Sets what transactions lock to read and change the tuples of
+     * HeapFiles; see {@link LockGranularity}. Should be set before
+     * transactions run. Since a page may hold the uncommitted changes of
+     * several transactions, record locking needs NO-STEAL/FORCE: each
+     * commit writes its pages without the other transactions' changes.
+     *
+     * @throws IllegalStateException if record locking is set in
+     *         STEAL/NO-FORCE mode or with a background writer
+     */
+    public synchronized void setLockGranularity(LockGranularity granularity) {
+    	if (granularity == LockGranularity.RECORD && (stealNoForce || writer != null))
+    		throw new IllegalStateException("record locking needs NO-STEAL/FORCE without a background writer");
+    	this.granularity = granularity;
+    }
+
+    /**
+     * Returns what transactions lock to read and change the tuples of
+     * HeapFiles.
+     */
+    public LockGranularity getLockGranularity() {
+    	return granularity;
+    }
+
+    /**
+     * Sets how many record locks a transaction may hold on a page, and on a
+     * table, before they are escalated: traded for a shared or, if any of
+     * them is exclusive, an exclusive lock on the page or table.
+     *
+     * @param pageLocks the most record locks on a page, at least 1
+     * @param tableLocks the most record locks on a table, at least 1
+     */
+    public void setLockEscalation(int pageLocks, int tableLocks) {
+    	if (pageLocks < 1 || tableLocks < 1)
+    		throw new IllegalArgumentException("escalation thresholds must be positive");
+    	this.pageRecordLocks = pageLocks;
+    	this.tableRecordLocks = tableLocks;
+    }
+
+    /**
+     * Returns the number of times record locks were escalated to a page or
+     * table lock.
+     */
+    public long getLockEscalationCount() {
+    	return escalations.get();
+    }
+
+    /**
+     * Locks a record of a HeapFile under record locking, shared to read it
+     * and exclusive to change it, after the intention locks on its table and
+     * page, unless a lock the transaction holds on the page or table covers
+     * it already. May escalate the transaction's record locks; see
+     * {@link #setLockEscalation}. Does nothing under page locking, where the
+     * lock on the page covers its records, or for a snapshot transaction.
+     *
+     * @param tid the ID of the transaction locking the record
+     * @param rid the record
+     * @param perm the permissions the lock grants
+     * @throws TransactionAbortedException if the transaction is aborted
+     *         while it waits, as for {@link #getPage}
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+    	PageId pid = rid.getPageId();
+    	if (!recordLocked(pid) || snapshots.containsKey(tid))
+    		return;
+    	LockManager.LockType type = perm == Permissions.READ_ONLY
+    			? LockManager.LockType.S : LockManager.LockType.X;
+    	Object table = LockManager.tableKey(pid.getTableId());
+    	if (covers(tid, table, type) || covers(tid, pid, type))
+    		return;
+    	lockMgr.acquireLock(tid, table, type.intention(), lockTimeout);
+    	lockMgr.acquireLock(tid, pid, type.intention(), lockTimeout);
+    	lockMgr.acquireLock(tid, rid, type, lockTimeout);
+    	if (noteRecordLock(tid, rid))
+    		escalate(tid, pid);
+    }
+
+    /**
+     * Releases a record lock taken by a scan that found the record gone, so
+     * that an insert can reuse its slot.
+     */
+    void unlockRecord(TransactionId tid, RecordId rid) {
+    	if (!lockMgr.holdsLock(tid, rid))
+    		return;
+    	lockMgr.releaseLock(tid, rid);
+    	RowState rows = rowStates.get(tid);
+    	if (rows != null)
+    		forgetRecordLock(rows, rid);
+    }
+
+    /**
+     * Locks a record a HeapFile just inserted exclusively, unless a lock on
+     * its page or table covers it, and notes the insert for commit and
+     * abort. Called holding the page's latch, so it doesn't wait.
+     *
+     * @return false if another transaction holds a lock on the record's slot,
+     *         in which case the insert must be undone
+     */
+    boolean tryLockInsert(TransactionId tid, RecordId rid) {
+    	PageId pid = rid.getPageId();
+    	LockManager.LockType x = LockManager.LockType.X;
+    	if (!covers(tid, LockManager.tableKey(pid.getTableId()), x) && !covers(tid, pid, x)) {
+    		if (!lockMgr.tryAcquireLock(tid, rid, x))
+    			return false;
+    		noteRecordLock(tid, rid);
+    	}
+    	RowState rows = rowState(tid);
+    	synchronized (rows) {
+    		rows.inserted.add(rid);
+    	}
+    	return true;
+    }
+
+    /** Returns true if the transaction deleted the record under record locking. */
+    boolean isDeleted(TransactionId tid, RecordId rid) {
+    	RowState rows = rowStates.get(tid);
+    	if (rows == null)
+    		return false;
+    	synchronized (rows) {
+    		return rows.deleted.contains(rid);
+    	}
+    }
+
+    private RowState rowState(TransactionId tid) {
+    	return rowStates.computeIfAbsent(tid, t -> new RowState());
+    }
+
+    /** Returns true if tid holds a lock on the resource that covers type. */
+    private boolean covers(TransactionId tid, Object res, LockManager.LockType type) {
+    	LockManager.LockType held = lockMgr.getLock(tid, res);
+    	return held != null && held.covers(type);
+    }
+
+    /** Notes a record lock tid holds; returns false if it was noted already. */
+    private boolean noteRecordLock(TransactionId tid, RecordId rid) {
+    	RowState rows = rowState(tid);
+    	PageId pid = rid.getPageId();
+    	synchronized (rows) {
+    		if (!rows.locks.computeIfAbsent(pid, p -> new HashSet<>()).add(rid))
+    			return false;
+    		rows.tableLocks.merge(pid.getTableId(), 1, Integer::sum);
+    		return true;
+    	}
+    }
+
+    private static void forgetRecordLock(RowState rows, RecordId rid) {
+    	PageId pid = rid.getPageId();
+    	synchronized (rows) {
+    		Set<RecordId> onPage = rows.locks.get(pid);
+    		if (onPage == null || !onPage.remove(rid))
+    			return;
+    		if (onPage.isEmpty())
+    			rows.locks.remove(pid);
+    		rows.tableLocks.computeIfPresent(pid.getTableId(), (k, n) -> n == 1 ? null : n - 1);
+    	}
+    }
+
+    /**
+     * Trades tid's record locks on the table of the page, or else on the
+     * page, for one lock on it, if there are more than the escalation
+     * threshold allows. The lock is exclusive if any of the record locks is.
+     */
+    private void escalate(TransactionId tid, PageId pid) throws TransactionAbortedException {
+    	RowState rows = rowStates.get(tid);
+    	if (rows == null)
+    		return;
+    	Object target;
+    	List<RecordId> traded = new ArrayList<>();
+    	synchronized (rows) {
+    		int tableId = pid.getTableId();
+    		Set<RecordId> onPage = rows.locks.get(pid);
+    		if (rows.tableLocks.getOrDefault(tableId, 0) > tableRecordLocks) {
+    			target = LockManager.tableKey(tableId);
+    			for (Map.Entry<PageId, Set<RecordId>> e : rows.locks.entrySet()) {
+    				if (e.getKey().getTableId() == tableId)
+    					traded.addAll(e.getValue());
+    			}
+    		} else if (onPage != null && onPage.size() > pageRecordLocks) {
+    			target = pid;
+    			traded.addAll(onPage);
+    		} else {
+    			return;
+    		}
+    	}
+    	LockManager.LockType type = LockManager.LockType.S;
+    	for (RecordId rid : traded) {
+    		if (lockMgr.getLock(tid, rid) == LockManager.LockType.X) {
+    			type = LockManager.LockType.X;
+    			break;
+    		}
+    	}
+    	// upgrades the intention lock, waiting for the other transactions' records
+    	lockMgr.acquireLock(tid, target, type, lockTimeout);
+    	for (RecordId rid : traded) {
+    		lockMgr.releaseLock(tid, rid);
+    		forgetRecordLock(rows, rid);
+    	}
+    	escalations.incrementAndGet();
     }
 
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     *     Each page is flushed holding its latch, not the whole pool.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
     	//System.out.println("i'm flushAllPages");
-    	for(PageId t : PagesMap.keySet() )
-    	{
-    		flushPage(t);
+    	Set<Integer> written = new HashSet<>();
+    	for (Shard sh : shards) {
+    		for (PageId t : sh.pages.keySet()) {
+    			written.add(t.getTableId());
+    			flushPage(t);
+    		}
     	}
+    	forceFiles(written);
+    }
+
+    /**
+     * Forces the files of the given tables to disk, making any pages written
+     * to them by flushPage durable.
+     * @param tableIds the ids of the tables whose files should be forced
+     */
+    private void forceFiles(Set<Integer> tableIds) throws IOException {
+        for (Integer tableId : tableIds) {
+            Database.getCatalog().getDatabaseFile(tableId).force();
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -487,78 +2342,195 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-    	PagesMap.remove(pid);
-    	queue.remove(pid);
+    	Shard sh = shardOf(pid);
+    	synchronized (sh) {
+    		writeEpoch.incrementAndGet();
+    		release(sh.pages.remove(pid));
+    		sh.replacer.remove(pid);
+    		pending.remove(pid);
+    		Load load = sh.loading.get(pid);
+    		if (load != null)
+    			load.stale = true;
+    	}
+    	dropCommittedImage(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk, holding its latch, so that its owner
+     * doesn't change it meanwhile, and the commit lock shared, so that no
+     * checkpoint runs in between.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	if( PagesMap.containsKey(pid) )
-    	{
-    		Page p = PagesMap.get(pid);
-    		//System.out.println("???");
-            TransactionId dirtier = p.isDirty();
-            if (dirtier != null) {
-                /*
-                    append an update record to the log, with
-                    a before-image and after-image.
-                */
-                Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-                Database.getLogFile().force();
+    	Page p = cachedPage(pid);
+    	if (p == null)
+    		return;
+    	commitLock.readLock().lock();
+    	try {
+    		synchronized (p) {
+    			// evicted or replaced since it was looked up
+    			if (cachedPage(pid) != p)
+    				return;
+    			TransactionId dirtier = p.isDirty();
+    			if (dirtier != null) {
+    				/*
+    				    append an update record to the log, with
+    				    a before-image and after-image.
+    				*/
+    				Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+    				Database.getLogFile().force();
 
-                // then write back
-                DbFile tb = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
-                p.markDirty(false, null);
-                tb.writePage(p);
-            }
+    				// then write back
+    				DbFile tb = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+    				writeEpoch.incrementAndGet();
+    				tb.writePage(p);
+    				p.markDirty(false, null);
+    				pending.remove(pid);
+    			} else if (pending.contains(pid)) {
+    				// already logged at commit
+    				writeEpoch.incrementAndGet();
+    				Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+    				pending.remove(pid);
+    			}
+    		}
+    	} finally {
+    		commitLock.readLock().unlock();
     	}
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-    	Enumeration<PageId> it = PagesMap.keys();
-        while (it.hasMoreElements()) {
-            flushPage(it.nextElement());
-        }
+    	Set<Integer> written = new HashSet<>();
+    	for (Shard sh : shards) {
+    		Enumeration<PageId> it = sh.pages.keys();
+    		while (it.hasMoreElements()) {
+    			PageId pid = it.nextElement();
+    			written.add(pid.getTableId());
+    			flushPage(pid);
+    		}
+    	}
+        forceFiles(written);
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from a full shard, which the caller holds.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @return false if every page of the shard is dirty or pinned
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage(Shard sh) throws DbException {
         // some code goes here
         // not necessary for lab1
-        //PageId pid = queue.get(0);
+        // NO STEAL: dirty pages stay until their transaction completes, and
+        // pinned pages until they are unpinned. A committed page the
+        // background writer hasn't written yet is written here, unless a
+        // transaction is changing it.
+        for (int tries = sh.replacer.size(); tries > 0; tries--) {
+            PageId pid = sh.replacer.victim(p -> {
+            	Page pg = sh.pages.get(p);
+            	return (pg == null || pg.isDirty() == null) && !pins.containsKey(p)
+            			&& !(pending.contains(p) && lockMgr.isExclusivelyLocked(p));
+            });
+            if (pid == null)
+            	break;
+            try {
+                if (pending.contains(pid)) {
+                    if (!writeBack(pid)) {
+                        sh.replacer.add(pid);
+                        continue;
+                    }
+                    evictionWrites.incrementAndGet();
+                }
+            } catch (IOException e) {
+                sh.replacer.add(pid);
+                throw new DbException("evictPage: unable to write back page " + pid);
+            }
+            // the policy has already dropped pid, and may remember it
+            writeEpoch.incrementAndGet();
+            release(sh.pages.remove(pid));
+            dropCommittedImage(pid);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts a dirty unpinned page of the shard: the requester's own, or a
+     * heap page of another transaction. Logs the page's update for the
+     * transaction that dirtied it and forces the log, then writes the page,
+     * remembering its before-image in case that transaction aborts. The
+     * shard is only held to pick and drop the page; the page's latch keeps
+     * its owner from changing it meanwhile, and the commit lock, held
+     * shared, keeps checkpoints out.
+     *
+     * @return false if the shard has no page that can be stolen; true if a
+     *         page was evicted, or the page picked changed state and the
+     *         caller should look for a frame again
+     */
+    private boolean stealPage(Shard sh, TransactionId requester) throws DbException {
+        PageId pid;
+        synchronized (sh) {
+            pid = sh.replacer.victim(p -> {
+            	Page pg = sh.pages.get(p);
+            	return pg != null && pg.isDirty() != null && !pins.containsKey(p)
+            			&& (requester.equals(pg.isDirty()) || pg instanceof HeapFilePage);
+            });
+        }
+        if (pid == null)
+        	return false;
+        Page pg = sh.pages.get(pid);
+        TransactionId dirtier = pg == null ? null : pg.isDirty();
+        if (dirtier == null) {
+            // committed, aborted or evicted since it was picked
+            if (pg != null)
+                requeue(sh, pid);
+            return true;
+        }
+        StolenPages s = stolen.computeIfAbsent(dirtier, t -> new StolenPages());
+        commitLock.readLock().lock();
         try {
-        	boolean flag = true;
-        	for(int i =0;i < queue.size();i++)
-        	{
-        	//for(PageId pid:queue)
-        	//{
-        		PageId pid = queue.get(i);
-        		if( PagesMap.get(pid).isDirty() != null )
-        			continue;
-	            flushPage(pid);
-	            discardPage(pid);
-	            flag = false;
-	            break;
-        	}
-        	if( !flag )
-        		return;
+            synchronized (s) {
+                synchronized (pg) {
+                    if (s.complete || !dirtier.equals(pg.isDirty()) || cachedPage(pid) != pg) {
+                        requeue(sh, pid);
+                        return true;
+                    }
+                    Page before = pg.getBeforeImage();
+                    Database.getLogFile().logWrite(dirtier, before, pg);
+                    Database.getLogFile().force();
+                    s.before.putIfAbsent(pid, before);
+                    writeEpoch.incrementAndGet();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg);
+                    // the owner caches the page again if it goes on changing it
+                    synchronized (sh) {
+                        release(sh.pages.remove(pid));
+                    }
+                }
+            }
         } catch (IOException e) {
-            throw new DbException("evictPage: unable to error when flush a page");
+            requeue(sh, pid);
+            throw new DbException("evictPage: unable to steal page " + pid);
+        } finally {
+            commitLock.readLock().unlock();
+        }
+        pending.remove(pid);
+        stealCount.incrementAndGet();
+        return true;
+    }
+
+    /** Gives a page picked for eviction, but not evicted, back to the policy. */
+    private static void requeue(Shard sh, PageId pid) {
+        synchronized (sh) {
+            if (sh.pages.containsKey(pid))
+                sh.replacer.add(pid);
         }
     }
 
@@ -0,0 +1,50 @@
+package simpledb.storage;
+
+/**
+ * BufferRing is the access strategy for bulk reads, after PostgreSQL's ring
+ * buffers: a scan of a table much larger than the BufferPool passes a ring to
+ * getPage, and each page it has to read replaces the page it read size pages
+ * before, rather than a page chosen by the pool's replacement policy. The
+ * scan therefore occupies at most size frames and leaves the rest of the pool
+ * alone. Pages the scan finds already cached are used in place and don't
+ * enter the ring.
+ * <p>
+ * A ring belongs to a single scan, but read-ahead fills it from other
+ * threads, so it is synchronized.
+ *
+ * @see BufferPool#bulkReadRing
+ */
+public class BufferRing {
+
+    private final PageId[] slots;
+    private int next = 0;
+
+    /**
+     * Creates a ring of size frames.
+     */
+    public BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        this.slots = new PageId[size];
+    }
+
+    /**
+     * Returns the number of frames in the ring.
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Records that pid is read into the next frame, and moves on to the
+     * frame after it.
+     *
+     * @return the page the frame held before, or null if it wasn't used yet
+     */
+    synchronized PageId advance(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+}
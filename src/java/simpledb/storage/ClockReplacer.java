@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockReplacer chooses which page the BufferPool evicts, using the CLOCK
+ * approximation of LRU: each cached page has a reference bit that is set
+ * whenever the page is accessed, and a clock hand sweeps the pages, clearing
+ * set bits and choosing the first page whose bit is already clear.
+ * <p>
+ * Recording an access is a hash lookup and a volatile write, with no lock,
+ * so the cost of a buffer pool hit doesn't depend on the size of the pool or
+ * on other threads. Adding and removing pages are O(1); choosing a victim is
+ * O(1) amortized. ClockReplacer doesn't remember evicted pages.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacer implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        volatile boolean referenced = true;
+        int index; // position in clock, protected by the ClockReplacer
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+    private final ArrayList<Frame> clock = new ArrayList<>(); // protected by this
+    private int hand = 0; // protected by this
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        if (frames.containsKey(pid))
+            return;
+        Frame f = new Frame(pid);
+        f.index = clock.size();
+        clock.add(f);
+        frames.put(pid, f);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f == null)
+            return;
+        // move the last frame into the hole
+        Frame last = clock.remove(clock.size() - 1);
+        if (last != f) {
+            last.index = f.index;
+            clock.set(f.index, last);
+        }
+        if (hand >= clock.size())
+            hand = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return clock.size();
+    }
+
+    @Override
+    public synchronized List<PageId> pages() {
+        // the hand takes unreferenced pages first, in clock order
+        List<PageId> pages = new ArrayList<>(clock.size());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < clock.size(); i++) {
+                Frame f = clock.get((hand + i) % clock.size());
+                if (f.referenced == (pass == 1))
+                    pages.add(f.pid);
+            }
+        }
+        Collections.reverse(pages);
+        return pages;
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        // two sweeps: the first may only clear reference bits
+        for (int n = 2 * clock.size(); n > 0; n--) {
+            Frame f = clock.get(hand);
+            hand = (hand + 1) % clock.size();
+            if (f.referenced) {
+                f.referenced = false;
+            } else if (evictable.test(f.pid)) {
+                remove(f.pid);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,274 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CompressedPageStore keeps the pages of a HeapFile compressed on disk with a
+ * {@link PageCodec}, underneath HeapFile.readPage and writePage.
+ * <p>
+ * Each page is stored as a record: a header of three ints (the page number,
+ * the length of the compressed page, and the record's capacity, i.e. the
+ * number of bytes reserved for it including the header), followed by the
+ * compressed page. Capacities are rounded up to {@link #ALIGN} bytes so that
+ * a page whose compressed size grows a little can still be rewritten in
+ * place; a page that no longer fits is appended to the end of the file as a
+ * new record, and its old record becomes dead space.
+ * <p>
+ * An in-memory index from page number to record offset keeps random page
+ * access O(1). The index is saved to a side file when the store is forced,
+ * and is rebuilt by scanning the records (a later record for a page
+ * supersedes earlier ones) if the side file is missing or doesn't match the
+ * data file.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageStore {
+
+    private static final int RECORD_HEADER = 12;
+    private static final int INDEX_MAGIC = 0x50494458; // "PIDX"
+    private static final int INDEX_HEADER = 16;
+    private static final int INDEX_ENTRY = 12;
+
+    /** Record capacities are rounded up to a multiple of this many bytes. */
+    public static final int ALIGN = 64;
+
+    private final PageChannel channel;
+    private final PageCodec codec;
+    private final PageChannel indexChannel;
+    /** Offset of the first record in the data file */
+    private final long base;
+
+    // all protected by this
+    private boolean loaded = false;
+    private long[] offsets = new long[16]; // -1 if the page has no record
+    private int[] capacities = new int[16];
+    private int numPages = 0;
+    private long end; // end of the last record
+    private int dirtyFrom = Integer.MAX_VALUE; // first index entry changed since the last save
+
+    /**
+     * Creates a store over the specified data file channel.
+     *
+     * @param channel the channel of the HeapFile's data file
+     * @param codec the codec pages are compressed with
+     * @param indexFile the side file the index is saved to
+     */
+    public CompressedPageStore(PageChannel channel, PageCodec codec, File indexFile) {
+        this(channel, codec, indexFile, 0);
+    }
+
+    /**
+     * Creates a store over the specified data file channel, whose records
+     * start at the specified offset, past a header the store leaves alone.
+     *
+     * @param channel the channel of the HeapFile's data file
+     * @param codec the codec pages are compressed with
+     * @param indexFile the side file the index is saved to
+     * @param base the offset of the first record
+     */
+    public CompressedPageStore(PageChannel channel, PageCodec codec, File indexFile, long base) {
+        this.channel = channel;
+        this.codec = codec;
+        this.indexChannel = new PageChannel(indexFile);
+        this.base = base;
+        this.end = base;
+    }
+
+    /**
+     * Returns the codec pages are compressed with.
+     */
+    public PageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Loads the index from its side file on first use, or rebuilds it by
+     * scanning the data file if the side file doesn't describe it.
+     */
+    private void ensureLoaded() throws IOException {
+        if (loaded)
+            return;
+        if (loadIndex()) {
+            dirtyFrom = Integer.MAX_VALUE;
+        } else {
+            scan();
+            dirtyFrom = 0;
+        }
+        loaded = true;
+    }
+
+    private boolean loadIndex() throws IOException {
+        byte[] header = new byte[INDEX_HEADER];
+        if (indexChannel.read(0, header) != INDEX_HEADER)
+            return false;
+        ByteBuffer hb = ByteBuffer.wrap(header);
+        if (hb.getInt() != INDEX_MAGIC)
+            return false;
+        int n = hb.getInt();
+        long indexEnd = hb.getLong();
+        if (indexEnd != channel.size())
+            return false;
+
+        byte[] entries = new byte[n * INDEX_ENTRY];
+        if (n > 0 && indexChannel.read(INDEX_HEADER, entries) != entries.length)
+            return false;
+        ByteBuffer eb = ByteBuffer.wrap(entries);
+        reset(n);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = eb.getLong();
+            capacities[i] = eb.getInt();
+        }
+        numPages = n;
+        end = indexEnd;
+        return true;
+    }
+
+    private void scan() throws IOException {
+        reset(0);
+        long size = channel.size();
+        long pos = base;
+        byte[] header = new byte[RECORD_HEADER];
+        while (pos + RECORD_HEADER <= size) {
+            if (channel.read(pos, header) != RECORD_HEADER)
+                break;
+            ByteBuffer hb = ByteBuffer.wrap(header);
+            int pgNo = hb.getInt();
+            int compLen = hb.getInt();
+            int cap = hb.getInt();
+            // a torn append at the end of the file
+            if (pgNo < 0 || cap < RECORD_HEADER + compLen || pos + cap > size)
+                break;
+            setEntry(pgNo, pos, cap);
+            pos += cap;
+        }
+        end = pos;
+    }
+
+    private void reset(int n) {
+        int len = Math.max(16, n);
+        offsets = new long[len];
+        capacities = new int[len];
+        Arrays.fill(offsets, -1);
+        numPages = 0;
+    }
+
+    private void setEntry(int pgNo, long off, int cap) {
+        if (pgNo >= offsets.length) {
+            int len = Math.max(pgNo + 1, offsets.length * 2);
+            int old = offsets.length;
+            offsets = Arrays.copyOf(offsets, len);
+            capacities = Arrays.copyOf(capacities, len);
+            Arrays.fill(offsets, old, len, -1);
+        }
+        offsets[pgNo] = off;
+        capacities[pgNo] = cap;
+        numPages = Math.max(numPages, pgNo + 1);
+        dirtyFrom = Math.min(dirtyFrom, pgNo);
+    }
+
+    /**
+     * Returns the number of pages in the store, including pages that were
+     * skipped over and never written.
+     */
+    public synchronized int numPages() throws IOException {
+        ensureLoaded();
+        return numPages;
+    }
+
+    /**
+     * Reads and decompresses the specified page into page. A page that has
+     * never been written reads as zeroes.
+     *
+     * @param pgNo the page to read
+     * @param page the buffer to fill, exactly one page long
+     */
+    public void readPage(int pgNo, byte[] page) throws IOException {
+        long off;
+        int cap;
+        synchronized (this) {
+            ensureLoaded();
+            if (pgNo >= numPages || offsets[pgNo] < 0) {
+                Arrays.fill(page, (byte) 0);
+                return;
+            }
+            off = offsets[pgNo];
+            cap = capacities[pgNo];
+        }
+        byte[] rec = new byte[cap];
+        if (channel.read(off, rec) != cap)
+            throw new IOException("truncated record for page " + pgNo);
+        ByteBuffer hb = ByteBuffer.wrap(rec);
+        hb.getInt();
+        int compLen = hb.getInt();
+        codec.decompress(rec, RECORD_HEADER, compLen, page);
+    }
+
+    /**
+     * Compresses and writes the specified page, in place if it fits in its
+     * current record and at the end of the file otherwise.
+     *
+     * @param pgNo the page to write
+     * @param page the uncompressed page image
+     */
+    public void writePage(int pgNo, byte[] page) throws IOException {
+        byte[] compressed = new byte[codec.maxCompressedLength(page.length)];
+        int compLen = codec.compress(page, page.length, compressed);
+        int need = RECORD_HEADER + compLen;
+
+        long off;
+        int cap;
+        synchronized (this) {
+            ensureLoaded();
+            if (pgNo < numPages && offsets[pgNo] >= 0 && capacities[pgNo] >= need) {
+                off = offsets[pgNo];
+                cap = capacities[pgNo];
+            } else {
+                off = end;
+                cap = (need + ALIGN - 1) / ALIGN * ALIGN;
+                end += cap;
+                setEntry(pgNo, off, cap);
+            }
+        }
+
+        // the whole capacity is written so that the file always ends at a
+        // record boundary
+        ByteBuffer rec = ByteBuffer.allocate(cap);
+        rec.putInt(pgNo).putInt(compLen).putInt(cap);
+        rec.put(compressed, 0, compLen);
+        rec.clear();
+        channel.write(off, rec);
+    }
+
+    /**
+     * Forces the data file to disk, then saves the index entries changed
+     * since the last call and forces the index too.
+     */
+    public void force() throws IOException {
+        channel.force();
+        synchronized (this) {
+            if (!loaded || dirtyFrom == Integer.MAX_VALUE)
+                return;
+            int from = Math.min(dirtyFrom, numPages);
+            ByteBuffer eb = ByteBuffer.allocate((numPages - from) * INDEX_ENTRY);
+            for (int i = from; i < numPages; i++)
+                eb.putLong(offsets[i]).putInt(capacities[i]);
+            indexChannel.write(INDEX_HEADER + (long) from * INDEX_ENTRY, eb.array());
+
+            ByteBuffer hb = ByteBuffer.allocate(INDEX_HEADER);
+            hb.putInt(INDEX_MAGIC).putInt(numPages).putLong(end);
+            indexChannel.write(0, hb.array());
+            indexChannel.force();
+            dirtyFrom = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Closes the index side file. The store stays usable.
+     */
+    public void close() throws IOException {
+        indexChannel.close();
+    }
+}
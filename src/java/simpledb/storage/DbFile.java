@@ -33,6 +33,24 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Force every page previously written with {@link #writePage} to stable
+     * storage. Writes are not guaranteed to be durable until this returns.
+     *
+     * @throws IOException if the underlying file can't be synced
+     */
+    default void force() throws IOException {
+    }
+
+    /**
+     * Releases the open file handles of this DbFile, as the catalog does
+     * when the file is dropped or replaced. A later I/O request reopens them.
+     *
+     * @throws IOException if a handle can't be closed
+     */
+    default void close() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,180 @@
+package simpledb.storage;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FrameArena is a fixed amount of direct (off-heap) memory carved into
+ * page-sized frames, in which {@link OffHeapHeapPage}s keep their raw page
+ * image. The memory is allocated up front, in slabs of up to
+ * {@link #SLAB_BYTES} bytes, and is not part of the Java heap, so a large
+ * pool of such pages costs the garbage collector a few objects per page
+ * rather than an object per field.
+ * <p>
+ * The BufferPool frees a page's frame with {@link #free} when the page
+ * leaves the pool, after the page has moved its image to the heap for the
+ * tuple views that outlive its stay. A frame that is never freed, such as
+ * that of a page read outside the pool, is reused once its buffer becomes
+ * unreachable: the arena tracks every frame it hands out with a phantom
+ * reference, and takes back the frames whose buffers the collector has
+ * found dead. When no frame is free the arena allocates one on the heap
+ * instead, so allocation never fails; size the arena somewhat larger than
+ * the pool so that this is rare.
+ *
+ * @see BufferPool#setOffHeapFrames
+ */
+public class FrameArena {
+
+    /** Largest slab of direct memory the arena allocates at once. */
+    public static final int SLAB_BYTES = 64 << 20;
+
+    /** A frame handed out by the arena, reported dead by the collector. */
+    private static final class FrameRef extends PhantomReference<ByteBuffer> {
+        final int index;
+
+        FrameRef(ByteBuffer frame, int index, ReferenceQueue<ByteBuffer> q) {
+            super(frame, q);
+            this.index = index;
+        }
+    }
+
+    /** A frame handed out by the arena, with what it takes to free it. */
+    static final class Frame {
+        final ByteBuffer buffer;
+        /** Tracks an arena frame; null for a frame on the heap */
+        private final FrameRef ref;
+
+        private Frame(ByteBuffer buffer, FrameRef ref) {
+            this.buffer = buffer;
+            this.ref = ref;
+        }
+    }
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerSlab;
+    private final ByteBuffer[] slabs;
+
+    /** Indexes of the free frames; protected by this. */
+    private final int[] free;
+    private int numFree;
+
+    private final ReferenceQueue<ByteBuffer> released = new ReferenceQueue<>();
+    /** Keeps the references of frames in use reachable until they are enqueued. */
+    private final Set<FrameRef> inUse = ConcurrentHashMap.newKeySet();
+    private final AtomicLong heapFrames = new AtomicLong();
+
+    /**
+     * Creates an arena of numFrames frames of frameSize bytes each.
+     *
+     * @param numFrames the number of frames
+     * @param frameSize the size of a frame, normally the page size
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if (numFrames < 1 || frameSize < 1 || frameSize > SLAB_BYTES)
+            throw new IllegalArgumentException("bad arena of " + numFrames + " frames of " + frameSize + " bytes");
+        this.frameSize = frameSize;
+        this.numFrames = numFrames;
+        this.framesPerSlab = SLAB_BYTES / frameSize;
+        this.slabs = new ByteBuffer[(numFrames + framesPerSlab - 1) / framesPerSlab];
+        for (int i = 0; i < slabs.length; i++) {
+            int frames = Math.min(framesPerSlab, numFrames - i * framesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++)
+            free[i] = numFrames - 1 - i;
+        this.numFree = numFrames;
+    }
+
+    /**
+     * Returns a frame of {@link #getFrameSize} bytes, off the heap if the
+     * arena has a free frame. Its contents are undefined.
+     */
+    public ByteBuffer allocate() {
+        return allocateFrame().buffer;
+    }
+
+    /**
+     * Returns a frame as {@link #allocate} does, in a form that can be
+     * handed back to {@link #free}.
+     */
+    Frame allocateFrame() {
+        int i = takeFree();
+        if (i < 0) {
+            heapFrames.incrementAndGet();
+            return new Frame(ByteBuffer.allocate(frameSize), null);
+        }
+        ByteBuffer slab = slabs[i / framesPerSlab].duplicate();
+        int off = (i % framesPerSlab) * frameSize;
+        slab.position(off);
+        slab.limit(off + frameSize);
+        ByteBuffer buffer = slab.slice();
+        FrameRef ref = new FrameRef(buffer, i, released);
+        inUse.add(ref);
+        return new Frame(buffer, ref);
+    }
+
+    /**
+     * Returns a frame to the arena without waiting for the collector. The
+     * caller must not use the frame's buffer afterwards. Freeing a frame
+     * twice, or one on the heap, does nothing.
+     */
+    synchronized void free(Frame frame) {
+        if (frame.ref != null && inUse.remove(frame.ref)) {
+            frame.ref.clear();
+            free[numFree++] = frame.ref.index;
+        }
+    }
+
+    private synchronized int takeFree() {
+        reclaim();
+        return numFree > 0 ? free[--numFree] : -1;
+    }
+
+    /** Returns the frames the collector found dead to the free list. */
+    private synchronized void reclaim() {
+        Reference<? extends ByteBuffer> r;
+        while ((r = released.poll()) != null) {
+            FrameRef ref = (FrameRef) r;
+            // unless it was freed already
+            if (inUse.remove(ref))
+                free[numFree++] = ref.index;
+        }
+    }
+
+    /**
+     * Returns the size of a frame in bytes.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the number of frames in the arena.
+     */
+    public int getFrameCount() {
+        return numFrames;
+    }
+
+    /**
+     * Returns the number of frames not in use.
+     */
+    public synchronized int getFreeFrameCount() {
+        reclaim();
+        return numFree;
+    }
+
+    /**
+     * Returns the number of frames allocated on the heap because the arena
+     * had no free frame.
+     */
+    public long getHeapFrameCount() {
+        return heapFrames.get();
+    }
+}
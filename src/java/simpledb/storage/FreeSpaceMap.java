@@ -0,0 +1,231 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * FreeSpaceMap records, for each page of a HeapFile, whether the page may
+ * have an empty slot, so that inserts can go straight to such a page instead
+ * of scanning the file from the start.
+ * <p>
+ * The map is a hint: a page marked free may turn out to be full (e.g. after
+ * an aborted delete), in which case the inserter marks it full and moves on.
+ * <p>
+ * The map is persisted to a side file next to the heap file. The side file
+ * starts with a header of MAGIC, the number of heap pages the map covers, a
+ * CRC32 of the bitmap and whether the map has been saved since it last
+ * changed, and is followed by the bitmap, written in chunks of
+ * {@link #CHUNK_BYTES} bytes (each chunk covers CHUNK_BYTES * 8 heap pages).
+ * Only chunks that changed since the last {@link #save} are rewritten.
+ * <p>
+ * The first change after the map is loaded or saved marks the side file
+ * unsaved, so a map that isn't saved again, say because of a crash, is
+ * rebuilt rather than trusted the next time the heap file is opened.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d32; // "FSM2"
+    private static final int HEADER_SIZE = 16;
+
+    /** Bytes of bitmap per persisted chunk. */
+    public static final int CHUNK_BYTES = 4096;
+
+    private final File file;
+    private final PageChannel channel;
+
+    private final BitSet free = new BitSet();
+    private int numPages = 0;
+    private final TreeSet<Integer> dirtyChunks = new TreeSet<>();
+    /** True while the side file holds the map as it is in memory */
+    private boolean saved = false;
+
+    /**
+     * Creates an empty free space map persisted to the specified side file.
+     *
+     * @param file the side file holding the persisted map
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        this.channel = new PageChannel(file);
+    }
+
+    /**
+     * Returns the side file this map is persisted to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the map from its side file. The side file is only trusted if it
+     * was saved after its last change, covers exactly numPages pages and its
+     * bitmap matches its checksum.
+     *
+     * @param numPages the current number of pages in the heap file
+     * @return true if the map was loaded, false if the caller must rebuild it
+     */
+    public synchronized boolean load(int numPages) throws IOException {
+        if (!file.exists())
+            return false;
+
+        byte[] header = new byte[HEADER_SIZE];
+        if (channel.read(0, header) != HEADER_SIZE)
+            return false;
+        ByteBuffer hb = ByteBuffer.wrap(header);
+        if (hb.getInt() != MAGIC || hb.getInt() != numPages)
+            return false;
+        int crc = hb.getInt();
+        if (hb.getInt() != 1)
+            return false;
+
+        byte[] bits = new byte[(numPages + 7) / 8];
+        if (bits.length > 0 && channel.read(HEADER_SIZE, bits) != bits.length)
+            return false;
+        if (checksum(bits) != crc)
+            return false;
+
+        free.clear();
+        free.or(BitSet.valueOf(bits));
+        this.numPages = numPages;
+        dirtyChunks.clear();
+        saved = true;
+        return true;
+    }
+
+    /** Returns the CRC32 of a bitmap as it is stored in the side file. */
+    private static int checksum(byte[] bits) {
+        CRC32 crc = new CRC32();
+        crc.update(bits, 0, bits.length);
+        return (int) crc.getValue();
+    }
+
+    /** Returns the side file's header for the map as it is now. */
+    private byte[] header(boolean saved) {
+        byte[] bits = Arrays.copyOf(free.toByteArray(), (numPages + 7) / 8);
+        ByteBuffer hb = ByteBuffer.allocate(HEADER_SIZE);
+        hb.putInt(MAGIC).putInt(numPages).putInt(checksum(bits)).putInt(saved ? 1 : 0);
+        return hb.array();
+    }
+
+    /**
+     * Marks the side file unsaved before the map first changes after it was
+     * loaded or saved. Like the map itself, the mark isn't forced: the map
+     * is only a hint, and one that is out of date costs space, not data.
+     *
+     * @throws UncheckedIOException if the side file can't be written
+     */
+    private void changing() {
+        if (!saved)
+            return;
+        try {
+            channel.write(0, header(false));
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write " + file, e);
+        }
+        saved = false;
+    }
+
+    /**
+     * Marks the side file unsaved, and forces the mark, so that the next
+     * {@link #load} rebuilds the map rather than trusting it. Recovery calls
+     * this before it changes any page: a saved map may record pages as full
+     * that were filled by inserts recovery is about to undo.
+     */
+    public synchronized void invalidate() throws IOException {
+        if (file.exists()) {
+            channel.write(0, header(false));
+            channel.force();
+        }
+        saved = false;
+    }
+
+    /**
+     * Discards the current contents of the map and makes it cover numPages
+     * pages, all of which are marked full.
+     */
+    public synchronized void reset(int numPages) {
+        changing();
+        free.clear();
+        this.numPages = numPages;
+        dirtyChunks.clear();
+        for (int c = 0; c * CHUNK_BYTES * 8 < numPages; c++)
+            dirtyChunks.add(c);
+    }
+
+    /**
+     * Returns the number of the first page at or after from that may have an
+     * empty slot, or -1 if there is none.
+     */
+    public synchronized int nextFreePage(int from) {
+        int pgNo = free.nextSetBit(from);
+        return (pgNo < 0 || pgNo >= numPages) ? -1 : pgNo;
+    }
+
+    /**
+     * Records whether the specified page may have an empty slot, growing the
+     * map if the page is past its end.
+     *
+     * @throws UncheckedIOException if the side file can't be marked unsaved
+     */
+    public synchronized void setFree(int pgNo, boolean isFree) {
+        if (pgNo >= numPages || free.get(pgNo) != isFree)
+            changing();
+        if (pgNo >= numPages) {
+            for (int c = numPages / (CHUNK_BYTES * 8); c <= pgNo / (CHUNK_BYTES * 8); c++)
+                dirtyChunks.add(c);
+            numPages = pgNo + 1;
+        }
+        if (free.get(pgNo) != isFree) {
+            free.set(pgNo, isFree);
+            dirtyChunks.add(pgNo / (CHUNK_BYTES * 8));
+        }
+    }
+
+    /**
+     * Returns the number of heap pages this map covers.
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Writes the chunks of the map changed since the last save, and then the
+     * header, marking the side file saved, to the side file. The side file is
+     * not forced: a map lost or torn in a crash fails its checksum or is
+     * still marked unsaved, and {@link #load} rejects it.
+     */
+    public synchronized void save() throws IOException {
+        if (saved)
+            return;
+        int len = (numPages + 7) / 8;
+        Iterator<Integer> it = dirtyChunks.iterator();
+        while (it.hasNext()) {
+            int c = it.next();
+            int start = c * CHUNK_BYTES;
+            int end = Math.min(len, start + CHUNK_BYTES);
+            if (start < end) {
+                byte[] chunk = free.get(start * 8, end * 8).toByteArray();
+                channel.write(HEADER_SIZE + (long) start, Arrays.copyOf(chunk, end - start));
+            }
+            it.remove();
+        }
+        channel.write(0, header(true));
+        saved = true;
+    }
+
+    /**
+     * Closes the side file. The map itself stays usable.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -8,20 +8,44 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can instead store variable-length records on
+ * SlottedHeapPages; see {@link PageFormat}.
+ * <p>
+ * Pages are normally of the database's page size, {@link
+ * BufferPool#getPageSize}. A file can instead have pages of any power of two
+ * from {@link #MIN_PAGE_SIZE} to {@link #MAX_PAGE_SIZE} bytes, recorded in a
+ * header of {@link #HEADER_SIZE} bytes at the start of the file: a magic
+ * number, the page size and a checksum of the two, followed by zeroes.
+ * Files without a header have pages of the database's size.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The formats a HeapFile can store its pages in. A file's format is fixed
+     * when it is created.
+     */
+    public enum PageFormat {
+        /** Fixed-size tuple slots with a used-slot bitmap; see {@link HeapPage} */
+        FIXED,
+        /** Variable-length records with a slot directory; see {@link SlottedHeapPage} */
+        SLOTTED,
+        /** Fixed-size slots stored column by column; see {@link PaxHeapPage} */
+        PAX
+    }
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -32,12 +56,223 @@ public class HeapFile implements DbFile {
 	
 	private File f = null;
 	private TupleDesc td = null;
+	private final PageChannel channel;
+	private final PageFormat format;
+	/** Stores the pages compressed on disk; null for an uncompressed file */
+	private final CompressedPageStore store;
+	private volatile boolean lazyTuples = false;
+
+	/**
+	 * Number of pages a scan reads ahead of the page it is on, for scans that
+	 * don't ask for a read-ahead distance of their own; 0 disables it.
+	 */
+	private static volatile int defaultReadAhead = 0;
+
+	/**
+	 * Per-thread direct buffer that pages are serialized into before being
+	 * written, so writePage allocates nothing and the channel needn't copy
+	 * the page into a temporary direct buffer of its own.
+	 */
+	private static final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<>();
+
+	/**
+	 * Files with fewer pages than this don't persist their free space map;
+	 * rebuilding it from the page headers when the file is opened is cheap.
+	 */
+	private static final int FSM_PERSIST_MIN_PAGES = 128;
+
+	/**
+	 * Number of pages in the file, read from the file length on first use
+	 * and after recovery, and maintained in memory otherwise; -1 until then. It only grows once
+	 * a page has been written, so every page it counts is on disk.
+	 */
+	private final AtomicInteger pageCount = new AtomicInteger(-1);
+
+	/**
+	 * Held while a new page is appended, so that concurrent inserters never
+	 * append the same page number.
+	 */
+	private final Object appendLock = new Object();
+
+	private final FreeSpaceMap fsm;
+	private boolean fsmLoaded = false; // protected by fsm
+
+	/** Smallest page size a file header can record. */
+	public static final int MIN_PAGE_SIZE = 512;
+	/** Largest page size a file header can record. */
+	public static final int MAX_PAGE_SIZE = 64 * 1024;
+	/**
+	 * Size of a file header, which keeps the pages past it aligned to disk
+	 * sectors.
+	 */
+	public static final int HEADER_SIZE = 512;
+	/** Magic number at the start of a file header, "SDBHEAPF". */
+	private static final long HEADER_MAGIC = 0x5344424845415046L;
+	/** Bytes of the header the checksum covers: the magic and page size */
+	private static final int HEADER_FIELDS = 12;
+
+	/** Page size recorded in the file's header, or 0 if it has none */
+	private final int pageSize;
+
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are in
+     * the specified format.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     * @param format
+     *            the format of the file's pages.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+    	this(f, td, format, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are in
+     * the specified format and are compressed on disk with the specified
+     * codec. Compression trades CPU time on every page read and write for a
+     * smaller file; it suits large tables that are rarely updated.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     * @param format
+     *            the format of the file's pages.
+     * @param codec
+     *            the codec the pages are compressed with, or null to store
+     *            them uncompressed.
+     * @see CompressedPageStore
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, PageCodec codec) {
+    	this(f, td, format, codec, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of the
+     * specified size. A new or empty file gets a header recording the page
+     * size; an existing file must already have pages of that size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     * @param format
+     *            the format of the file's pages.
+     * @param codec
+     *            the codec the pages are compressed with, or null to store
+     *            them uncompressed.
+     * @param pageSize
+     *            the size of the file's pages, a power of two from
+     *            {@link #MIN_PAGE_SIZE} to {@link #MAX_PAGE_SIZE}, or 0 for
+     *            the size in the file's header, if any, and the database's
+     *            page size otherwise.
+     * @throws IllegalArgumentException if the page size is not supported,
+     *         or the file has pages of another size
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, PageCodec codec, int pageSize) {
     	this.f = f;
     	this.td = td;
+    	this.format = format;
+    	this.channel = new PageChannel(f);
+    	try {
+    		int recorded = readHeader(channel);
+    		if (pageSize != 0 && pageSize != recorded) {
+    			checkPageSize(pageSize);
+    			if (recorded != 0)
+    				throw new IllegalArgumentException(f + " has pages of " + recorded + " bytes");
+    			// files with pages of the database's size have no header
+    			if (pageSize != BufferPool.getPageSize()) {
+    				if (channel.size() > 0)
+    					throw new IllegalArgumentException(f + " has pages of " + BufferPool.getPageSize() + " bytes");
+    				channel.write(0, header(pageSize));
+    				recorded = pageSize;
+    			}
+    		}
+    		this.pageSize = recorded;
+    	} catch (IOException e) {
+    		throw new IllegalStateException("IOException:" + e.toString());
+    	}
+    	this.store = codec == null ? null
+    			: new CompressedPageStore(channel, codec, new File(f.getPath() + ".pidx"), dataStart());
+    	this.fsm = new FreeSpaceMap(new File(f.getPath() + ".fsm"));
         // some code goes here
     }
 
+    /**
+     * Throws IllegalArgumentException if pageSize isn't a supported page
+     * size.
+     */
+    static void checkPageSize(int pageSize) {
+    	if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+    		throw new IllegalArgumentException("unsupported page size " + pageSize);
+    }
+
+    /**
+     * Returns the header of a file with pages of the specified size.
+     */
+    static byte[] header(int pageSize) {
+    	byte[] header = new byte[HEADER_SIZE];
+    	ByteBuffer hb = ByteBuffer.wrap(header).putLong(HEADER_MAGIC).putInt(pageSize);
+    	hb.putInt(headerChecksum(header));
+    	return header;
+    }
+
+    private static int headerChecksum(byte[] header) {
+    	CRC32 crc = new CRC32();
+    	crc.update(header, 0, HEADER_FIELDS);
+    	return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the page size recorded in the header of the file, or 0 if it
+     * has no header. The first page of a headerless file could begin with
+     * the magic number, so a header is only recognised if its checksum
+     * matches, the page size is one a header can record and the rest of it
+     * is zeroes.
+     */
+    private static int readHeader(PageChannel channel) throws IOException {
+    	byte[] header = new byte[HEADER_SIZE];
+    	if (channel.read(0, header) != HEADER_SIZE)
+    		return 0;
+    	ByteBuffer hb = ByteBuffer.wrap(header);
+    	if (hb.getLong() != HEADER_MAGIC)
+    		return 0;
+    	int pageSize = hb.getInt();
+    	if (hb.getInt() != headerChecksum(header)
+    			|| pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+    		return 0;
+    	while (hb.hasRemaining()) {
+    		if (hb.get() != 0)
+    			return 0;
+    	}
+    	return pageSize;
+    }
+
+    /**
+     * Returns the size of this file's pages in bytes: the size recorded in
+     * its header, or the database's page size if it has none.
+     */
+    public int getPageSize() {
+    	return pageSize != 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the offset of the first page in the file, just past the header.
+     */
+    private long dataStart() {
+    	return pageSize != 0 ? HEADER_SIZE : 0;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -49,6 +284,80 @@ public class HeapFile implements DbFile {
         //return null;
     }
 
+    /**
+     * Returns the format of this HeapFile's pages.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the codec this HeapFile's pages are compressed with on disk, or
+     * null if they are stored uncompressed.
+     */
+    public PageCodec getPageCodec() {
+        return store == null ? null : store.getCodec();
+    }
+
+    /**
+     * Enables or disables the memory-mapped read path for this HeapFile. When
+     * enabled, readPage (and therefore scans through the BufferPool) copies
+     * pages out of a mapping of the file rather than issuing a read system
+     * call per page. Best suited to read-mostly tables.
+     *
+     * @param mapped true to read pages through a memory mapping
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    /**
+     * Returns true if pages of this HeapFile are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
+
+    /**
+     * Enables or disables lazy tuple materialization for pages read from this
+     * HeapFile. When enabled, pages keep their raw bytes and decode each field
+     * only when it is first accessed, so tuples discarded by a Filter never
+     * allocate Field objects.
+     *
+     * @param lazy true to decode tuples on demand
+     * @see HeapPage#HeapPage(HeapPageId, byte[], boolean)
+     */
+    public void setLazyTuples(boolean lazy) {
+        this.lazyTuples = lazy;
+    }
+
+    /**
+     * Returns true if pages of this HeapFile decode their tuples on demand.
+     */
+    public boolean isLazyTuples() {
+        return lazyTuples;
+    }
+
+    /**
+     * Sets the number of pages that scans of any HeapFile read ahead
+     * asynchronously, unless the scan asks for its own distance with
+     * {@link #iterator(TransactionId, int)}.
+     *
+     * @param pages the number of pages to read ahead; 0 disables read-ahead
+     */
+    public static void setDefaultReadAhead(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("read-ahead must not be negative");
+        defaultReadAhead = pages;
+    }
+
+    /**
+     * Returns the number of pages scans read ahead by default.
+     */
+    public static int getDefaultReadAhead() {
+        return defaultReadAhead;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -81,25 +390,48 @@ public class HeapFile implements DbFile {
     	int tableid = pid.getTableId();
         int pgNo = pid.getPageNumber();
         
-        final int pageSize = Database.getBufferPool().getPageSize();
-        //System.out.println("pageSize:"+pageSize+"(int) f.length():"+(int) f.length());
-        byte[] rawPgData = HeapPage.createEmptyPageData();
-
-        // random access read from disk
         try {
-            FileInputStream in = new FileInputStream(f);
-            in.skip(pgNo * pageSize);
-            in.read(rawPgData);
-            in.close();
-            return new HeapPage(new HeapPageId(tableid, pgNo), rawPgData);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("FileNotFoundException:"+e.toString());
+            return newPage(new HeapPageId(tableid, pgNo), readPageData(pgNo), lazyTuples, true);
         } catch (IOException e) {
             throw new IllegalArgumentException("IOException:"+e.toString());
         }
         //return null;
     }
 
+    /**
+     * Creates a page of this file's format from its image. Only fixed-format
+     * pages support lazy tuples, and only they are kept off the heap, in an
+     * OffHeapHeapPage, when offHeap is set and the BufferPool has a frame
+     * arena.
+     */
+    private HeapFilePage newPage(HeapPageId pid, byte[] data, boolean lazy, boolean offHeap) throws IOException {
+        switch (format) {
+        case SLOTTED:
+            return new SlottedHeapPage(pid, data);
+        case PAX:
+            return new PaxHeapPage(pid, data);
+        default:
+            if (offHeap && Database.getBufferPool().getFrameArena() != null)
+                return new OffHeapHeapPage(pid, data);
+            return new HeapPage(pid, data, lazy);
+        }
+    }
+
+    /**
+     * Reads the raw bytes of the specified page with a positional (or
+     * memory-mapped) read through the file's channel. Bytes past the end of
+     * the file read as zeroes. Compressed pages are decompressed.
+     */
+    private byte[] readPageData(int pgNo) throws IOException {
+        final int pageSize = getPageSize();
+        byte[] rawPgData = HeapPage.createEmptyPageData(pageSize);
+        if (store != null)
+            store.readPage(pgNo, rawPgData);
+        else
+            channel.read(dataStart() + (long) pgNo * pageSize, rawPgData);
+        return rawPgData;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
@@ -108,59 +440,248 @@ public class HeapFile implements DbFile {
         int tableid = pid.getTableId();
         int pgNo = pid.getPageNumber();
 
-        final int pageSize = Database.getBufferPool().getPageSize();
-        byte[] pgData = page.getPageData();
+        if (store != null) {
+            store.writePage(pgNo, page.getPageData());
+            pageCount.accumulateAndGet(pgNo + 1, Math::max);
+            return;
+        }
+
+        final int pageSize = getPageSize();
+        ByteBuffer buf = writeBuffer.get();
+        if (buf == null || buf.capacity() < pageSize) {
+            buf = ByteBuffer.allocateDirect(pageSize);
+            writeBuffer.set(buf);
+        }
+        buf.clear();
+        buf.limit(pageSize);
+        page.writePageData(buf);
+        buf.flip();
 
-        RandomAccessFile file = new RandomAccessFile(f, "rws");
-        file.skipBytes(pgNo * pageSize);
-        file.write(pgData);
-        file.close();
+        channel.write(dataStart() + (long) pgNo * pageSize, buf);
+        pageCount.accumulateAndGet(pgNo + 1, Math::max);
         //System.out.println("i'm write file!");
     }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        if (store != null)
+            store.close();
+        channel.close();
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        if (store != null)
+            store.force();
+        else
+            channel.force();
+        synchronized (fsm) {
+            if (fsmLoaded && cachedNumPages() >= FSM_PERSIST_MIN_PAGES)
+                fsm.save();
+        }
+    }
+
+    /**
+     * Returns the free space map of this file, loading it from its side file
+     * or rebuilding it from the page headers on first use.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        synchronized (fsm) {
+            int numPages = fsmLoaded ? cachedNumPages() : numPages();
+            if (!fsmLoaded) {
+                if (!fsm.load(numPages)) {
+                    fsm.reset(numPages);
+                    for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                        // only the header is parsed for a lazy page
+                        HeapFilePage pg = newPage(new HeapPageId(getId(), pgNo),
+                                readPageData(pgNo), true, false);
+                        if (pg.getNumEmptySlots() > 0)
+                            fsm.setFree(pgNo, true);
+                    }
+                }
+                fsmLoaded = true;
+            }
+            // pages appended by other inserters, or behind our back, are
+            // assumed to have room; a page is written before it is counted
+            for (int pgNo = fsm.numPages(); pgNo < numPages; pgNo++)
+                fsm.setFree(pgNo, true);
+        }
+        return fsm;
+    }
+
     /**
-     * Returns the number of pages in this HeapFile.
+     * Records in the free space map, if it has been loaded, whether the
+     * specified page has an empty slot. The buffer pool marks the pages an
+     * abort restores free, since the inserts it undid may have filled them.
+     */
+    void noteFreeSpace(int pgNo, boolean free) {
+        synchronized (fsm) {
+            if (fsmLoaded)
+                fsm.setFree(pgNo, free);
+        }
+    }
+
+    /**
+     * Forgets what this file caches about its pages before recovery changes
+     * them: the page count is read from the file length again, and the free
+     * space map is marked stale, since recovery may restore free space the
+     * saved map records as full, and rebuilt from the page headers.
+     */
+    void recovering() throws IOException {
+        synchronized (fsm) {
+            fsm.invalidate();
+            fsmLoaded = false;
+        }
+        pageCount.set(-1);
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. This reads the file
+     * length, so it also counts pages appended to the file by other means;
+     * the file's own scans and inserts use {@link #cachedNumPages}.
      */
     public int numPages() {
         // some code goes here
-    	int fileSizeinByte = (int) f.length();
-        return fileSizeinByte / Database.getBufferPool().getPageSize();
+    	int onDisk;
+    	try {
+    		if (store != null)
+    			onDisk = store.numPages();
+    		else
+    			onDisk = (int) (Math.max(0, channel.size() - dataStart()) / getPageSize());
+    	} catch (IOException e) {
+    		throw new IllegalStateException("IOException:"+e.toString());
+    	}
+    	// pages may have been appended to the file behind our back, and
+    	// allocated pages may not have been written yet
+    	return pageCount.accumulateAndGet(onDisk, Math::max);
         //return 0;
     }
 
+    /**
+     * Returns the number of pages in the file as maintained in memory,
+     * reading the file length only the first time, after recovery and
+     * whenever {@link #numPages} is called.
+     */
+    int cachedNumPages() {
+    	int n = pageCount.get();
+    	return n >= 0 ? n : numPages();
+    }
+
+    /**
+     * Appends an empty page to the file. The page is written before it
+     * counts towards numPages(), both under the append lock, so no other
+     * inserter can find the page, and commit a record on it, before the
+     * empty page has landed.
+     *
+     * @return the number of the new page
+     */
+    private int appendEmptyPage() throws IOException {
+        synchronized (appendLock) {
+            int pgNo = cachedNumPages();
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            writePage(newPage(pid, HeapPage.createEmptyPageData(getPageSize()), false, false));
+            return pgNo;
+        }
+    }
+
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
     	ArrayList<Page> affected = new ArrayList<>(1);
-        int numPages = numPages();
+        FreeSpaceMap map = freeSpaceMap();
+        int numPages = cachedNumPages();
 
-        for (int pgNo = 0; pgNo < numPages + 1; pgNo++) {
+        // only visit pages the free space map says have room
+        for (int pgNo = map.nextFreePage(0); pgNo >= 0 && pgNo < numPages; pgNo = map.nextFreePage(pgNo + 1)) {
             HeapPageId pid = new HeapPageId(getId(), pgNo);
-            HeapPage pg;
-            if (pgNo < numPages) {
-                pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            } else {
-                // pgNo = numpages -> we need add new page
-                pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+            HeapFilePage pg = (HeapFilePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (pg.hasRoomFor(t) && insertOn(tid, pg, t)) {
+                // insert will update tuple when inserted
+                if (pg.getNumEmptySlots() == 0)
+                    noteFreeSpace(pgNo, false);
+                affected.add(pg);
+                return affected;
             }
+            // stale entry, or too little room left for tuples like t
+            noteFreeSpace(pgNo, false);
+        }
 
-            if (pg.getNumEmptySlots() > 0) {
-                // insert will update tuple when inserted
+        // no page has room -> we need add new page and append the dbfile.
+        // Only the empty page is written directly; the tuple goes in through
+        // the buffer pool, so that it is logged and undone like any other.
+        int newPgNo = appendEmptyPage();
+        HeapPageId pid = new HeapPageId(getId(), newPgNo);
+        HeapFilePage pg = (HeapFilePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        if (!insertOn(tid, pg, t))
+            throw new DbException("HeapFile: insertTuple: no room on a new page");
+        noteFreeSpace(newPgNo, pg.getNumEmptySlots() > 0);
+        affected.add(pg);
+        return affected;
+    }
+
+    /**
+     * Inserts t on a page the transaction has fetched for writing. Under
+     * record locking other transactions may be changing the page too, so the
+     * insert is made holding the page's latch and the new record is locked;
+     * if another transaction still holds a lock on the slot, say a scan that
+     * found it empty, the insert is undone and retried once that lock is
+     * released.
+     *
+     * @return false if the page has no room for t
+     */
+    private boolean insertOn(TransactionId tid, HeapFilePage pg, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        if (bp.getLockGranularity() != BufferPool.LockGranularity.RECORD) {
+            // latched, so that a transaction stealing the page never writes
+            // half an insert
+            synchronized (pg) {
                 pg.insertTuple(t);
-                // writePage(pg);
-                if (pgNo < numPages) {
-                    affected.add(pg);
-                } else {
-                    // should append the dbfile
-                    writePage(pg);
+            }
+            return true;
+        }
+        while (true) {
+            RecordId taken;
+            synchronized (pg) {
+                if (!pg.hasRoomFor(t))
+                    return false;
+                pg.insertTuple(t);
+                if (bp.tryLockInsert(tid, t.getRecordId())) {
+                    // dirty before the latch goes, so the pool keeps it
+                    pg.markDirty(true, tid);
+                    return true;
                 }
-                return affected;
+                taken = t.getRecordId();
+                pg.deleteTuple(t);
             }
+            bp.lockRecord(tid, taken, Permissions.READ_WRITE);
+            bp.unlockRecord(tid, taken);
+        }
+    }
 
+    /**
+     * Removes a record from a page under record locking, when the
+     * transaction that deleted it commits or the one that inserted it aborts.
+     */
+    void removeTuple(HeapFilePage pg, RecordId rid) throws DbException {
+        synchronized (pg) {
+            Tuple t = pg.getTuple(rid.getTupleNumber());
+            if (t == null)
+                throw new DbException("HeapFile: removeTuple: slot of " + rid + " is empty");
+            pg.deleteTuple(t);
         }
-        // otherwise create new page and insert
-        throw new DbException("HeapFile: InsertTuple: Tuple can not be added");
+        noteFreeSpace(rid.getPageId().getPageNumber(), true);
+    }
+
+    /** Returns a private copy of a page of this file, made from its image. */
+    HeapFilePage copyPage(HeapFilePage pg) throws IOException {
+        return newPage((HeapPageId) pg.getId(), pg.getPageData(), false, false);
+    }
+
+    /** Returns a private copy of a page of this file as it is on disk. */
+    HeapFilePage readPageCopy(HeapPageId pid) throws IOException {
+        return newPage(pid, readPageData(pid.getPageNumber()), false, false);
     }
 
     // see DbFile.java for javadocs
@@ -170,8 +691,11 @@ public class HeapFile implements DbFile {
     	RecordId rid = t.getRecordId();
         HeapPageId pid = (HeapPageId) rid.getPageId();
         if (pid.getTableId() == getId()) {
-            HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            pg.deleteTuple(t);
+            HeapFilePage pg = (HeapFilePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            synchronized (pg) {
+                pg.deleteTuple(t);
+            }
+            noteFreeSpace(pid.getPageNumber(), true);
             ArrayList<Page> ret = new ArrayList<Page>();
             ret.add(pg);
             return ret;
@@ -187,18 +711,30 @@ public class HeapFile implements DbFile {
         private final TransactionId transactionId;
         private final int tableId;
         private final int numPages;
+        private final int readAhead;
+        private int prefetchedTo; // pages below this have been read ahead
+        private BufferRing ring; // null if the scan uses the whole pool
+        private PageHandle pinned; // the page tupleIter walks
+        private final int[] fields; // null to return whole tuples
+        private final TupleDesc projected;
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, int readAhead, int[] fields) {
             this.pgCursor = null;
             this.tupleIter = null;
             this.transactionId = tid;
             this.tableId = getId();
-            this.numPages = numPages();
+            this.numPages = cachedNumPages();
+            this.readAhead = readAhead;
+            this.fields = fields;
+            this.projected = fields == null ? null : TupleDesc.project(td, fields);
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             pgCursor = 0;
+            prefetchedTo = 1;
+            // large scans recycle a few frames instead of flushing the pool
+            ring = Database.getBufferPool().bulkReadRing(numPages);
             tupleIter = getTupleIter(pgCursor);
             /*
             while( pgCursor < numPages && !getTupleIter(pgCursor).hasNext() )
@@ -254,23 +790,157 @@ public class HeapFile implements DbFile {
         public void close() {
             pgCursor = null;
             tupleIter = null;
+            unpin();
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                pinned.close();
+                pinned = null;
+            }
         }
 
         private Iterator<Tuple> getTupleIter(int pgNo)
                 throws TransactionAbortedException, DbException {
+            readAhead(pgNo);
             PageId pid = new HeapPageId(tableId, pgNo);
-            return ((HeapPage)
-                    Database
-                            .getBufferPool()
-                            .getPage(transactionId, pid, Permissions.READ_ONLY))
-                    .iterator();
+            unpin();
+            pinned = Database.getBufferPool()
+                    .pinPage(transactionId, pid, Permissions.READ_ONLY, ring);
+            HeapFilePage pg = (HeapFilePage) pinned.getPage();
+            BufferPool bp = Database.getBufferPool();
+            // a snapshot's page is its own copy, which nobody changes
+            if (bp.getLockGranularity() == BufferPool.LockGranularity.RECORD
+                    && !bp.isSnapshot(transactionId))
+                return lockedTuples(pg);
+            if (fields == null)
+                return pg.iterator();
+            if (pg instanceof PaxHeapPage)
+                return ((PaxHeapPage) pg).iterator(fields, projected);
+            return new Iterator<Tuple>() {
+                private final Iterator<Tuple> it = pg.iterator();
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public Tuple next() {
+                    Tuple t = it.next();
+                    Tuple ret = new Tuple(projected);
+                    for (int i = 0; i < fields.length; i++)
+                        ret.setField(i, t.getField(fields[i]));
+                    ret.setRecordId(t.getRecordId());
+                    return ret;
+                }
+            };
+        }
+
+        /**
+         * Returns the tuples of a page under record locking, each locked
+         * shared before it is read, skipping those the transaction deleted
+         * and those deleted by others by the time their lock was granted.
+         * Records inserted while the scan waited for a lock, say by the
+         * transaction that deleted the record it waited for, are read too,
+         * even in the slot of a record found deleted.
+         */
+        private Iterator<Tuple> lockedTuples(HeapFilePage pg)
+                throws TransactionAbortedException {
+            Set<RecordId> seen = new HashSet<>();
+            List<Tuple> tuples = new ArrayList<>();
+            while (true) {
+                List<RecordId> rids = new ArrayList<>();
+                synchronized (pg) {
+                    Iterator<Tuple> it = pg.iterator();
+                    while (it.hasNext()) {
+                        RecordId rid = it.next().getRecordId();
+                        if (seen.add(rid))
+                            rids.add(rid);
+                    }
+                }
+                if (rids.isEmpty())
+                    return tuples.iterator();
+                lockAll(pg, rids, seen, tuples);
+            }
+        }
+
+        /**
+         * Locks and reads the specified records of a page into tuples,
+         * dropping those found deleted from seen.
+         */
+        private void lockAll(HeapFilePage pg, List<RecordId> rids, Set<RecordId> seen,
+                List<Tuple> tuples)
+                throws TransactionAbortedException {
+            BufferPool bp = Database.getBufferPool();
+            for (RecordId rid : rids) {
+                if (bp.isDeleted(transactionId, rid))
+                    continue;
+                bp.lockRecord(transactionId, rid, Permissions.READ_ONLY);
+                Tuple t;
+                synchronized (pg) {
+                    t = pg.getTuple(rid.getTupleNumber());
+                }
+                if (t == null) {
+                    bp.unlockRecord(transactionId, rid);
+                    seen.remove(rid);
+                } else if (fields == null) {
+                    tuples.add(t);
+                } else {
+                    Tuple ret = new Tuple(projected);
+                    for (int i = 0; i < fields.length; i++)
+                        ret.setField(i, t.getField(fields[i]));
+                    ret.setRecordId(rid);
+                    tuples.add(ret);
+                }
+            }
+        }
+
+        /**
+         * Asks the buffer pool to read the readAhead pages after pgNo in the
+         * background, skipping those already requested by this scan.
+         */
+        private void readAhead(int pgNo) {
+            int end = Math.min(numPages, pgNo + 1 + readAhead);
+            for (int p = Math.max(prefetchedTo, pgNo + 1); p < end; p++)
+                Database.getBufferPool().prefetchPage(new HeapPageId(tableId, p), ring);
+            prefetchedTo = Math.max(prefetchedTo, end);
         }
     }
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
     	
-        return new HeapFileIterator(tid);
+        return iterator(tid, defaultReadAhead);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile that,
+     * while it is on a page, has the buffer pool read the next readAhead
+     * pages in the background so that they are cached by the time the scan
+     * reaches them.
+     *
+     * @param tid the transaction the scan runs as part of
+     * @param readAhead the number of pages to read ahead; 0 disables it
+     * @see BufferPool#prefetchPage
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead) {
+        return iterator(tid, null, readAhead);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile projected
+     * onto the specified fields, reading ahead as described in
+     * {@link #iterator(TransactionId, int)}. The returned tuples have the
+     * TupleDesc {@link TupleDesc#project}(getTupleDesc(), fields). On PAX
+     * pages only the projected columns are decoded.
+     *
+     * @param tid the transaction the scan runs as part of
+     * @param fields the indexes of the fields to return, or null for all
+     * @param readAhead the number of pages to read ahead; 0 disables it
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, int readAhead) {
+        if (readAhead < 0)
+            throw new IllegalArgumentException("read-ahead must not be negative");
+        return new HeapFileIterator(tid, readAhead, fields == null ? null : fields.clone());
     }
 
 }
@@ -84,7 +84,9 @@ public class HeapFileEncoder {
     * @see HeapFile
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
-    * @param npagebytes The number of bytes per page in the output file
+    * @param npagebytes The number of bytes per page in the output file; a
+    *   file with pages of other than the database's page size starts with a
+    *   header recording it (see HeapFile)
     * @param numFields the number of fields in each input line/output tuple
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
@@ -108,6 +110,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    if (npagebytes != BufferPool.getPageSize())
+        os.write(HeapFile.header(npagebytes));
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * HeapFilePage is the interface HeapFile uses to work with its pages, so that
+ * a HeapFile can store its tuples in any of the page formats listed in
+ * {@link HeapFile.PageFormat}.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface HeapFilePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple's RecordId is updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple doesn't fit on the page or its
+     *         TupleDesc doesn't match the page's
+     * @param t The tuple to add.
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns true if the specified tuple would fit on this page.
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns the number of further tuples this page can hold. For pages whose
+     * tuples vary in size this is an estimate, assuming the smallest tuples
+     * the page's schema allows; it is 0 only if no tuple can be added.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty
+     * or the page has no such slot.
+     */
+    Tuple getTuple(int slot);
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    Iterator<Tuple> iterator();
+}
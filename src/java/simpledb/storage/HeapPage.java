@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,7 +18,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
@@ -25,6 +26,26 @@ public class HeapPage implements Page {
     final Tuple[] tuples;
     final int numSlots;
 
+    /**
+     * The serialized image of this page, kept up to date by insertTuple and
+     * deleteTuple so that the page never has to be re-serialized. In lazy
+     * mode tuples are decoded from it on demand.
+     */
+    final byte[] image;
+    /**
+     * The change count ({@link Tuple#changes}) of each slot's tuple when it
+     * was last serialized into the image, or null while all are 0, as they
+     * are for the tuples this page decodes itself. A tuple changed in place
+     * through Tuple.setField since is serialized again before the image is
+     * copied.
+     */
+    private int[] serialized;
+    /** The image, wrapped for the LazyTuples of lazy mode */
+    final ByteBuffer imageBuf;
+    final boolean lazy;
+    /** Offset of each field from the start of a tuple, used in lazy mode */
+    final int[] fieldOffsets;
+
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
 
@@ -32,8 +53,9 @@ public class HeapPage implements Page {
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
+     * The page size is the length of data; see {@link HeapFile#getPageSize}.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
@@ -45,9 +67,43 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes of data read from disk, optionally
+     * in lazy mode. In lazy mode the page takes ownership of data, using it as
+     * its page image, and only the header is parsed up front; each tuple is
+     * created on first access as a {@link LazyTuple} whose fields are decoded
+     * from the image on demand. The caller must not use data afterwards.
+     *
+     * @param id the id of this page
+     * @param data the page image, in the format described in
+     *        {@link #HeapPage(HeapPageId, byte[])}
+     * @param lazy true to decode tuples on demand
+     */
+    public HeapPage(HeapPageId id, byte[] data, boolean lazy) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
+        this.numSlots = getNumTuples(data.length);
+        tuples = new Tuple[numSlots];
+        this.lazy = lazy;
+
+        if (lazy) {
+            header = Arrays.copyOf(data, getHeaderSize());
+            image = data;
+            imageBuf = ByteBuffer.wrap(image);
+            clearEmptySlots();
+            fieldOffsets = new int[td.numFields()];
+            for (int j=1; j<fieldOffsets.length; j++)
+                fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+            setBeforeImage();
+            return;
+        }
+        image = data.clone();
+        imageBuf = null;
+        fieldOffsets = null;
+
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
@@ -55,7 +111,6 @@ public class HeapPage implements Page {
         for (int i=0; i<header.length; i++)
             header[i] = dis.readByte();
         
-        tuples = new Tuple[numSlots];
         try{
             // allocate and read the actual records of this page
         	//System.out.println("tuples.length: "+tuples.length + " td.size: "+td.getSize()+" getNumTuples:"+getNumTuples()+" getHeaderSize():"+getHeaderSize());
@@ -67,15 +122,29 @@ public class HeapPage implements Page {
         }
         dis.close();
 
+        clearEmptySlots();
         setBeforeImage();
     }
 
-    /** Retrieve the number of tuples on this page.
+    /**
+     * Zeroes the bytes of empty slots and the trailing padding in the page
+     * image, which is how getPageData has always serialized them.
+     */
+    private void clearEmptySlots() {
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                Arrays.fill(image, tupleOffset(i), tupleOffset(i) + td.getSize(), (byte) 0);
+        }
+        Arrays.fill(image, tupleOffset(numSlots), image.length, (byte) 0);
+    }
+
+    /** Retrieve the number of tuples on a page of this table.
+        @param pageSize the size of the page in bytes
         @return the number of tuples on this page
     */
-    private int getNumTuples() {        
+    private int getNumTuples(int pageSize) {
         // some code goes here
-    	return (int)Math.floor((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+    	return (int)Math.floor((pageSize*8) / (td.getSize() * 8 + 1));
         //return 0;
 
     }
@@ -98,9 +167,9 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData.clone();
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,true);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -110,9 +179,12 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        serializeChanged();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            if (oldData == null || oldData.length != image.length)
+                oldData = new byte[image.length];
+            System.arraycopy(image, 0, oldData, 0, image.length);
         }
     }
 
@@ -149,7 +221,7 @@ public class HeapPage implements Page {
         try {
             for (int j=0; j<td.numFields(); j++) {
                 Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.cacheField(j, f);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -159,6 +231,27 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Returns the tuple in slot i, creating it from the page image first if
+     * this page is in lazy mode and the slot hasn't been accessed yet.
+     */
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null && lazy && isSlotUsed(i)) {
+            t = new LazyTuple(td, imageBuf, tupleOffset(i), fieldOffsets);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the offset in the page image of the tuple in slot i.
+     */
+    private int tupleOffset(int i) {
+        return header.length + i * td.getSize();
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -166,69 +259,52 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page image is maintained incrementally as tuples are inserted and
+     * deleted, so this is just a copy of it, once the tuples changed in place
+     * have been serialized again.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
+        serializeChanged();
+        return image.clone();
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+    /**
+     * Writes the image of this page into buf without allocating.
+     *
+     * @see #getPageData
+     */
+    public void writePageData(ByteBuffer buf) {
+        serializeChanged();
+        buf.put(image);
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /** Serializes the tuple in slot i into the page image. */
+    private void serialize(int i, Tuple t) {
+        ByteBuffer buf = ByteBuffer.wrap(image);
+        buf.position(tupleOffset(i));
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(buf);
+        int changes = t.changes();
+        if (serialized == null && changes != 0)
+            serialized = new int[numSlots];
+        if (serialized != null)
+            serialized[i] = changes;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Serializes the tuples changed in place through Tuple.setField again,
+     * so that the image has their new values.
+     */
+    private void serializeChanged() {
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples[i];
+            if (t != null && t.changes() != (serialized == null ? 0 : serialized[i]))
+                serialize(i, t);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -241,8 +317,16 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the data of an empty HeapPage of the specified size.
+     *
+     * @param pageSize the size of the page in bytes
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -258,10 +342,14 @@ public class HeapPage implements Page {
     	RecordId recToDelete = t.getRecordId();
         if (recToDelete != null && pid.equals(recToDelete.getPageId())) {
             for (int i = 0; i < numSlots; i++) {
-                if (isSlotUsed(i) && t.getRecordId().equals(tuples[i].getRecordId())) {
+                if (isSlotUsed(i) && t.getRecordId().equals(tupleAt(i).getRecordId())) {
+                    detach(i);
                     markSlotUsed(i, false);
                     // t.setRecordId(null);
                     tuples[i] = null;
+                    if (serialized != null)
+                        serialized[i] = 0;
+                    Arrays.fill(image, tupleOffset(i), tupleOffset(i) + td.getSize(), (byte) 0);
                     return;
                 }
             }
@@ -287,6 +375,7 @@ public class HeapPage implements Page {
                     markSlotUsed(i, true);
                     t.setRecordId(new RecordId(pid, i));
                     tuples[i] = t;
+                    serialize(i, t);
                     return;
                 }
             }
@@ -295,6 +384,29 @@ public class HeapPage implements Page {
         throw new DbException("insertTuple: no empty slots or tupledesc is mismatch");
     }
 
+    /**
+     * Returns true if the specified tuple can be added to this page, i.e. its
+     * TupleDesc matches and there is an empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (!td.equals(t.getTupleDesc()))
+            return false;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes every field of a LazyTuple in slot i, so the tuple stays valid
+     * after the slot's bytes in the page image are overwritten.
+     */
+    private void detach(int i) {
+        if (tuples[i] instanceof LazyTuple)
+            ((LazyTuple) tuples[i]).detach();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -334,6 +446,10 @@ public class HeapPage implements Page {
         return ret;
     }
 
+    public Tuple getTuple(int slot) {
+        return slot >= 0 && isSlotUsed(slot) ? tupleAt(slot) : null;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -367,6 +483,7 @@ public class HeapPage implements Page {
     		header[posx] |= 1<<posy;
     	else
     		header[posx] &= ~(1<<posy);
+    	image[posx] = header[posx];
     	}
     }
 
@@ -393,7 +510,7 @@ public class HeapPage implements Page {
 					throw new NoSuchElementException();
 				}
 				//System.out.println(nextSlot);
-				return tuples[nextSlot++];
+				return tupleAt(nextSlot++);
 			}
 		};
     }
@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HotPageFile saves the ids of the pages resident in a BufferPool, hottest
+ * first, so that a restarted database can read them back in before its
+ * queries ask for them. The file holds a magic number, the number of ids,
+ * and each id as its class name followed by its {@link PageId#serialize}d
+ * ints, the way the log writes them.
+ *
+ * @see BufferPool#saveHotPages
+ * @see BufferPool#warmUp
+ */
+public class HotPageFile {
+
+    /** Magic number at the start of the file, "SDBH". */
+    private static final int MAGIC = 0x53444248;
+
+    private HotPageFile() {
+    }
+
+    /**
+     * Writes the page ids to the specified file, replacing it atomically so
+     * that a crash mid-write leaves the previous list in place.
+     *
+     * @param f the file to write
+     * @param pids the page ids, hottest first
+     */
+    public static void write(File f, List<PageId> pids) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] info = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(info.length);
+                for (int j : info)
+                    out.writeInt(j);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the page ids saved in the specified file.
+     *
+     * @param f the file to read
+     * @return the page ids, hottest first, or an empty list if the file
+     *         doesn't exist
+     * @throws IOException if the file can't be read or isn't a list of pages
+     */
+    public static List<PageId> read(File f) throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        if (!f.exists())
+            return pids;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(f + " is not a list of pages");
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String idClassName = in.readUTF();
+                Object[] idArgs = new Object[in.readInt()];
+                for (int j = 0; j < idArgs.length; j++)
+                    idArgs[j] = in.readInt();
+                try {
+                    Constructor<?> idConst = Class.forName(idClassName).getDeclaredConstructors()[0];
+                    pids.add((PageId) idConst.newInstance(idArgs));
+                } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                        | InstantiationException | IllegalArgumentException | ClassCastException e) {
+                    throw new IOException("bad page id in " + f, e);
+                }
+            }
+        }
+        return pids;
+    }
+}
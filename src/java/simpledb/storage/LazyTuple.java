@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LazyTuple is a Tuple read from a HeapPage or an OffHeapHeapPage whose
+ * fields are decoded from the page's raw bytes only when they are first
+ * requested with {@link #getField}. Decoded fields are cached, so each field
+ * is parsed at most once.
+ * <p>
+ * Int fields can also be read without creating a Field object at all via
+ * {@link #getInt}, which is what Predicate uses to filter tuples straight
+ * out of the page buffer.
+ *
+ * @see HeapPage#HeapPage(HeapPageId, byte[], boolean)
+ * @see OffHeapHeapPage
+ */
+public class LazyTuple extends Tuple {
+
+	private static final long serialVersionUID = 1L;
+
+	final TupleDesc pageTd;
+	private final ByteBuffer data;
+	final int offset;
+	final int[] fieldOffsets;
+
+	/**
+	 * Create a tuple backed by a slot of a page image.
+	 *
+	 * @param td           the schema of the page the tuple lives on
+	 * @param data         the page image, read with absolute gets only; must
+	 *                     not be modified while this tuple is in use
+	 * @param offset       the offset in data at which the tuple starts
+	 * @param fieldOffsets the offset of each field from the start of a tuple,
+	 *                     shared by all tuples of the page
+	 */
+	LazyTuple(TupleDesc td, ByteBuffer data, int offset, int[] fieldOffsets) {
+		super(td);
+		this.pageTd = td;
+		this.data = data;
+		this.offset = offset;
+		this.fieldOffsets = fieldOffsets;
+	}
+
+	/**
+	 * @return the value of the ith field, decoding it from the page on first
+	 *         access.
+	 *
+	 * @param i field index to return. Must be a valid index.
+	 */
+	@Override
+	public Field getField(int i) {
+		Field f = super.getField(i);
+		if (f == null) {
+			f = parse(i);
+			cacheField(i, f);
+		}
+		return f;
+	}
+
+	/** Decodes the ith field from the page image. */
+	Field parse(int i) {
+		return pageTd.getFieldType(i).parse(data, offset + fieldOffsets[i]);
+	}
+
+	/** Reads the ith field, an int field, from the page image. */
+	int readInt(int i) {
+		return data.getInt(offset + fieldOffsets[i]);
+	}
+
+	/**
+	 * @return true if the ith field of this tuple is an int field that
+	 *         {@link #getInt} can read.
+	 */
+	public boolean isIntField(int i) {
+		return pageTd.getFieldType(i) == Type.INT_TYPE;
+	}
+
+	/**
+	 * Returns the value of the ith field, which must be an int field, without
+	 * materializing an IntField if it hasn't been decoded yet.
+	 *
+	 * @param i field index to return. Must be a valid int field index.
+	 */
+	public int getInt(int i) {
+		Field f = super.getField(i);
+		if (f != null)
+			return ((IntField) f).getValue();
+		return readInt(i);
+	}
+
+	/**
+	 * Decodes every field that hasn't been decoded yet, so that this tuple
+	 * stays valid after its bytes in the page are overwritten.
+	 */
+	void detach() {
+		for (int i = 0; i < pageTd.numFields(); i++)
+			getField(i);
+	}
+}
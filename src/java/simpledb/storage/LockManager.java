@@ -0,0 +1,691 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager keeps the locks of the BufferPool, held until the transaction
+ * completes. A lock is on a page, or, for record locking, on a table (see
+ * {@link #tableKey}), a page or a {@link RecordId}, in one of the modes of
+ * the multiple granularity protocol: shared or exclusive, or the intention
+ * modes IS, IX and SIX that a transaction holds on a table or page to lock
+ * records under it. Each locked resource has a lock head with the
+ * transactions holding it and a FIFO queue of the requests waiting for it.
+ * A request is granted when it is compatible with the holders and no
+ * request is queued ahead of it, so a stream of readers can't starve a
+ * writer; an upgrade, to the weakest mode covering both the held and the
+ * requested one, queues ahead of the other waiters.
+ * <p>
+ * The heads live in a hash table split into stripes, each synchronized on
+ * separately, and a waiting request waits on its own monitor: requests for
+ * resources of different stripes never contend, and a release only wakes
+ * the transactions whose requests it grants. Code holding a stripe takes no
+ * other lock but the monitor of a request.
+ * <p>
+ * Deadlocks are detected with a waits-for graph: a transaction waits for
+ * the conflicting holders of the resource it is waiting for and for every
+ * request queued ahead of its own. Every {@link #DEADLOCK_CHECK_MILLIS}
+ * milliseconds a waiter that is still waiting looks for cycles in the
+ * graph, unless another waiter just did, and for each cycle aborts one
+ * transaction of it, chosen by the {@link BufferPool.VictimPolicy}. Only
+ * the victim's request fails with a TransactionAbortedException; a wait
+ * that isn't part of a deadlock is never aborted, unless it exceeds the
+ * optional lock timeout. The check synchronizes on every stripe, in order, so it
+ * sees a consistent graph.
+ * <p>
+ * Instead of detecting deadlocks, the lock manager can prevent them by the
+ * age of the transactions, as given by {@link TransactionId#getId}; see
+ * {@link BufferPool.DeadlockPolicy}. Whenever the requests or holders of a
+ * resource change, each of its waiters is checked against the transactions it
+ * waits for. Under wait-die a waiter younger than any of them is aborted
+ * at once. Under wound-wait a waiter wounds each younger one: a wounded
+ * transaction that is waiting is aborted at once, and one that is running
+ * is aborted at its next lock request. Either way a transaction only ever
+ * waits for younger, or only for older, transactions, so no cycle can
+ * form, and no time is spent looking for one. The pool's own short latches,
+ * held as {@link #LATCH_OWNER}, are left out: their owner never waits, so
+ * waiting for it can't deadlock, and it is never aborted.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+    /**
+     * Owner of the locks the BufferPool takes with {@link #tryAcquireLock}
+     * for the length of a page write. It never waits for a lock, so it is in
+     * no deadlock, and deadlock prevention neither aborts its waiters nor
+     * wounds it.
+     */
+    static final TransactionId LATCH_OWNER = new TransactionId();
+
+    enum LockType {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** Returns true if two transactions may hold this and other at once. */
+        boolean compatibleWith(LockType other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** Returns true if holding this lock grants all that other does. */
+        boolean covers(LockType other) {
+            switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+            }
+        }
+
+        /** Returns the weakest mode that grants all that this and other do. */
+        LockType combine(LockType other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            // only S and IX are incomparable
+            return SIX;
+        }
+
+        /** Returns the lock to hold on the table or page of a resource locked in this mode. */
+        LockType intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+    }
+
+    /** The resource that locks a whole table. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId * 31 + 7;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** Default number of stripes of the lock table. */
+    static final int DEFAULT_STRIPES = 64;
+    /** Time a request waits before it looks for a deadlock, and between looks. */
+    static final long DEADLOCK_CHECK_MILLIS = 20;
+
+    /**
+     * A waiting lock request. Its state changes holding both its stripe and
+     * its own monitor, which its transaction waits on.
+     */
+    private static final class Request {
+        final TransactionId tid;
+        final LockType type;
+        final LockHead head;
+        boolean granted = false;
+        /** Set when the request's transaction is chosen as a deadlock victim, dies or is wounded */
+        boolean aborted = false;
+
+        Request(TransactionId tid, LockType type, LockHead head) {
+            this.tid = tid;
+            this.type = type;
+            this.head = head;
+        }
+
+        synchronized void grant() {
+            granted = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+    }
+
+    /** The lock state of a page; protected by its stripe. */
+    private static final class LockHead {
+        final Map<TransactionId, LockType> holders = new HashMap<>();
+        final ArrayDeque<Request> waiting = new ArrayDeque<>();
+
+        /**
+         * Returns true if tid could hold a lock of the specified type along
+         * with the current holders.
+         */
+        boolean compatible(TransactionId tid, LockType type) {
+            for (Map.Entry<TransactionId, LockType> e : holders.entrySet()) {
+                if (!e.getKey().equals(tid) && !type.compatibleWith(e.getValue()))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Grants the waiting requests at the front of the queue that are
+         * compatible, in order, and wakes their transactions.
+         */
+        void grantWaiters() {
+            Request r;
+            while ((r = waiting.peekFirst()) != null && compatible(r.tid, r.type)) {
+                waiting.pollFirst();
+                holders.put(r.tid, r.type);
+                r.grant();
+            }
+        }
+    }
+
+    private static final class Stripe {
+        final HashMap<Object, LockHead> heads = new HashMap<>();
+    }
+
+    private final Stripe[] stripes;
+    /** The resources each transaction holds a lock on. */
+    private final ConcurrentHashMap<TransactionId, Set<Object>> transactionTable;
+
+    private volatile BufferPool.VictimPolicy victimPolicy = BufferPool.VictimPolicy.YOUNGEST;
+    private volatile BufferPool.DeadlockPolicy deadlockPolicy = BufferPool.DeadlockPolicy.DETECT;
+    /** The request each waiting transaction waits on, for wound-wait */
+    private final ConcurrentHashMap<TransactionId, Request> waitingRequests = new ConcurrentHashMap<>();
+    /** Transactions wounded by an older one, until they release their locks */
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+    private final AtomicLong preventionAborts = new AtomicLong();
+    /** Start of the last deadlock check, by System.nanoTime; protected by itself */
+    private final AtomicLong lastCheck = new AtomicLong(System.nanoTime());
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong checkNanos = new AtomicLong();
+    private final AtomicLong maxCheckNanos = new AtomicLong();
+
+    public LockManager(int lockTabCap, int transTabCap) {
+        this(lockTabCap, transTabCap, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param lockTabCap the expected number of locked pages
+     * @param transTabCap the expected number of transactions
+     * @param stripes the number of stripes of the lock table, a power of two
+     */
+    public LockManager(int lockTabCap, int transTabCap, int stripes) {
+        if (stripes < 1 || Integer.bitCount(stripes) != 1)
+            throw new IllegalArgumentException("the number of stripes must be a power of two");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++)
+            this.stripes[i] = new Stripe();
+        this.transactionTable = new ConcurrentHashMap<>(transTabCap);
+    }
+
+    /** Returns the resource that locks the whole of the specified table. */
+    static Object tableKey(int tableId) {
+        return new TableKey(tableId);
+    }
+
+    private Stripe stripeOf(Object res) {
+        int h = res.hashCode() * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    public boolean holdsLock(TransactionId tid, Object res) {
+        Set<Object> locked = transactionTable.get(tid);
+        return locked != null && locked.contains(res);
+    }
+
+    /** Returns the mode in which tid holds a lock on the resource, or null. */
+    LockType getLock(TransactionId tid, Object res) {
+        if (!holdsLock(tid, res))
+            return null;
+        Stripe st = stripeOf(res);
+        synchronized (st) {
+            LockHead h = st.heads.get(res);
+            return h == null ? null : h.holders.get(tid);
+        }
+    }
+
+    /** Records a granted lock; called holding the stripe of the resource. */
+    private void updateTransactionTable(TransactionId tid, Object res) {
+        transactionTable.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(res);
+    }
+
+    /**
+     * Acquires a lock on the resource, waiting for conflicting holders and
+     * for the requests queued ahead. If tid already holds a lock on it that
+     * doesn't cover reqLock, the lock is upgraded to their combination.
+     *
+     * @param timeout the longest wait in milliseconds, or 0 to wait until the
+     *        lock is granted or the transaction is aborted to break or
+     *        prevent a deadlock
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *         the victim of a deadlock, died or was wounded, or the wait
+     *         timed out
+     */
+    public void acquireLock(TransactionId tid, Object res, LockType reqLock, int timeout)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid))
+            throw new TransactionAbortedException();
+        Stripe st = stripeOf(res);
+        Request req;
+        synchronized (st) {
+            LockHead h = st.heads.computeIfAbsent(res, p -> new LockHead());
+            LockType held = h.holders.get(tid);
+            if (held != null && held.covers(reqLock))
+                return;
+            if (held != null)
+                reqLock = held.combine(reqLock);
+            if (held != null ? h.compatible(tid, reqLock) : h.waiting.isEmpty() && h.compatible(tid, reqLock)) {
+                h.holders.put(tid, reqLock);
+                updateTransactionTable(tid, res);
+                // the waiters may now wait for an upgraded lock
+                preventDeadlocks(h);
+                return;
+            }
+            req = new Request(tid, reqLock, h);
+            // an upgrade goes ahead of the waiters, which wait for its shared lock anyway
+            if (held != null)
+                h.waiting.addFirst(req);
+            else
+                h.waiting.addLast(req);
+            // before the check, so that a wound finds it
+            waitingRequests.put(tid, req);
+            preventDeadlocks(h);
+        }
+        boolean granted = false;
+        try {
+            awaitGrant(req, timeout);
+        } finally {
+            // also reached if the thread is stopped while it waits
+            synchronized (st) {
+                waitingRequests.remove(tid, req);
+                granted = req.granted;
+                if (granted) {
+                    updateTransactionTable(tid, res);
+                } else {
+                    req.head.waiting.remove(req);
+                    // the requests behind it may be grantable now
+                    req.head.grantWaiters();
+                    removeIfUnused(st, res, req.head);
+                }
+            }
+        }
+        if (!granted)
+            throw new TransactionAbortedException();
+    }
+
+    /**
+     * Waits until the request is granted, aborted or timed out, looking for
+     * deadlocks every DEADLOCK_CHECK_MILLIS milliseconds unless they are
+     * prevented. Called holding no stripe.
+     */
+    private void awaitGrant(Request req, int timeout) {
+        long checkInterval = TimeUnit.MILLISECONDS.toNanos(DEADLOCK_CHECK_MILLIS);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                long wait = checkInterval;
+                if (timeout > 0) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        return;
+                    wait = Math.min(wait, left);
+                }
+                synchronized (req) {
+                    // a wound may have come before the request was waiting
+                    if (req.granted || req.aborted || wounded.contains(req.tid))
+                        return;
+                    long start = System.nanoTime();
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(req, wait);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    if (req.granted || req.aborted || System.nanoTime() - start < wait)
+                        continue;
+                }
+                if (deadlockPolicy != BufferPool.DeadlockPolicy.DETECT)
+                    continue;
+                // outside the request's monitor, since the check takes every stripe
+                detectDeadlocks();
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acquires the lock if it can be granted without waiting.
+     *
+     * @return true if the lock was acquired
+     */
+    public boolean tryAcquireLock(TransactionId tid, Object res, LockType reqLock) {
+        Stripe st = stripeOf(res);
+        synchronized (st) {
+            LockHead h = st.heads.get(res);
+            if (h == null) {
+                h = new LockHead();
+                st.heads.put(res, h);
+            } else {
+                LockType held = h.holders.get(tid);
+                if (held != null && held.covers(reqLock))
+                    return true;
+                if (held != null)
+                    reqLock = held.combine(reqLock);
+                if (!(held != null || h.waiting.isEmpty()) || !h.compatible(tid, reqLock))
+                    return false;
+            }
+            h.holders.put(tid, reqLock);
+            updateTransactionTable(tid, res);
+            preventDeadlocks(h);
+            return true;
+        }
+    }
+
+    /** Return true if some transaction holds an exclusive lock on the page */
+    public boolean isExclusivelyLocked(PageId pid) {
+        Stripe st = stripeOf(pid);
+        synchronized (st) {
+            LockHead h = st.heads.get(pid);
+            return h != null && h.holders.containsValue(LockType.X);
+        }
+    }
+
+    public void releaseLock(TransactionId tid, Object res) {
+        transactionTable.computeIfPresent(tid, (t, locked) -> {
+            locked.remove(res);
+            return locked.isEmpty() ? null : locked;
+        });
+        if (!transactionTable.containsKey(tid))
+            wounded.remove(tid);
+        unlock(tid, res);
+    }
+
+    /** Drops tid's lock on the resource and grants the waiters it held up. */
+    private void unlock(TransactionId tid, Object res) {
+        Stripe st = stripeOf(res);
+        synchronized (st) {
+            LockHead h = st.heads.get(res);
+            if (h == null || h.holders.remove(tid) == null)
+                return;
+            h.grantWaiters();
+            removeIfUnused(st, res, h);
+        }
+    }
+
+    /** Drops the head of a resource nobody holds or waits for. */
+    private static void removeIfUnused(Stripe st, Object res, LockHead h) {
+        if (h.holders.isEmpty() && h.waiting.isEmpty())
+            st.heads.remove(res);
+    }
+
+    public void releaseLocksOnTransaction(TransactionId tid) {
+        Set<Object> locked = transactionTable.remove(tid);
+        wounded.remove(tid);
+        if (locked != null) {
+            for (Object res : locked)
+                unlock(tid, res);
+        }
+    }
+
+    /** Returns the pages tid holds a lock on, or null if it holds no lock. */
+    public ArrayList<PageId> getLockList(TransactionId tid) {
+        Set<Object> locked = transactionTable.get(tid);
+        if (locked == null)
+            return null;
+        ArrayList<PageId> pages = new ArrayList<>();
+        for (Object res : locked) {
+            if (res instanceof PageId)
+                pages.add((PageId) res);
+        }
+        return pages;
+    }
+
+    /**
+     * Looks for cycles in the waits-for graph and aborts a victim of each,
+     * unless a check started less than DEADLOCK_CHECK_MILLIS ago. Called
+     * holding no stripe.
+     */
+    private void detectDeadlocks() {
+        long start = System.nanoTime();
+        long last = lastCheck.get();
+        if (start - last < TimeUnit.MILLISECONDS.toNanos(DEADLOCK_CHECK_MILLIS)
+                || !lastCheck.compareAndSet(last, start))
+            return;
+        detectDeadlocks(0);
+        long took = System.nanoTime() - start;
+        checks.incrementAndGet();
+        checkNanos.addAndGet(took);
+        maxCheckNanos.accumulateAndGet(took, Math::max);
+    }
+
+    /**
+     * Synchronizes on the stripes from the i-th on, in order, and then
+     * checks the graph.
+     */
+    private void detectDeadlocks(int i) {
+        if (i < stripes.length) {
+            synchronized (stripes[i]) {
+                detectDeadlocks(i + 1);
+            }
+            return;
+        }
+        Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+        Map<TransactionId, List<Request>> requests = new HashMap<>();
+        for (Stripe st : stripes) {
+            for (LockHead h : st.heads.values()) {
+                List<Request> ahead = new ArrayList<>();
+                for (Request r : h.waiting) {
+                    requests.computeIfAbsent(r.tid, t -> new ArrayList<>()).add(r);
+                    addBlockers(h, r, ahead, waitsFor.computeIfAbsent(r.tid, t -> new HashSet<>()));
+                    ahead.add(r);
+                }
+            }
+        }
+        List<TransactionId> cycle;
+        while ((cycle = findCycle(waitsFor)) != null) {
+            TransactionId victim = chooseVictim(cycle);
+            for (Request r : requests.get(victim)) {
+                r.head.waiting.remove(r);
+                r.abort();
+                r.head.grantWaiters();
+            }
+            // a transaction that waits for nothing is in no cycle
+            waitsFor.remove(victim);
+            deadlocks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds the transactions a waiting request waits for to out: the
+     * conflicting holders of its page and the requests queued ahead of it.
+     */
+    private static void addBlockers(LockHead h, Request r, List<Request> ahead, Set<TransactionId> out) {
+        for (Map.Entry<TransactionId, LockType> e : h.holders.entrySet()) {
+            if (!e.getKey().equals(r.tid) && !r.type.compatibleWith(e.getValue()))
+                out.add(e.getKey());
+        }
+        for (Request q : ahead) {
+            if (!q.tid.equals(r.tid))
+                out.add(q.tid);
+        }
+    }
+
+    /**
+     * Applies wait-die or wound-wait to the waiters of a page whose requests
+     * or holders just changed. Called holding the page's stripe.
+     */
+    private void preventDeadlocks(LockHead h) {
+        BufferPool.DeadlockPolicy policy = deadlockPolicy;
+        if (policy == BufferPool.DeadlockPolicy.DETECT || h.waiting.isEmpty())
+            return;
+        List<Request> ahead = new ArrayList<>();
+        Set<TransactionId> blockers = new HashSet<>();
+        boolean died = false;
+        for (Iterator<Request> it = h.waiting.iterator(); it.hasNext(); ) {
+            Request r = it.next();
+            blockers.clear();
+            addBlockers(h, r, ahead, blockers);
+            boolean dies = false;
+            for (TransactionId b : blockers) {
+                // the latch is released as soon as its write is done
+                if (b == LATCH_OWNER)
+                    continue;
+                if (b.getId() < r.tid.getId())
+                    dies |= policy == BufferPool.DeadlockPolicy.WAIT_DIE;
+                else if (policy == BufferPool.DeadlockPolicy.WOUND_WAIT)
+                    wound(b);
+            }
+            if (dies) {
+                it.remove();
+                r.abort();
+                preventionAborts.incrementAndGet();
+                died = true;
+            } else {
+                ahead.add(r);
+            }
+        }
+        // the requests behind the ones that died may be grantable now
+        if (died)
+            h.grantWaiters();
+    }
+
+    /**
+     * Wounds a transaction: aborts the request it waits on, if any, and its
+     * next lock request. The waiter removes its own request, since only the
+     * stripe of the wounding request is held here.
+     */
+    private void wound(TransactionId t) {
+        if (wounded.add(t))
+            preventionAborts.incrementAndGet();
+        Request r = waitingRequests.get(t);
+        if (r != null)
+            r.abort();
+    }
+
+    /**
+     * Returns the transactions of a cycle of the waits-for graph, or null if
+     * it has none.
+     */
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor) {
+        Set<TransactionId> done = new HashSet<>();
+        List<TransactionId> path = new ArrayList<>();
+        for (TransactionId t : waitsFor.keySet()) {
+            List<TransactionId> cycle = findCycle(waitsFor, t, done, path);
+            if (cycle != null)
+                return cycle;
+        }
+        return null;
+    }
+
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor,
+            TransactionId t, Set<TransactionId> done, List<TransactionId> path) {
+        int i = path.indexOf(t);
+        if (i >= 0)
+            return new ArrayList<>(path.subList(i, path.size()));
+        if (done.contains(t))
+            return null;
+        path.add(t);
+        for (TransactionId u : waitsFor.getOrDefault(t, Collections.emptySet())) {
+            List<TransactionId> cycle = findCycle(waitsFor, u, done, path);
+            if (cycle != null)
+                return cycle;
+        }
+        path.remove(path.size() - 1);
+        done.add(t);
+        return null;
+    }
+
+    /**
+     * Chooses the transaction of a deadlock to abort: the youngest, or the
+     * one holding the fewest locks, youngest first among equals.
+     */
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimLocks = 0;
+        for (TransactionId t : cycle) {
+            Set<Object> locked = transactionTable.get(t);
+            int locks = locked == null ? 0 : locked.size();
+            boolean younger = victim == null || t.getId() > victim.getId();
+            if (victim == null
+                    || (victimPolicy == BufferPool.VictimPolicy.FEWEST_LOCKS
+                        ? locks < victimLocks || (locks == victimLocks && younger) : younger)) {
+                victim = t;
+                victimLocks = locks;
+            }
+        }
+        return victim;
+    }
+
+    void setVictimPolicy(BufferPool.VictimPolicy policy) {
+        this.victimPolicy = policy;
+    }
+
+    BufferPool.VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    void setDeadlockPolicy(BufferPool.DeadlockPolicy policy) {
+        this.deadlockPolicy = policy;
+    }
+
+    BufferPool.DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /** Returns the number of transactions that died or were wounded. */
+    long getPreventionAbortCount() {
+        return preventionAborts.get();
+    }
+
+    /** Returns the number of deadlock checks run. */
+    long getDeadlockCheckCount() {
+        return checks.get();
+    }
+
+    /** Returns the number of deadlocks found, one per victim. */
+    long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** Returns the total time spent checking for deadlocks, in nanoseconds. */
+    long getDeadlockCheckNanos() {
+        return checkNanos.get();
+    }
+
+    /** Returns the time the longest deadlock check took, in nanoseconds. */
+    long getMaxDeadlockCheckNanos() {
+        return maxCheckNanos.get();
+    }
+}
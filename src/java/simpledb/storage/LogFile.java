@@ -6,7 +6,9 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.lang.reflect.*;
 
 /*
@@ -29,13 +31,22 @@ must not be declared synchronized and must begin with a block like:
 <p>
 <pre>
     synchronized (Database.getBufferPool()) {
-       synchronized (this) {
+       Lock commitLock = Database.getBufferPool().exclusiveCommitLock();
+       commitLock.lock();
+       try {
+          synchronized (this) {
 
-       ..
+          ..
 
+          }
+       } finally {
+          commitLock.unlock();
        }
     }
 </pre>
+
+Commits don't take the BufferPool's monitor: they hold the shared side
+of its commit lock, so taking the exclusive side keeps them out too.
 */
 
 /**
@@ -95,6 +106,9 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // reused by writePageData so logging a page doesn't allocate //protected by this
+    private ByteBuffer pageBuf = null;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -140,6 +154,11 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Returns the size of the log in bytes. */
+    public synchronized long getLogSize() {
+        return currentOffset;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -150,26 +169,53 @@ public class LogFile {
         // calls rollback
 
         synchronized (Database.getBufferPool()) {
+            Lock commitLock = Database.getBufferPool().exclusiveCommitLock();
+            commitLock.lock();
+            try {
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                synchronized(this) {
+                    preAppend();
+                    //Debug.log("ABORT");
+                    //should we verify that this is a live transaction?
+
+                    // must do this here, since rollback only works for
+                    // live transactions (needs tidToFirstLogRecord)
+                    rollback(tid);
+
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid.getId());
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                    force();
+                    tidToFirstLogRecord.remove(tid.getId());
+                }
+            } finally {
+                commitLock.unlock();
             }
         }
     }
 
+    /** Write an abort record to the log for the specified tid and force
+        the log to disk, without rolling the transaction back: the caller
+        has already undone its changes, as the buffer pool does when a
+        commit fails. Recovery still rolls it back from the log. Does
+        nothing for a transaction whose beginning wasn't logged.
+
+        @param tid The aborted transaction.
+    */
+    public synchronized void logAbortWithoutRollback(TransactionId tid) throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            return;
+        preAppend();
+
+        raf.writeInt(ABORT_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+        tidToFirstLogRecord.remove(tid.getId());
+    }
+
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
 
@@ -242,9 +288,14 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        // big enough for the pages of any file
+        int capacity = Math.max(HeapFile.MAX_PAGE_SIZE, BufferPool.getPageSize());
+        if (pageBuf == null || pageBuf.capacity() != capacity)
+            pageBuf = ByteBuffer.allocate(capacity);
+        pageBuf.clear();
+        p.writePageData(pageBuf);
+        raf.writeInt(pageBuf.position());
+        raf.write(pageBuf.array(), 0, pageBuf.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -311,39 +362,62 @@ public class LogFile {
 
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
+        checkpoint(true);
+    }
+
+    /** Checkpoint the log without writing out the pages of running
+        transactions: only the committed pages the buffer pool has yet to
+        write back are written, as their last committed versions. Taken
+        periodically by the background writer, so that the log doesn't grow
+        without bound while commits leave their pages to it.
+    */
+    public void logCommittedCheckpoint() throws IOException {
+        checkpoint(false);
+    }
+
+    private void checkpoint(boolean flushAll) throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+            Lock commitLock = Database.getBufferPool().exclusiveCommitLock();
+            commitLock.lock();
+            try {
+                synchronized (this) {
+                    //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                    preAppend();
+                    long startCpOffset, endCpOffset;
+                    Set<Long> keys = tidToFirstLogRecord.keySet();
+                    Iterator<Long> els = keys.iterator();
+                    force();
+                    if (flushAll)
+                        Database.getBufferPool().flushAllPages();
+                    else
+                        Database.getBufferPool().flushPendingPages();
+                    startCpOffset = raf.getFilePointer();
+                    raf.writeInt(CHECKPOINT_RECORD);
+                    raf.writeLong(-1); //no tid , but leave space for convenience
+
+                    //write list of outstanding transactions
+                    raf.writeInt(keys.size());
+                    while (els.hasNext()) {
+                        Long key = els.next();
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                        raf.writeLong(key);
+                        //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                        raf.writeLong(tidToFirstLogRecord.get(key));
+                    }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                    //once the CP is written, make sure the CP location at the
+                    // beginning of the log file is updated
+                    endCpOffset = raf.getFilePointer();
+                    raf.seek(0);
+                    raf.writeLong(startCpOffset);
+                    raf.seek(endCpOffset);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                    //Debug.log("CP OFFSET = " + currentOffset);
+                }
+            } finally {
+                commitLock.unlock();
             }
         }
 
@@ -457,10 +531,16 @@ public class LogFile {
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
-                rollbackInternal(tid.getId());
+            Lock commitLock = Database.getBufferPool().exclusiveCommitLock();
+            commitLock.lock();
+            try {
+                synchronized(this) {
+                    preAppend();
+                    // some code goes here
+                    rollbackInternal(tid.getId());
+                }
+            } finally {
+                commitLock.unlock();
             }
         }
     }
@@ -530,149 +610,163 @@ public class LogFile {
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
-                currentOffset = raf.length();
-                if (currentOffset - LONG_SIZE > 0) {
-                    // raf.seek(raf.getFilePointer() - LONG_SIZE);
-                    // long iter = raf.readLong();
-                    // start of the log file;
-                    raf.seek(currentOffset - LONG_SIZE);
-                    long iter = raf.readLong();
-
-                    raf.seek(0);
-                    long lastCheckPoint = raf.readLong();
-                    if (lastCheckPoint == -1L) {
-                        // No checkpoint
-                        lastCheckPoint = LONG_SIZE;
+            Lock commitLock = Database.getBufferPool().exclusiveCommitLock();
+            commitLock.lock();
+            try {
+                synchronized (this) {
+                    recoveryUndecided = false;
+                    // some code goes here
+                    // the heap files' page counts and saved free space maps may
+                    // be out of date once the pages are redone and undone
+                    Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+                    while (tableIds.hasNext()) {
+                        DbFile file = Database.getCatalog().getDatabaseFile(tableIds.next());
+                        if (file instanceof HeapFile)
+                            ((HeapFile) file).recovering();
                     }
+                    currentOffset = raf.length();
+                    if (currentOffset - LONG_SIZE > 0) {
+                        // raf.seek(raf.getFilePointer() - LONG_SIZE);
+                        // long iter = raf.readLong();
+                        // start of the log file;
+                        raf.seek(currentOffset - LONG_SIZE);
+                        long iter = raf.readLong();
+
+                        raf.seek(0);
+                        long lastCheckPoint = raf.readLong();
+                        if (lastCheckPoint == -1L) {
+                            // No checkpoint
+                            lastCheckPoint = LONG_SIZE;
+                        }
 
-                    Set<Long> transactions = new HashSet<>();
-                    Set<Long> commits = new HashSet<>();
-                    // find check point
-                    // analyse stage
-
-                    // backward start from last record
-                    while (iter >= lastCheckPoint) {
-                        raf.seek(iter);
-                        int type = raf.readInt();
-                        long record_tid;
-                        switch (type) {
-                            case UPDATE_RECORD:
-                                break;
-                            case ABORT_RECORD:
-                                break;
-                            case COMMIT_RECORD:
-                                record_tid = raf.readLong();
-                                commits.add(record_tid);
-                                break;
-                            case BEGIN_RECORD:
-                                record_tid = raf.readLong();
-                                transactions.add(record_tid);
-                                break;
-                            case CHECKPOINT_RECORD:
-                                // checkPoint = iter;
-                                assert lastCheckPoint == iter;
-                                // format
-                                raf.seek(raf.getFilePointer() + LONG_SIZE);
-
-                                int numActiveTransactions = raf.readInt();
-                                for (int i = 0; i < numActiveTransactions; ++i) {
-                                    // add active transactions
+                        Set<Long> transactions = new HashSet<>();
+                        Set<Long> commits = new HashSet<>();
+                        // find check point
+                        // analyse stage
+
+                        // backward start from last record
+                        while (iter >= lastCheckPoint) {
+                            raf.seek(iter);
+                            int type = raf.readInt();
+                            long record_tid;
+                            switch (type) {
+                                case UPDATE_RECORD:
+                                    break;
+                                case ABORT_RECORD:
+                                    break;
+                                case COMMIT_RECORD:
+                                    record_tid = raf.readLong();
+                                    commits.add(record_tid);
+                                    break;
+                                case BEGIN_RECORD:
                                     record_tid = raf.readLong();
-                                    long first_pos = raf.readLong();
                                     transactions.add(record_tid);
-                                    tidToFirstLogRecord.put(record_tid, first_pos);
-                                }
-                                break;
-                            default:
-                                System.out.print(iter);
-                                System.out.println("myType: " + type);
-                                throw new IOException("analysis");
-                        }
-                        // assume log are correct
-                        if (iter > LONG_SIZE) {
-                            raf.seek(iter - LONG_SIZE);
-                            iter = raf.readLong();
-                        } else {
-                            iter = -1;
+                                    break;
+                                case CHECKPOINT_RECORD:
+                                    // checkPoint = iter;
+                                    assert lastCheckPoint == iter;
+                                    // format
+                                    raf.seek(raf.getFilePointer() + LONG_SIZE);
+
+                                    int numActiveTransactions = raf.readInt();
+                                    for (int i = 0; i < numActiveTransactions; ++i) {
+                                        // add active transactions
+                                        record_tid = raf.readLong();
+                                        long first_pos = raf.readLong();
+                                        transactions.add(record_tid);
+                                        tidToFirstLogRecord.put(record_tid, first_pos);
+                                    }
+                                    break;
+                                default:
+                                    System.out.print(iter);
+                                    System.out.println("myType: " + type);
+                                    throw new IOException("analysis");
+                            }
+                            // assume log are correct
+                            if (iter > LONG_SIZE) {
+                                raf.seek(iter - LONG_SIZE);
+                                iter = raf.readLong();
+                            } else {
+                                iter = -1;
+                            }
                         }
-                    }
 
-                    // redo
-                    // forward direction start from last checkpoint
-                    iter = lastCheckPoint;
-                    while (iter < currentOffset) {
-                        // System.out.println(iter);
-                        raf.seek(iter);
-                        int type = raf.readInt();
-                        long record_tid;
-                        switch (type) {
-                            case UPDATE_RECORD:
-                                // redo
-                                // raf.readInt();
-                                raf.seek(raf.getFilePointer() + LONG_SIZE);
-                                Page before = this.readPageData(raf);
-                                Page after = this.readPageData(raf);
-                                Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
-                                Database.getBufferPool().discardPage(after.getId());
-
-                                iter = raf.getFilePointer();
-                                break;
-                            case ABORT_RECORD:
-                                // redo
-                                record_tid = raf.readLong();
-                                if (tidToFirstLogRecord.get(record_tid) == null) {
-                                    throw new IOException("ABORT: transaction " + record_tid + "is not live");
-                                }
-
-                                // #####################
-                                iter = raf.getFilePointer();
-                                // must before roollbackInternal
-
-                                rollbackInternal(record_tid);
-                                transactions.remove(record_tid);
-                                break;
-                            case COMMIT_RECORD:
-                                // nothing;
-                                record_tid = raf.readLong();
-                                // raf.seek(raf.getFilePointer() + LONG_SIZE);
-                                tidToFirstLogRecord.remove(record_tid);
-                                iter = raf.getFilePointer();
-                                break;
-                            case BEGIN_RECORD:
-                                // nothing;
-                                record_tid = raf.readLong();
-                                tidToFirstLogRecord.put(record_tid, iter);
-                                iter = raf.getFilePointer();
-                                // raf.seek(raf.getFilePointer() + INT_SIZE);
-                                break;
-                            case CHECKPOINT_RECORD:
-                                // do nothing
-                                assert lastCheckPoint == iter;
-                                // format
-                                raf.seek(raf.getFilePointer() + LONG_SIZE);
-
-                                int numActiveTransactions = raf.readInt();
-                                iter = raf.getFilePointer() + numActiveTransactions * LONG_SIZE * 2;
-                                break;
-                            default:
-                                System.out.println("type: " + type);
-                                throw new IOException("analysis");
+                        // redo
+                        // forward direction start from last checkpoint
+                        iter = lastCheckPoint;
+                        while (iter < currentOffset) {
+                            // System.out.println(iter);
+                            raf.seek(iter);
+                            int type = raf.readInt();
+                            long record_tid;
+                            switch (type) {
+                                case UPDATE_RECORD:
+                                    // redo
+                                    // raf.readInt();
+                                    raf.seek(raf.getFilePointer() + LONG_SIZE);
+                                    Page before = this.readPageData(raf);
+                                    Page after = this.readPageData(raf);
+                                    Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
+                                    Database.getBufferPool().discardPage(after.getId());
+
+                                    iter = raf.getFilePointer();
+                                    break;
+                                case ABORT_RECORD:
+                                    // redo
+                                    record_tid = raf.readLong();
+                                    if (tidToFirstLogRecord.get(record_tid) == null) {
+                                        throw new IOException("ABORT: transaction " + record_tid + "is not live");
+                                    }
+
+                                    // #####################
+                                    iter = raf.getFilePointer();
+                                    // must before roollbackInternal
+
+                                    rollbackInternal(record_tid);
+                                    transactions.remove(record_tid);
+                                    break;
+                                case COMMIT_RECORD:
+                                    // nothing;
+                                    record_tid = raf.readLong();
+                                    // raf.seek(raf.getFilePointer() + LONG_SIZE);
+                                    tidToFirstLogRecord.remove(record_tid);
+                                    iter = raf.getFilePointer();
+                                    break;
+                                case BEGIN_RECORD:
+                                    // nothing;
+                                    record_tid = raf.readLong();
+                                    tidToFirstLogRecord.put(record_tid, iter);
+                                    iter = raf.getFilePointer();
+                                    // raf.seek(raf.getFilePointer() + INT_SIZE);
+                                    break;
+                                case CHECKPOINT_RECORD:
+                                    // do nothing
+                                    assert lastCheckPoint == iter;
+                                    // format
+                                    raf.seek(raf.getFilePointer() + LONG_SIZE);
+
+                                    int numActiveTransactions = raf.readInt();
+                                    iter = raf.getFilePointer() + numActiveTransactions * LONG_SIZE * 2;
+                                    break;
+                                default:
+                                    System.out.println("type: " + type);
+                                    throw new IOException("analysis");
+                            }
+                            // skip the offset  to next log record ()
+                            iter += LONG_SIZE;
                         }
-                        // skip the offset  to next log record ()
-                        iter += LONG_SIZE;
-                    }
 
-                    // undo
-                    for (Long tid : transactions) {
-                        if (!commits.contains(tid)) {
-                            assert tidToFirstLogRecord.containsKey(tid);
-                            rollbackInternal(tid);
+                        // undo
+                        for (Long tid : transactions) {
+                            if (!commits.contains(tid)) {
+                                assert tidToFirstLogRecord.containsKey(tid);
+                                rollbackInternal(tid);
+                            }
                         }
                     }
                 }
+            } finally {
+                commitLock.unlock();
             }
          }
     }
@@ -0,0 +1,130 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LruKReplacer implements LRU-K (O'Neil, O'Neil and Weikum, 1993): it evicts
+ * the page whose K-th most recent access is furthest in the past. Pages that
+ * have been accessed fewer than K times are evicted first, least recently
+ * used first, so a page touched once by a scan is evicted before a page that
+ * point lookups keep coming back to.
+ * <p>
+ * The access history of evicted pages is retained, for up to capacity pages,
+ * so that a page that is read again soon after being evicted keeps its
+ * history. Accesses and evictions are O(log n).
+ *
+ * @Threadsafe
+ */
+public class LruKReplacer implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        final long[] history; // access times, most recent first; 0 if none
+
+        Entry(PageId pid, long[] history) {
+            this.pid = pid;
+            this.history = history;
+        }
+    }
+
+    private final int k;
+    // all protected by this
+    private long now = 0;
+    private final Map<PageId, Entry> resident = new HashMap<>();
+    private final TreeSet<Entry> order;
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k the number of accesses remembered per page, at least 1
+     * @param capacity the number of evicted pages whose history is retained
+     */
+    public LruKReplacer(int k, int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        // oldest K-th access first, pages with fewer than K accesses (0) before all others
+        this.order = new TreeSet<>((a, b) -> {
+            int c = Long.compare(a.history[k - 1], b.history[k - 1]);
+            return c != 0 ? c : Long.compare(a.history[0], b.history[0]);
+        });
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private void touch(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++now;
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null)
+            return;
+        order.remove(e);
+        touch(e.history);
+        order.add(e);
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        if (resident.containsKey(pid))
+            return;
+        long[] history = retained.remove(pid);
+        if (history == null)
+            history = new long[k];
+        touch(history);
+        Entry e = new Entry(pid, history);
+        resident.put(pid, e);
+        order.add(e);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        Entry e = resident.remove(pid);
+        if (e != null)
+            order.remove(e);
+        retained.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        for (Entry e : order) {
+            if (evictable.test(e.pid)) {
+                order.remove(e);
+                resident.remove(e.pid);
+                retained.put(e.pid, e.history);
+                return e.pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return resident.size();
+    }
+
+    @Override
+    public synchronized List<PageId> pages() {
+        List<PageId> pages = new ArrayList<>(order.size());
+        for (Iterator<Entry> it = order.descendingIterator(); it.hasNext(); )
+            pages.add(it.next().pid);
+        return pages;
+    }
+}
@@ -0,0 +1,386 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * OffHeapHeapPage is a fixed-format HeapFile page, in exactly the format of a
+ * {@link HeapPage}, that keeps nothing but its raw image, in a frame of the
+ * BufferPool's {@link FrameArena}. No Tuple or Field objects are kept: the
+ * tuples the iterator returns are {@link LazyTuple} views that read the
+ * frame directly, and inserted tuples are serialized straight into it.
+ * HeapFiles read their fixed-format pages this way while the BufferPool has
+ * an arena; without one the frame is allocated on the heap.
+ * <p>
+ * A view reads the current bytes of its slot, so it is only meaningful
+ * while the reading transaction holds its lock on the page; a tuple passed
+ * to deleteTuple is decoded first, so that it stays valid. Views are read
+ * only: since the page keeps no tuples, a change made through
+ * Tuple.setField could never reach the image, so setField throws.
+ * <p>
+ * The before-image is copied to the heap only when the page is first
+ * changed after setBeforeImage, so clean pages cost no heap memory for it.
+ * <p>
+ * When the page leaves the BufferPool, {@link #release} moves its image to
+ * the heap and frees the frame, so that views still in use read the copy
+ * and the arena gets its frame back at once.
+ *
+ * @see BufferPool#setOffHeapFrames
+ */
+public class OffHeapHeapPage implements HeapFilePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    /** Offset of each field from the start of a tuple */
+    final int[] fieldOffsets;
+    /** The arena the page's frame came from, or null if it is on the heap */
+    private final FrameArena arena;
+    private final FrameArena.Frame arenaFrame;
+    /** The page image: the frame, or its copy on the heap once released */
+    private volatile ByteBuffer frame;
+    /**
+     * Guards the move of the image to the heap, which holds the write lock.
+     * Changes to the image hold the read lock; reads are optimistic, and are
+     * retried holding the read lock if the image moved meanwhile.
+     */
+    private final StampedLock frameLock = new StampedLock();
+
+    /** The before-image if the page changed since setBeforeImage, else null */
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    volatile TransactionId dirtyby = null;
+
+    /**
+     * Create an OffHeapHeapPage from a set of bytes of data read from disk,
+     * in the format described in {@link HeapPage#HeapPage(HeapPageId, byte[])}.
+     * The bytes are copied into a frame of the BufferPool's arena, if its
+     * frames are the size of the page.
+     *
+     * @param id the id of this page
+     * @param data the page image
+     */
+    public OffHeapHeapPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = data.length;
+        this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+
+        FrameArena arena = Database.getBufferPool().getFrameArena();
+        if (arena != null && arena.getFrameSize() == pageSize) {
+            this.arena = arena;
+            this.arenaFrame = arena.allocateFrame();
+            this.frame = arenaFrame.buffer;
+        } else {
+            this.arena = null;
+            this.arenaFrame = null;
+            this.frame = ByteBuffer.allocate(pageSize);
+        }
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        dst.put(data);
+        // empty slots and the padding are zeroes, as HeapPage writes them
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                clear(tupleOffset(i), tupleOffset(i) + td.getSize());
+        }
+        clear(tupleOffset(numSlots), pageSize);
+    }
+
+    private void clear(int from, int to) {
+        for (int i = from; i < to; i++)
+            frame.put(i, (byte) 0);
+    }
+
+    private int tupleOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
+    /** Reads byte i of the image. */
+    private byte byteAt(int i) {
+        long stamp = frameLock.tryOptimisticRead();
+        byte b = frame.get(i);
+        if (frameLock.validate(stamp))
+            return b;
+        stamp = frameLock.readLock();
+        try {
+            return frame.get(i);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /** Reads the int at offset off of the image. */
+    int intAt(int off) {
+        long stamp = frameLock.tryOptimisticRead();
+        int v = frame.getInt(off);
+        if (frameLock.validate(stamp))
+            return v;
+        stamp = frameLock.readLock();
+        try {
+            return frame.getInt(off);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /** Decodes a field of the specified type at offset off of the image. */
+    Field fieldAt(Type type, int off) {
+        if (type == Type.INT_TYPE)
+            return new IntField(intAt(off));
+        // a string's length read from a reused frame could be anything
+        long stamp = frameLock.readLock();
+        try {
+            return type.parse(frame, off);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Moves the image to the heap and frees the page's frame; called by the
+     * BufferPool when the page leaves it. Does nothing if the image is on
+     * the heap already.
+     */
+    void release() {
+        if (arenaFrame == null || !arenaFrame.buffer.isDirect())
+            return;
+        long stamp = frameLock.writeLock();
+        try {
+            if (frame != arenaFrame.buffer)
+                return;
+            frame = ByteBuffer.wrap(copyImage());
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+        arena.free(arenaFrame);
+    }
+
+    /**
+     * Returns a copy of the page image. Called holding a lock on the frame,
+     * or before the page is shared.
+     */
+    private byte[] copyImage() {
+        byte[] data = new byte[frame.capacity()];
+        ByteBuffer src = frame.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    /**
+     * Saves the before-image, if this is the first change since
+     * setBeforeImage. Called before every change to the frame.
+     */
+    private void beforeChange() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = copyImage();
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the page as it was at the last setBeforeImage, as a lazy
+     * HeapPage on the heap.
+     */
+    public HeapPage getBeforeImage() {
+        byte[] data;
+        long stamp = frameLock.readLock();
+        try {
+            synchronized (oldDataLock) {
+                data = oldData != null ? oldData.clone() : copyImage();
+            }
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+        try {
+            return new HeapPage(pid, data, true);
+        } catch (java.io.IOException e) {
+            // parsing a page image from memory can't fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    public byte[] getPageData() {
+        long stamp = frameLock.readLock();
+        try {
+            return copyImage();
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        long stamp = frameLock.readLock();
+        try {
+            ByteBuffer src = frame.duplicate();
+            src.clear();
+            buf.put(src);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyby = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyby;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && ((byteAt(i / 8) >> (i % 8)) & 1) == 1;
+    }
+
+    /** Called holding the read lock on the frame. */
+    private void markSlotUsed(int i, boolean value) {
+        byte b = frame.get(i / 8);
+        frame.put(i / 8, (byte) (value ? b | 1 << (i % 8) : b & ~(1 << (i % 8))));
+    }
+
+    public int getNumEmptySlots() {
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                n++;
+        }
+        return n;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return td.equals(t.getTupleDesc()) && getNumEmptySlots() > 0;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("insertTuple: no empty slots or tupledesc is mismatch");
+        long stamp = frameLock.readLock();
+        try {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i)) {
+                    beforeChange();
+                    ByteBuffer dst = frame.duplicate();
+                    dst.clear();
+                    dst.position(tupleOffset(i));
+                    for (int j = 0; j < td.numFields(); j++)
+                        t.getField(j).serialize(dst);
+                    markSlotUsed(i, true);
+                    t.setRecordId(new RecordId(pid, i));
+                    return;
+                }
+            }
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+        throw new DbException("insertTuple: ERROR: no tuple is inserted");
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("deleteTuple: Error: tuple is not on this page");
+        int i = rid.getTupleNumber();
+        if (!isSlotUsed(i))
+            throw new DbException("deleteTuple: Error: tuple slot is empty");
+        if (t instanceof LazyTuple)
+            ((LazyTuple) t).detach();
+        long stamp = frameLock.readLock();
+        try {
+            beforeChange();
+            markSlotUsed(i, false);
+            clear(tupleOffset(i), tupleOffset(i) + td.getSize());
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    public Tuple getTuple(int slot) {
+        return slot >= 0 && isSlotUsed(slot) ? tupleAt(slot) : null;
+    }
+
+    /** Returns a lazy tuple over used slot i of the frame. */
+    private Tuple tupleAt(int i) {
+        Tuple t = new FrameTuple(this, tupleOffset(i));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * A LazyTuple that reads the page's current image, so that it keeps
+     * working once the page has released its frame.
+     */
+    private static final class FrameTuple extends LazyTuple {
+        private static final long serialVersionUID = 1L;
+
+        private final transient OffHeapHeapPage page;
+
+        FrameTuple(OffHeapHeapPage page, int offset) {
+            super(page.td, null, offset, page.fieldOffsets);
+            this.page = page;
+        }
+
+        @Override
+        Field parse(int i) {
+            return page.fieldAt(pageTd.getFieldType(i), offset + fieldOffsets[i]);
+        }
+
+        @Override
+        int readInt(int i) {
+            return page.intAt(offset + fieldOffsets[i]);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always; delete the tuple
+         *         and insert a changed copy instead
+         */
+        @Override
+        public void setField(int i, Field f) {
+            throw new UnsupportedOperationException("tuples of an off-heap page are read only");
+        }
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int nextSlot = 0;
+
+            public boolean hasNext() {
+                while (nextSlot < numSlots && !isSlotUsed(nextSlot))
+                    nextSlot++;
+                return nextSlot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return tupleAt(nextSlot++);
+            }
+        };
+    }
+}
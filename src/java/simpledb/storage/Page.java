@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,18 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Writes the bytes returned by {@link #getPageData} into buf, starting at
+   * its current position. Pages that keep their serialized image in memory
+   * should override this to avoid allocating a new array.
+   *
+   * @param buf the buffer to write to; must have at least page size bytes
+   *            remaining
+   */
+  default void writePageData(ByteBuffer buf) {
+      buf.put(getPageData());
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
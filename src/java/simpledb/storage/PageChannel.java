@@ -0,0 +1,233 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * PageChannel is the page I/O layer shared by the DbFile implementations.
+ * It keeps a single FileChannel open for the lifetime of the owning DbFile
+ * and performs all reads and writes with positional I/O, so no per-page
+ * open/seek/close is needed and concurrent readers do not share a file
+ * position.
+ * <p>
+ * Writes are not synchronous: a page written with {@link #write} is only
+ * guaranteed to be on stable storage after a subsequent call to
+ * {@link #force}.
+ * <p>
+ * A PageChannel can optionally serve reads from a memory mapping of the
+ * file (see {@link #setMapped}). The file is mapped in regions of at most
+ * {@link #MAP_REGION_SIZE} bytes, since a single MappedByteBuffer cannot
+ * exceed 2GB, and the mapping is extended when a read goes past its end.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    /** Size in bytes of each memory-mapped region of the file. */
+    public static final long MAP_REGION_SIZE = 1L << 30;
+
+    private final File f;
+    private volatile FileChannel channel;
+
+    private volatile boolean mapped = false;
+    private volatile Mapping mapping = Mapping.EMPTY;
+
+    /**
+     * An immutable snapshot of the mapped regions of the file, so that readers
+     * never need to lock to use it.
+     */
+    private static class Mapping {
+        static final Mapping EMPTY = new Mapping(new MappedByteBuffer[0], 0);
+
+        final MappedByteBuffer[] regions;
+        final long size;
+
+        Mapping(MappedByteBuffer[] regions, long size) {
+            this.regions = regions;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Creates a PageChannel over the specified file. The file is not opened
+     * until the first I/O request.
+     *
+     * @param f the file backing the owning DbFile
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Returns the open channel, opening the file (and creating it if needed)
+     * on first use or after {@link #close}.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null || !fc.isOpen()) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null || !fc.isOpen()) {
+                    fc = new RandomAccessFile(f, "rw").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Enables or disables serving reads from a memory mapping of the file.
+     * Intended for read-mostly files: reads then cost a memory copy instead of
+     * a system call. Writes always go through the channel.
+     *
+     * @param mapped true to read through a memory mapping
+     */
+    public synchronized void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped)
+            mapping = Mapping.EMPTY;
+    }
+
+    /**
+     * Returns true if reads are served from a memory mapping of the file.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Reads up to buf.length bytes starting at the specified file offset.
+     * Bytes beyond the end of the file are left untouched.
+     *
+     * @param pos the file offset to read from
+     * @param buf the buffer to fill
+     * @return the number of bytes read, or -1 if pos is at or past the end
+     *         of the file or the file does not exist
+     */
+    public int read(long pos, byte[] buf) throws IOException {
+        if (channel == null && !f.exists())
+            return -1;
+        if (mapped)
+            return readMapped(pos, buf);
+        FileChannel fc = channel();
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        int total = 0;
+        while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos + total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return (total == 0 && buf.length > 0) ? -1 : total;
+    }
+
+    /**
+     * Copies up to buf.length bytes starting at pos out of the mapped regions,
+     * first extending the mapping if the file has grown past it.
+     */
+    private int readMapped(long pos, byte[] buf) throws IOException {
+        Mapping m = mapping;
+        if (pos + buf.length > m.size)
+            m = remap();
+        if (pos >= m.size)
+            return buf.length > 0 ? -1 : 0;
+
+        int len = (int) Math.min(buf.length, m.size - pos);
+        int off = 0;
+        while (off < len) {
+            long p = pos + off;
+            ByteBuffer region = m.regions[(int) (p / MAP_REGION_SIZE)].duplicate();
+            region.position((int) (p % MAP_REGION_SIZE));
+            int n = Math.min(len - off, region.remaining());
+            region.get(buf, off, n);
+            off += n;
+        }
+        return len;
+    }
+
+    /**
+     * Maps any part of the file not covered by the current mapping. Regions
+     * that are already fully mapped are reused.
+     */
+    private synchronized Mapping remap() throws IOException {
+        FileChannel fc = channel();
+        long size = fc.size();
+        Mapping m = mapping;
+        if (!mapped || size == m.size)
+            return m;
+
+        int n = (int) ((size + MAP_REGION_SIZE - 1) / MAP_REGION_SIZE);
+        MappedByteBuffer[] regions = Arrays.copyOf(m.regions, n);
+        for (int i = 0; i < n; i++) {
+            long start = i * MAP_REGION_SIZE;
+            long len = Math.min(MAP_REGION_SIZE, size - start);
+            if (regions[i] == null || regions[i].capacity() != len)
+                regions[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, len);
+        }
+        m = new Mapping(regions, size);
+        mapping = m;
+        return m;
+    }
+
+    /**
+     * Writes the whole of data at the specified file offset, extending the
+     * file if necessary.
+     *
+     * @param pos the file offset to write at
+     * @param data the bytes to write
+     */
+    public void write(long pos, byte[] data) throws IOException {
+        write(pos, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the remaining bytes of buf at the specified file offset,
+     * extending the file if necessary. On return buf has no bytes remaining.
+     *
+     * @param pos the file offset to write at
+     * @param buf the bytes to write
+     */
+    public void write(long pos, ByteBuffer buf) throws IOException {
+        FileChannel fc = channel();
+        int total = 0;
+        while (buf.hasRemaining())
+            total += fc.write(buf, pos + total);
+    }
+
+    /**
+     * Returns the current size of the file in bytes. A file that has not been
+     * created yet has size 0.
+     */
+    public long size() throws IOException {
+        if (channel == null && !f.exists())
+            return 0;
+        return channel().size();
+    }
+
+    /**
+     * Forces all previously written pages (and the file length) to stable
+     * storage.
+     */
+    public void force() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            fc.force(true);
+    }
+
+    /**
+     * Closes the underlying channel. A later I/O request reopens it.
+     */
+    public synchronized void close() throws IOException {
+        mapping = Mapping.EMPTY;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * PageCodec is a compression codec for the on-disk image of HeapFile pages,
+ * trading CPU time on every page read and write for a smaller file and less
+ * I/O. Pages are only compressed on disk; in the BufferPool they are always
+ * uncompressed.
+ *
+ * @see CompressedPageStore
+ */
+public enum PageCodec {
+
+    /**
+     * Run-length encoding: very cheap, and collapses the zero padding of
+     * empty slots and short strings, but doesn't find repeated sequences.
+     * <p>
+     * The output is a series of runs, each starting with a control byte c:
+     * if c &lt; 128, c + 1 literal bytes follow; otherwise the single byte
+     * that follows is repeated c - 125 times (3 to 130 times).
+     */
+    RLE {
+        private static final int MIN_REPEAT = 3;
+        private static final int MAX_REPEAT = 130;
+        private static final int MAX_LITERALS = 128;
+
+        @Override
+        public int maxCompressedLength(int len) {
+            return len + (len + MAX_LITERALS - 1) / MAX_LITERALS;
+        }
+
+        @Override
+        public int compress(byte[] src, int len, byte[] dst) {
+            int op = 0;
+            int litStart = 0;
+            int i = 0;
+            while (i < len) {
+                int run = 1;
+                while (i + run < len && run < MAX_REPEAT && src[i + run] == src[i])
+                    run++;
+                if (run < MIN_REPEAT) {
+                    i += run;
+                    continue;
+                }
+                op = literals(src, litStart, i, dst, op);
+                dst[op++] = (byte) (run - MIN_REPEAT + MAX_LITERALS);
+                dst[op++] = src[i];
+                i += run;
+                litStart = i;
+            }
+            return literals(src, litStart, len, dst, op);
+        }
+
+        /** Writes src[from, to) as literal runs at dst[op], returning the new op. */
+        private int literals(byte[] src, int from, int to, byte[] dst, int op) {
+            while (from < to) {
+                int n = Math.min(MAX_LITERALS, to - from);
+                dst[op++] = (byte) (n - 1);
+                System.arraycopy(src, from, dst, op, n);
+                op += n;
+                from += n;
+            }
+            return op;
+        }
+
+        @Override
+        public void decompress(byte[] src, int off, int len, byte[] dst) {
+            int ip = off;
+            int end = off + len;
+            int op = 0;
+            while (ip < end) {
+                int c = src[ip++] & 0xff;
+                if (c < MAX_LITERALS) {
+                    System.arraycopy(src, ip, dst, op, c + 1);
+                    ip += c + 1;
+                    op += c + 1;
+                } else {
+                    int n = c - MAX_LITERALS + MIN_REPEAT;
+                    byte b = src[ip++];
+                    for (int k = 0; k < n; k++)
+                        dst[op++] = b;
+                }
+            }
+            if (op != dst.length)
+                throw new IllegalArgumentException("corrupt RLE page");
+        }
+    },
+
+    /**
+     * LZ77 compression in the LZ4 block format: slower than RLE, but also
+     * compresses repeated values and repeated string prefixes.
+     * <p>
+     * The output is a series of sequences, each a token byte whose high
+     * nibble is a literal count and whose low nibble is a match length minus
+     * 4 (a nibble of 15 is extended by bytes that are added to it until one is
+     * less than 255), the literal count's extension, the literals, a
+     * little-endian 2-byte match offset and the match length's extension.
+     * The last sequence has literals only.
+     */
+    LZ {
+        private static final int MIN_MATCH = 4;
+        private static final int HASH_BITS = 12;
+        private static final int MAX_OFFSET = 65535;
+
+        @Override
+        public int maxCompressedLength(int len) {
+            return len + len / 255 + 16;
+        }
+
+        private int hash(byte[] src, int i) {
+            int v = (src[i] & 0xff) | (src[i + 1] & 0xff) << 8
+                    | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+            return (v * -1640531535) >>> (32 - HASH_BITS);
+        }
+
+        @Override
+        public int compress(byte[] src, int len, byte[] dst) {
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            int op = 0;
+            int anchor = 0;
+            int i = 0;
+            while (i + MIN_MATCH <= len) {
+                int h = hash(src, i);
+                int ref = table[h];
+                table[h] = i;
+                if (ref < 0 || i - ref > MAX_OFFSET
+                        || src[ref] != src[i] || src[ref + 1] != src[i + 1]
+                        || src[ref + 2] != src[i + 2] || src[ref + 3] != src[i + 3]) {
+                    i++;
+                    continue;
+                }
+                int matchLen = MIN_MATCH;
+                while (i + matchLen < len && src[ref + matchLen] == src[i + matchLen])
+                    matchLen++;
+
+                op = literals(src, anchor, i - anchor, dst, op, matchLen - MIN_MATCH);
+                dst[op++] = (byte) (i - ref);
+                dst[op++] = (byte) ((i - ref) >>> 8);
+                op = length(matchLen - MIN_MATCH, dst, op);
+                i += matchLen;
+                anchor = i;
+            }
+            return literals(src, anchor, len - anchor, dst, op, 0);
+        }
+
+        /**
+         * Writes the start of a sequence, its token and the literals
+         * src[from, from + litLen), at dst[op], returning the new op.
+         */
+        private int literals(byte[] src, int from, int litLen, byte[] dst, int op, int matchLen) {
+            dst[op++] = (byte) (Math.min(litLen, 15) << 4 | Math.min(matchLen, 15));
+            op = length(litLen, dst, op);
+            System.arraycopy(src, from, dst, op, litLen);
+            return op + litLen;
+        }
+
+        /** Writes the extension bytes of a length whose nibble is 15. */
+        private int length(int n, byte[] dst, int op) {
+            if (n < 15)
+                return op;
+            n -= 15;
+            while (n >= 255) {
+                dst[op++] = (byte) 255;
+                n -= 255;
+            }
+            dst[op++] = (byte) n;
+            return op;
+        }
+
+        @Override
+        public void decompress(byte[] src, int off, int len, byte[] dst) {
+            int ip = off;
+            int end = off + len;
+            int op = 0;
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= end)
+                    break;
+
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                // byte by byte, since the match may overlap what it copies
+                for (int k = 0; k < matchLen; k++, op++)
+                    dst[op] = dst[op - offset];
+            }
+            if (op != dst.length)
+                throw new IllegalArgumentException("corrupt LZ page");
+        }
+    };
+
+    /**
+     * Returns the largest number of bytes compress can produce for len bytes
+     * of input.
+     */
+    public abstract int maxCompressedLength(int len);
+
+    /**
+     * Compresses the first len bytes of src into dst, which must have room
+     * for {@link #maxCompressedLength}(len) bytes.
+     *
+     * @return the number of bytes written to dst
+     */
+    public abstract int compress(byte[] src, int len, byte[] dst);
+
+    /**
+     * Decompresses len bytes of src starting at off into dst, which must be
+     * exactly the size of the original data.
+     *
+     * @throws IllegalArgumentException if the data doesn't decompress to
+     *         exactly dst.length bytes
+     */
+    public abstract void decompress(byte[] src, int off, int len, byte[] dst);
+}
@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * PageHandle is a pinned page of the BufferPool: as long as the handle is
+ * open, the page's frame is never evicted, so an iterator can keep walking
+ * the page it got from the pool. Closing the handle unpins the page; closing
+ * it again does nothing. Handles a transaction leaves open are closed when
+ * the transaction completes.
+ *
+ * @see BufferPool#pinPage
+ */
+public class PageHandle implements AutoCloseable {
+
+    private final BufferPool pool;
+    private final TransactionId tid;
+    private final Page page;
+    private boolean open = true; // protected by this
+
+    PageHandle(BufferPool pool, TransactionId tid, Page page) {
+        this.pool = pool;
+        this.tid = tid;
+        this.page = page;
+    }
+
+    /**
+     * Returns the pinned page.
+     */
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * Returns the transaction that pinned the page.
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * Returns true if the handle hasn't been closed yet.
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Unpins the page.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!open)
+                return;
+            open = false;
+        }
+        pool.unpin(this);
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxHeapPage is a HeapFile page in the PAX layout: the page holds the same
+ * slots as a {@link HeapPage}, but instead of storing each tuple's fields
+ * together, it stores the values of each column together in a "minipage",
+ * so that a scan that needs only some columns reads only their minipages.
+ * <p>
+ * The page starts with the same used-slot bitmap as a HeapPage, followed by
+ * one minipage per column in schema order. The minipage of column j holds
+ * numSlots values of that column's type, each in the format written by
+ * {@link Field#serialize}, so the value of column j of slot i is at
+ * colStart[j] + i * td.getFieldType(j).getLen(). An all-zero page is an
+ * empty page.
+ *
+ * @see HeapFile.PageFormat#PAX
+ */
+public class PaxHeapPage implements HeapFilePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final byte[] image;
+    final int headerSize;
+    /** Offset of each column's minipage in the page image */
+    final int[] colStart;
+    /** Tuples decoded so far by iterator(), by slot */
+    final Tuple[] tuples;
+    /**
+     * The change count of each slot's tuple when it was last serialized into
+     * the image, or null while all are 0; see {@link HeapPage}.
+     */
+    private int[] serialized;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    TransactionId dirtyby = null;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk, in the
+     * format described above. Values are decoded only when they are read.
+     *
+     * @param id the id of this page
+     * @param data the page image, exactly one page long
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = (data.length * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.image = data.clone();
+        this.tuples = new Tuple[numSlots];
+
+        colStart = new int[td.numFields()];
+        int off = headerSize;
+        for (int j = 0; j < colStart.length; j++) {
+            colStart[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the offset in the page image of column col of slot i.
+     */
+    private int valueOffset(int i, int col) {
+        return colStart[col] + i * td.getFieldType(col).getLen();
+    }
+
+    /**
+     * Returns the value of column col of slot i, decoded from its minipage.
+     */
+    public Field getField(int i, int col) {
+        return td.getFieldType(col).parse(image, valueOffset(i, col));
+    }
+
+    /**
+     * Returns the value of int column col of slot i straight out of its
+     * minipage, without creating a Field.
+     */
+    public int getInt(int i, int col) {
+        return Type.readInt(image, valueOffset(i, col));
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && ((image[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            image[i / 8] |= 1 << (i % 8);
+        else
+            image[i / 8] &= ~(1 << (i % 8));
+    }
+
+    public int getNumEmptySlots() {
+        int ret = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                ret++;
+        }
+        return ret;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return td.equals(t.getTupleDesc()) && getNumEmptySlots() > 0;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("insertTuple: tupledesc is mismatch");
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                continue;
+            serialize(i, t);
+            markSlotUsed(i, true);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+            return;
+        }
+        throw new DbException("insertTuple: no empty slots");
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("deleteTuple: Error: tuple is not on this page");
+        int i = rid.getTupleNumber();
+        if (!isSlotUsed(i))
+            throw new DbException("deleteTuple: Error: tuple slot is empty");
+        markSlotUsed(i, false);
+        tuples[i] = null;
+        if (serialized != null)
+            serialized[i] = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int off = valueOffset(i, j);
+            Arrays.fill(image, off, off + td.getFieldType(j).getLen(), (byte) 0);
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. The page
+     * image is maintained as tuples are inserted and deleted, so this is just
+     * a copy of it, once the tuples changed in place have been serialized
+     * again.
+     */
+    public byte[] getPageData() {
+        serializeChanged();
+        return image.clone();
+    }
+
+    /**
+     * Writes the image of this page into buf without allocating.
+     */
+    public void writePageData(ByteBuffer buf) {
+        serializeChanged();
+        buf.put(image);
+    }
+
+    /** Serializes the values of the tuple in slot i into the minipages. */
+    private void serialize(int i, Tuple t) {
+        ByteBuffer buf = ByteBuffer.wrap(image);
+        for (int j = 0; j < td.numFields(); j++) {
+            buf.position(valueOffset(i, j));
+            t.getField(j).serialize(buf);
+        }
+        int changes = t.changes();
+        if (serialized == null && changes != 0)
+            serialized = new int[numSlots];
+        if (serialized != null)
+            serialized[i] = changes;
+    }
+
+    /**
+     * Serializes the tuples changed in place through Tuple.setField again,
+     * so that the image has their new values.
+     */
+    private void serializeChanged() {
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples[i];
+            if (t != null && t.changes() != (serialized == null ? 0 : serialized[i]))
+                serialize(i, t);
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxHeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData.clone();
+        }
+        return new PaxHeapPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        serializeChanged();
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = new byte[image.length];
+            System.arraycopy(image, 0, oldData, 0, image.length);
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyby = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyby;
+    }
+
+    public Tuple getTuple(int slot) {
+        return slot >= 0 && isSlotUsed(slot) ? tupleAt(slot) : null;
+    }
+
+    /**
+     * Returns the tuple in used slot i, with all its fields, decoding it on
+     * first use.
+     */
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.cacheField(j, getField(i, j));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, with all their fields
+     */
+    public Iterator<Tuple> iterator() {
+        return new SlotIterator() {
+            Tuple tupleAt(int i) {
+                return PaxHeapPage.this.tupleAt(i);
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page projected onto the
+     * specified columns. Only the minipages of those columns are read.
+     *
+     * @param cols the columns to return, by index in the page's TupleDesc
+     * @param projected the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(int[] cols, TupleDesc projected) {
+        return new SlotIterator() {
+            Tuple tupleAt(int i) {
+                Tuple t = new Tuple(projected);
+                for (int k = 0; k < cols.length; k++)
+                    t.setField(k, getField(i, cols[k]));
+                t.setRecordId(new RecordId(pid, i));
+                return t;
+            }
+        };
+    }
+
+    /**
+     * An iterator over the used slots of the page.
+     */
+    private abstract class SlotIterator implements Iterator<Tuple> {
+        private int nextSlot = 0;
+
+        abstract Tuple tupleAt(int i);
+
+        public boolean hasNext() {
+            while (nextSlot < numSlots && !isSlotUsed(nextSlot))
+                nextSlot++;
+            return nextSlot < numSlots;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return tupleAt(nextSlot++);
+        }
+    }
+}
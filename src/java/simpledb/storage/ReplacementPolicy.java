@@ -0,0 +1,109 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it is full.
+ * The BufferPool tells the policy about every page it caches, every hit and
+ * every page it drops; the policy may also remember pages it no longer
+ * tracks, so that a page that comes back soon after being evicted is treated
+ * as hot.
+ * <p>
+ * Implementations must be thread-safe. {@link #recordAccess} is called on
+ * every buffer pool hit, without the pool's lock held.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * The replacement policies a BufferPool can be created with.
+     */
+    enum Type {
+        /** CLOCK (second chance); the cheapest, and the default. */
+        CLOCK {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new ClockReplacer();
+            }
+        },
+        /** LRU-2: evicts the page whose second most recent access is oldest. */
+        LRU_K {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new LruKReplacer(2, capacity);
+            }
+        },
+        /** 2Q: pages seen once wait in a FIFO before joining the main LRU. */
+        TWO_Q {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new TwoQueueReplacer(capacity);
+            }
+        },
+        /** ARC: adapts the split between recent and frequent pages. */
+        ARC {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new ArcReplacer(capacity);
+            }
+        };
+
+        /**
+         * Creates a policy for a BufferPool of capacity pages.
+         */
+        public abstract ReplacementPolicy create(int capacity);
+
+        /**
+         * Returns the policy named by s, e.g. "clock", "lru-k", "2q" or
+         * "arc", ignoring case.
+         *
+         * @throws IllegalArgumentException if s names no policy
+         */
+        public static Type parse(String s) {
+            String name = s.trim().toUpperCase().replace('-', '_');
+            if (name.equals("2Q"))
+                return TWO_Q;
+            return valueOf(name);
+        }
+    }
+
+    /**
+     * Records a buffer pool hit on the specified page. Does nothing if the
+     * page isn't tracked.
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Starts tracking the specified page, just read into the buffer pool.
+     * Does nothing if the page is already tracked.
+     */
+    void add(PageId pid);
+
+    /**
+     * Stops tracking the specified page, and forgets it. Does nothing if the
+     * page isn't tracked.
+     */
+    void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict among the pages that evictable accepts, and
+     * stops tracking it.
+     *
+     * @param evictable tells whether a page may be evicted, e.g. isn't dirty
+     * @return the page to evict, or null if no tracked page is evictable
+     */
+    PageId victim(Predicate<PageId> evictable);
+
+    /**
+     * Returns the number of pages tracked.
+     */
+    int size();
+
+    /**
+     * Returns the tracked pages in order of priority: the page the policy
+     * would keep longest first, the next victim last.
+     */
+    List<PageId> pages();
+}
@@ -0,0 +1,394 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a HeapFile page that stores variable-length records,
+ * so that string fields take only as many bytes as the string is long
+ * instead of always taking {@link Type#STRING_LEN} bytes plus padding.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of slots
+ * in the slot directory, and the offset of the start of the record area (0
+ * meaning the end of the page, so that an all-zero page is an empty page).
+ * The slot directory follows the header, one entry of two unsigned shorts
+ * per slot: the offset of the slot's record in the page, and its length. An
+ * empty slot has offset 0. Records are allocated from the end of the page
+ * towards the slot directory; free space is the gap between the two, and the
+ * space of deleted records is reclaimed by compacting the record area when
+ * an insert needs it.
+ * <p>
+ * A record is its fields one after the other: an int field takes 4 bytes,
+ * and a string field an unsigned short length followed by that many bytes.
+ * Since offsets are unsigned shorts, pages can be at most 64KB.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] image;
+    final ArrayList<Tuple> tuples;
+    /**
+     * The change count of each slot's tuple when its record was last
+     * written, or null while all are 0; see {@link HeapPage}. Slots past its
+     * end have a count of 0.
+     */
+    private int[] serialized;
+    /** Smallest record size the schema allows, i.e. with empty strings */
+    final int minRecordSize;
+
+    int recordStart;
+    int liveBytes = 0;
+    int emptySlots = 0;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    boolean dirty = false;
+    TransactionId dirtyby = null;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk, in
+     * the format described above. All records are decoded up front.
+     *
+     * @param id the id of this page
+     * @param data the page image, exactly one page long
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.image = data.clone();
+
+        int minSize = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            minSize += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        this.minRecordSize = minSize;
+
+        int numSlots = getShort(0);
+        recordStart = getShort(2) == 0 ? image.length : getShort(2);
+        if (slotEntry(numSlots) > recordStart)
+            throw new IllegalArgumentException("corrupt slotted page " + id);
+
+        tuples = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            int off = getShort(slotEntry(i));
+            if (off == 0) {
+                tuples.add(null);
+                emptySlots++;
+                continue;
+            }
+            liveBytes += getShort(slotEntry(i) + 2);
+            tuples.add(readRecord(i, off));
+        }
+        setBeforeImage();
+    }
+
+    private int getShort(int off) {
+        return ((image[off] & 0xff) << 8) | (image[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int v) {
+        image[off] = (byte) (v >>> 8);
+        image[off + 1] = (byte) v;
+    }
+
+    /** Returns the offset of slot i's directory entry. */
+    private static int slotEntry(int i) {
+        return HEADER_SIZE + i * SLOT_SIZE;
+    }
+
+    private Tuple readRecord(int slot, int off) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.cacheField(j, new IntField(Type.readInt(image, off)));
+                off += 4;
+            } else {
+                int len = getShort(off);
+                t.cacheField(j, new StringField(new String(image, off + 2, len), Type.STRING_LEN));
+                off += 2 + len;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /** Returns the number of bytes field f of a record takes. */
+    private static int fieldSize(Field f) {
+        if (f instanceof StringField)
+            return 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+        return 4;
+    }
+
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += fieldSize(t.getField(j));
+        return size;
+    }
+
+    private void writeRecord(Tuple t, int off) {
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (f instanceof StringField) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putShort(off, len);
+                // one byte per char, as StringField.serialize writes them
+                for (int k = 0; k < len; k++)
+                    image[off + 2 + k] = (byte) s.charAt(k);
+                off += 2 + len;
+            } else {
+                int v = ((IntField) f).getValue();
+                image[off] = (byte) (v >>> 24);
+                image[off + 1] = (byte) (v >>> 16);
+                image[off + 2] = (byte) (v >>> 8);
+                image[off + 3] = (byte) v;
+                off += 4;
+            }
+        }
+    }
+
+    /** Bytes free on the page, including the space of deleted records. */
+    private int freeBytes() {
+        return image.length - slotEntry(tuples.size()) - liveBytes;
+    }
+
+    /** Bytes needed to add a record of the given size to the page. */
+    private int bytesNeeded(int recordSize) {
+        return recordSize + (emptySlots > 0 ? 0 : SLOT_SIZE);
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the free space is one
+     * gap between the slot directory and the record area.
+     */
+    private void compact() {
+        byte[] old = image.clone();
+        int end = image.length;
+        for (int i = 0; i < tuples.size(); i++) {
+            int off = getShort(slotEntry(i));
+            if (off == 0)
+                continue;
+            int len = getShort(slotEntry(i) + 2);
+            end -= len;
+            System.arraycopy(old, off, image, end, len);
+            putShort(slotEntry(i), end);
+        }
+        Arrays.fill(image, slotEntry(tuples.size()), end, (byte) 0);
+        recordStart = end;
+        putShort(2, recordStart == image.length ? 0 : recordStart);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Records the change count of slot's tuple as of its record's last write. */
+    private void noteSerialized(int slot, int changes) {
+        if (serialized == null && changes == 0)
+            return;
+        if (serialized == null || serialized.length <= slot)
+            serialized = Arrays.copyOf(serialized == null ? new int[0] : serialized,
+                    Math.max(slot + 1, tuples.size()));
+        serialized[slot] = changes;
+    }
+
+    /**
+     * Writes the records of the tuples changed in place through
+     * Tuple.setField again, so that the image has their new values.
+     *
+     * @throws IllegalStateException if a record grew past the page's free space
+     */
+    private void serializeChanged() {
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            int changes = serialized == null || i >= serialized.length ? 0 : serialized[i];
+            if (t != null && t.changes() != changes)
+                rewriteRecord(i, t);
+        }
+    }
+
+    /**
+     * Writes the record of the tuple in slot again: in place if it is no
+     * larger than before, otherwise in the free space.
+     */
+    private void rewriteRecord(int slot, Tuple t) {
+        int off = getShort(slotEntry(slot));
+        int len = getShort(slotEntry(slot) + 2);
+        int size = recordSize(t);
+        if (size > len) {
+            if (size - len > freeBytes())
+                throw new IllegalStateException("tuple " + t.getRecordId()
+                        + " changed in place no longer fits on its page");
+            // free the old record, as deleteTuple does, keeping the slot
+            Arrays.fill(image, off, off + len, (byte) 0);
+            if (off == recordStart)
+                recordStart += len;
+            putShort(slotEntry(slot), 0);
+            liveBytes -= len;
+            if (recordStart - size < slotEntry(tuples.size()))
+                compact();
+            recordStart -= size;
+            putShort(2, recordStart);
+            off = recordStart;
+            liveBytes += size;
+        } else {
+            // compaction reclaims the bytes the record no longer takes
+            Arrays.fill(image, off + size, off + len, (byte) 0);
+            liveBytes -= len - size;
+        }
+        writeRecord(t, off);
+        putShort(slotEntry(slot), off);
+        putShort(slotEntry(slot) + 2, size);
+        noteSerialized(slot, t.changes());
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. The page
+     * image is maintained as tuples are inserted and deleted, so this is just
+     * a copy of it, once the tuples changed in place have been written again.
+     */
+    public byte[] getPageData() {
+        serializeChanged();
+        return image.clone();
+    }
+
+    /**
+     * Writes the image of this page into buf without allocating.
+     */
+    public void writePageData(ByteBuffer buf) {
+        serializeChanged();
+        buf.put(image);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData.clone();
+        }
+        return new SlottedHeapPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        serializeChanged();
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = new byte[image.length];
+            System.arraycopy(image, 0, oldData, 0, image.length);
+        }
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("insertTuple: tupledesc is mismatch");
+        int size = recordSize(t);
+        if (bytesNeeded(size) > freeBytes())
+            throw new DbException("insertTuple: no room on page for tuple");
+
+        int slot = emptySlots > 0 ? tuples.indexOf(null) : tuples.size();
+        int dirEnd = slotEntry(slot == tuples.size() ? slot + 1 : tuples.size());
+        if (recordStart - size < dirEnd)
+            compact();
+
+        if (slot == tuples.size()) {
+            tuples.add(null);
+            putShort(0, tuples.size());
+        } else {
+            emptySlots--;
+        }
+        recordStart -= size;
+        putShort(2, recordStart);
+        writeRecord(t, recordStart);
+        putShort(slotEntry(slot), recordStart);
+        putShort(slotEntry(slot) + 2, size);
+        liveBytes += size;
+
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+        noteSerialized(slot, t.changes());
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("deleteTuple: Error: tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= tuples.size() || tuples.get(slot) == null)
+            throw new DbException("deleteTuple: Error: tuple slot is empty");
+
+        int off = getShort(slotEntry(slot));
+        int len = getShort(slotEntry(slot) + 2);
+        Arrays.fill(image, off, off + len, (byte) 0);
+        if (off == recordStart) {
+            recordStart += len;
+            putShort(2, recordStart == image.length ? 0 : recordStart);
+        }
+        putShort(slotEntry(slot), 0);
+        putShort(slotEntry(slot) + 2, 0);
+        liveBytes -= len;
+        emptySlots++;
+        tuples.set(slot, null);
+        noteSerialized(slot, 0);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return td.equals(t.getTupleDesc()) && bytesNeeded(recordSize(t)) <= freeBytes();
+    }
+
+    /**
+     * Returns the number of further tuples with all strings empty that would
+     * fit on this page.
+     */
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int reused = Math.min(emptySlots, free / minRecordSize);
+        return reused + (free - reused * minRecordSize) / (minRecordSize + SLOT_SIZE);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyby = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyby;
+    }
+
+    public Tuple getTuple(int slot) {
+        return slot >= 0 && slot < tuples.size() ? tuples.get(slot) : null;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int nextSlot = 0;
+
+            public boolean hasNext() {
+                while (nextSlot < tuples.size() && tuples.get(nextSlot) == null)
+                    nextSlot++;
+                return nextSlot < tuples.size();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return tuples.get(nextSlot++);
+            }
+        };
+    }
+}
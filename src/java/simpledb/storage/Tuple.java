@@ -23,6 +23,8 @@ public class Tuple implements Serializable {
 	private Field[] tupleField = null;
 	private TupleDesc tupleDesc = null;
 	private RecordId recordId = null;
+	/** Number of times setField has been called; see {@link #changes} */
+	private transient int changes = 0;
 
 	public Tuple(TupleDesc td) {
 		// some code goes here
@@ -68,6 +70,24 @@ public class Tuple implements Serializable {
 		// some code goes here
 		assert (i >= 0 && i < tupleField.length);
 		tupleField[i] = f;
+		changes++;
+	}
+
+	/**
+	 * Returns how many times the fields of this tuple have been set, so that
+	 * a page holding it can tell whether it was changed in place since the
+	 * page last serialized it.
+	 */
+	int changes() {
+		return changes;
+	}
+
+	/**
+	 * Sets the ith field to the value a page decoded for it, which unlike
+	 * {@link #setField} doesn't count as a change.
+	 */
+	void cacheField(int i, Field f) {
+		tupleField[i] = f;
 	}
 
 	/**
@@ -94,9 +114,9 @@ public class Tuple implements Serializable {
 		// some code goes here
 		String ret = "";
 		if (tupleField.length > 0)
-			ret = tupleField[0].toString();
+			ret = getField(0).toString();
 		for (int i = 1; i < tupleField.length; i++)
-			ret += "\t" + tupleField[i].toString();
+			ret += "\t" + getField(i).toString();
 		return ret;
 		// throw new UnsupportedOperationException("Implement this");
 	}
@@ -120,7 +140,7 @@ public class Tuple implements Serializable {
 					if (!hasNext()) {
 						throw new NoSuchElementException();
 					}
-					return tupleField[nextSlot++];
+					return getField(nextSlot++);
 				}
 			};
 		return null;
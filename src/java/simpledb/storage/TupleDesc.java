@@ -183,6 +183,23 @@ public class TupleDesc implements Serializable {
 		return 0;
 	}
 
+	/**
+	 * Create a TupleDesc with the specified fields of td, in the order given.
+	 * 
+	 * @param td     The TupleDesc to take the fields from
+	 * @param fields The indexes in td of the fields of the new TupleDesc
+	 * @return the new TupleDesc
+	 */
+	public static TupleDesc project(TupleDesc td, int[] fields) {
+		Type[] newType = new Type[fields.length];
+		String[] newName = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			newType[i] = td.getFieldType(fields[i]);
+			newName[i] = td.getFieldName(fields[i]);
+		}
+		return new TupleDesc(newType, newName);
+	}
+
 	/**
 	 * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
 	 * with the first td1.numFields coming from td1 and the remaining from td2.
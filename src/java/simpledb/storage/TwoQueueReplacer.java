@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueueReplacer implements the full version of 2Q (Johnson and Shasha,
+ * 1994). A page read for the first time goes into A1in, a FIFO holding about
+ * a quarter of the pool; hits there don't promote it. When it is evicted
+ * from A1in it is remembered in A1out, and only if it is read again while
+ * still remembered does it join Am, the LRU list holding the hot pages. A
+ * scan therefore only cycles through A1in and leaves Am alone.
+ * <p>
+ * All operations are O(1), apart from skipping pages that can't be evicted.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacer implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+    // all protected by this; iteration order is oldest first
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    /**
+     * Creates a 2Q policy for a pool of capacity pages.
+     */
+    public TwoQueueReplacer(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+        // trimmed here rather than on eviction, since victim is called
+        // before add for the page being read
+        while (a1out.size() > kout) {
+            Iterator<PageId> oldest = a1out.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+        a1out.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        PageId pid = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            pid = evict(a1in, evictable);
+            if (pid == null)
+                pid = evict(am, evictable);
+        } else {
+            pid = evict(am, evictable);
+            if (pid == null)
+                pid = evict(a1in, evictable);
+        }
+        return pid;
+    }
+
+    /**
+     * Removes and returns the oldest evictable page of list, remembering it
+     * in A1out if list is A1in.
+     */
+    private PageId evict(LinkedHashSet<PageId> list, Predicate<PageId> evictable) {
+        Iterator<PageId> it = list.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                if (list == a1in)
+                    a1out.add(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return a1in.size() + am.size();
+    }
+
+    @Override
+    public synchronized List<PageId> pages() {
+        // the list victim takes from first, oldest first, then the other
+        boolean inFirst = a1in.size() > kin || am.isEmpty();
+        List<PageId> pages = new ArrayList<>(inFirst ? a1in : am);
+        pages.addAll(inFirst ? am : a1in);
+        Collections.reverse(pages);
+        return pages;
+    }
+}
@@ -27,6 +27,16 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only transaction that reads a
+     * snapshot of the database without locking; see
+     * {@link simpledb.storage.BufferPool#beginSnapshot}.
+     */
+    public void startSnapshot() {
+        start();
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
@@ -51,7 +61,13 @@ public class Transaction {
             } 
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            try {
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            } catch (UncheckedIOException e) {
+                // the buffer pool aborted it instead, so no commit record
+                started = false;
+                throw e.getCause();
+            }
 
             // write commit log record
             if (!abort) {
@@ -0,0 +1,198 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopBackgroundWriter();
+    }
+
+    /** Counts the tuples of the file, read from disk or from the pool. */
+    private int count(boolean fromDisk) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            Page pg = fromDisk ? hf.readPage(pid) : bp.getPage(tid, pid, Permissions.READ_ONLY);
+            for (Iterator<Tuple> it = ((HeapFilePage) pg).iterator(); it.hasNext(); it.next())
+                n++;
+        }
+        bp.transactionComplete(tid);
+        return n;
+    }
+
+    private void insert(TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+    }
+
+    /** A HeapFile whose page writes take a while, and report when they begin. */
+    private static class SlowHeapFile extends HeapFile {
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        SlowHeapFile(HeapFile hf) {
+            super(hf.getFile(), hf.getTupleDesc());
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            writing.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            super.writePage(page);
+        }
+    }
+
+    /**
+     * Unit test that under wait-die a transaction waits for the writer's
+     * latch on a page it is writing, rather than dying
+     */
+    @Test public void waitDieWaitsForWriter() throws Exception {
+        bp.setDeadlockPolicy(BufferPool.DeadlockPolicy.WAIT_DIE);
+        SlowHeapFile slow = new SlowHeapFile(hf);
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        hf = slow;
+        bp.startBackgroundWriter(100, 10);
+        TransactionId t1 = new TransactionId();
+        insert(t1, 10);
+        bp.transactionComplete(t1);
+
+        assertTrue(slow.writing.await(5, TimeUnit.SECONDS));
+        TransactionId t2 = new TransactionId();
+        insert(t2, 5);
+        bp.transactionComplete(t2);
+        assertEquals(0, bp.getDeadlockPreventionAbortCount());
+        assertEquals(2015, count(false));
+    }
+
+    /**
+     * Unit test that commits leave their pages to the writer, which writes
+     * them soon after
+     */
+    @Test public void writesCommittedPages() throws Exception {
+        BackgroundWriter w = bp.startBackgroundWriter(100, 10);
+        TransactionId tid = new TransactionId();
+        insert(tid, 10);
+        bp.transactionComplete(tid);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((bp.getPendingWriteCount() > 0 || w.getPagesWritten() == 0)
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, bp.getPendingWriteCount());
+        assertTrue(w.getPagesWritten() > 0);
+        assertEquals(2010, count(true));
+    }
+
+    /**
+     * Unit test that aborting a transaction restores the last committed
+     * version of a page that hasn't been written yet
+     */
+    @Test public void abortKeepsPendingCommit() throws Exception {
+        bp.startBackgroundWriter(1, 3600 * 1000);
+        TransactionId t1 = new TransactionId();
+        insert(t1, 10);
+        bp.transactionComplete(t1);
+        assertTrue(bp.getPendingWriteCount() > 0);
+        assertEquals(2000, count(true));
+
+        TransactionId t2 = new TransactionId();
+        insert(t2, 5);
+        bp.transactionComplete(t2, false);
+        assertEquals(2010, count(false));
+
+        bp.stopBackgroundWriter();
+        assertEquals(0, bp.getPendingWriteCount());
+        assertEquals(2010, count(true));
+    }
+
+    /**
+     * Unit test that the writer checkpoints the log once it has grown,
+     * writing the committed pages but not those of running transactions
+     */
+    @Test public void checkpointsLog() throws Exception {
+        TransactionId t1 = new TransactionId();
+        insert(t1, 10);
+        bp.transactionComplete(t1);
+        LogFile log = Database.getLogFile();
+        long size = log.getLogSize();
+
+        // a checkpoint after every round that logged anything
+        BackgroundWriter w = bp.startBackgroundWriter(1, 10, 1);
+        TransactionId t2 = new TransactionId();
+        insert(t2, 10);
+        bp.transactionComplete(t2);
+        TransactionId t3 = new TransactionId();
+        insert(t3, 5);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((w.getCheckpoints() == 0 || log.getLogSize() >= size || bp.getPendingWriteCount() > 0)
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(w.getCheckpoints() > 0);
+        assertTrue(log.getLogSize() < size);
+        assertEquals(0, bp.getPendingWriteCount());
+        assertEquals(2020, count(true));
+        bp.transactionComplete(t3, false);
+        assertEquals(2020, count(false));
+    }
+
+    /**
+     * Unit test that eviction writes a pending page before dropping it
+     */
+    @Test public void evictionWritesPending() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        bp = Database.resetBufferPool(3);
+        bp.startBackgroundWriter(1, 3600 * 1000);
+        TransactionId tid = new TransactionId();
+        insert(tid, 10);
+        bp.transactionComplete(tid);
+        assertTrue(bp.getPendingWriteCount() > 0);
+
+        tid = new TransactionId();
+        for (int i = 0; i < other.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPendingWriteCount());
+        assertTrue(bp.getEvictionWriteCount() > 0);
+        assertEquals(2010, count(true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
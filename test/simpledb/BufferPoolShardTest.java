@@ -0,0 +1,113 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for BufferPool.defaultShards()
+     */
+    @Test public void defaultShards() {
+        assertEquals(1, BufferPool.defaultShards(BufferPool.DEFAULT_PAGES));
+        assertEquals(1, BufferPool.defaultShards(2 * BufferPool.MIN_SHARD_PAGES - 1));
+        assertEquals(2, BufferPool.defaultShards(2 * BufferPool.MIN_SHARD_PAGES));
+        assertEquals(4, BufferPool.defaultShards(7 * BufferPool.MIN_SHARD_PAGES));
+        assertEquals(BufferPool.MAX_SHARDS, BufferPool.defaultShards(1 << 30));
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getShardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyShards() {
+        new BufferPool(4, ReplacementPolicy.Type.CLOCK, 5);
+    }
+
+    /**
+     * Unit test that a sharded pool caches pages and evicts within each shard
+     */
+    @Test public void shardedPool() throws Exception {
+        int pages = hf.numPages();
+        BufferPool bp = new BufferPool(4 * pages, ReplacementPolicy.Type.CLOCK, 4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < pages; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        for (int i = 0; i < pages; i++)
+            assertEquals(pid(i), bp.getPage(tid, pid(i), Permissions.READ_ONLY).getId());
+        assertEquals(pages, bp.getMissCount());
+        assertEquals(pages, bp.getHitCount());
+
+        // a smaller pool still serves every page, evicting in the shards
+        bp = new BufferPool(pages / 2, ReplacementPolicy.Type.LRU_K, 4);
+        for (int i = 0; i < pages; i++)
+            assertEquals(pid(i), bp.getPage(tid, pid(i), Permissions.READ_ONLY).getId());
+        assertEquals(pages, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that concurrent readers of a sharded pool all get the pages
+     * they asked for, and that a page is read from disk at most once while
+     * it stays cached
+     */
+    @Test public void concurrentReaders() throws Exception {
+        int pages = hf.numPages();
+        BufferPool bp = new BufferPool(8 * pages, ReplacementPolicy.Type.CLOCK, 8);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int i = 0; i < 10 * pages; i++) {
+                        PageId p = pid((i + offset) % pages);
+                        if (!p.equals(bp.getPage(tid, p, Permissions.READ_ONLY).getId()))
+                            throw new AssertionError("wrong page for " + p);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertNull(failure.get());
+        assertEquals(pages, bp.getMissCount());
+        assertEquals(8L * 10 * pages - pages, bp.getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
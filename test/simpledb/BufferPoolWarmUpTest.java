@@ -0,0 +1,128 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreePageId;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolWarmUpTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private File f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        f = File.createTempFile("hotpages", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, ReplacementPolicy.Type.LRU_K);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopHotPageDump();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private void read(int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that page ids of every kind survive the file
+     */
+    @Test public void hotPageFile() throws Exception {
+        List<PageId> pids = Arrays.asList(pid(3), new BTreePageId(7, 2, BTreePageId.LEAF), pid(0));
+        HotPageFile.write(f, pids);
+        assertEquals(pids, HotPageFile.read(f));
+        assertTrue(HotPageFile.read(new File(f.getPath() + ".missing")).isEmpty());
+    }
+
+    /**
+     * Unit test that a restarted pool reads the saved pages back in
+     */
+    @Test public void saveAndWarmUp() throws Exception {
+        read(0, 30);
+        assertEquals(30, bp.saveHotPages(f));
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, ReplacementPolicy.Type.LRU_K);
+        assertEquals(30, (int) bp.warmUp(f).get());
+        read(0, 30);
+        assertEquals(30, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Unit test that a smaller pool reads back the hottest pages that fit
+     */
+    @Test public void hottestFirst() throws Exception {
+        read(0, 30);
+        read(10, 20);
+        bp.saveHotPages(f);
+        assertEquals(pid(19), bp.getHotPages().get(0));
+
+        bp = Database.resetBufferPool(10, ReplacementPolicy.Type.LRU_K);
+        assertEquals(10, (int) bp.warmUp(f).get());
+        read(10, 20);
+        assertEquals(10, bp.getHitCount());
+    }
+
+    /**
+     * Unit test that warm-up skips pages of dropped tables and pages past
+     * the end of a file, and never evicts
+     */
+    @Test public void skipsStalePages() throws Exception {
+        HotPageFile.write(f, Arrays.asList(pid(0), new HeapPageId(hf.getId() + 1, 0),
+                pid(hf.numPages()), pid(1), pid(2)));
+        bp = Database.resetBufferPool(2, ReplacementPolicy.Type.LRU_K);
+        read(5, 6);
+        assertEquals(1, (int) bp.warmUp(f).get());
+        read(5, 6);
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * Unit test that the hot pages are dumped periodically and on stop
+     */
+    @Test public void periodicDump() throws Exception {
+        bp.startHotPageDump(f, 10);
+        read(0, 5);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (HotPageFile.read(f).size() < 5 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(5, HotPageFile.read(f).size());
+
+        read(5, 8);
+        bp.stopHotPageDump();
+        assertEquals(8, HotPageFile.read(f).size());
+        assertEquals(0, bp.getHotPageDumpErrors());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWarmUpTest.class);
+    }
+}
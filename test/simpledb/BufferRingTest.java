@@ -0,0 +1,66 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BufferPool.bulkReadRing()
+     */
+    @Test public void ringSize() {
+        BufferPool bp = Database.resetBufferPool(40);
+        assertNull(bp.bulkReadRing(40));
+        assertEquals(5, bp.bulkReadRing(41).size());
+        bp = Database.resetBufferPool(1000);
+        assertEquals(BufferPool.RING_PAGES, bp.bulkReadRing(1001).size());
+    }
+
+    /**
+     * Unit test that a scan of a table larger than the pool leaves the pages
+     * other transactions use cached
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        HeapFile cold = SystemTestUtil.createRandomHeapFile(2, 30000, null, null);
+        assertTrue(cold.numPages() > 40);
+        BufferPool bp = Database.resetBufferPool(40);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        DbFileIterator it = cold.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(30000, n);
+
+        long misses = bp.getMissCount();
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
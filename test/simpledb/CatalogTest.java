@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -15,6 +18,8 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageCodec;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +102,38 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that the page format and codec of a table can be chosen in the
+     * schema
+     */
+    @Test public void loadSchemaPageFormat() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(schema)) {
+            w.println("rows (a int, b string)");
+            w.println("slots (a int, b string) slotted");
+            w.println("cols (a int pk, b int) pax");
+            w.println("packed (a int, b string) slotted lz");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        assertEquals(HeapFile.PageFormat.FIXED, pageFormat("rows"));
+        assertEquals(HeapFile.PageFormat.SLOTTED, pageFormat("slots"));
+        assertEquals(HeapFile.PageFormat.PAX, pageFormat("cols"));
+        assertEquals(HeapFile.PageFormat.SLOTTED, pageFormat("packed"));
+        HeapFile packed = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("packed"));
+        assertEquals(PageCodec.LZ, packed.getPageCodec());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(Database.getCatalog().getTableId("cols")));
+    }
+
+    private static HeapFile.PageFormat pageFormat(String table) {
+        int id = Database.getCatalog().getTableId(table);
+        return ((HeapFile) Database.getCatalog().getDatabaseFile(id)).getPageFormat();
+    }
+
     /**
      * JUnit suite target
      */
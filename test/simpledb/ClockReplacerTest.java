@@ -0,0 +1,79 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ClockReplacerTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test that the page accessed least recently since the last sweep is
+     * chosen, and that recently accessed pages get a second chance
+     */
+    @Test public void secondChance() {
+        ClockReplacer r = new ClockReplacer();
+        for (int i = 0; i < 4; i++)
+            r.add(pid(i));
+        // the first sweep clears every reference bit, then picks page 0
+        assertEquals(pid(0), r.victim(p -> true));
+        r.remove(pid(0));
+
+        r.recordAccess(pid(1));
+        assertEquals(pid(2), r.victim(p -> true));
+        r.remove(pid(2));
+        assertEquals(2, r.size());
+    }
+
+    /**
+     * Unit test that pages that aren't evictable are skipped, and null is
+     * returned if no page is
+     */
+    @Test public void notEvictable() {
+        ClockReplacer r = new ClockReplacer();
+        assertNull(r.victim(p -> true));
+        for (int i = 0; i < 3; i++)
+            r.add(pid(i));
+        assertEquals(pid(2), r.victim(p -> p.getPageNumber() == 2));
+        assertNull(r.victim(p -> false));
+    }
+
+    /**
+     * Unit test that removing and re-adding pages keeps the clock consistent
+     */
+    @Test public void removeAndAdd() {
+        ClockReplacer r = new ClockReplacer();
+        for (int i = 0; i < 100; i++)
+            r.add(pid(i));
+        r.add(pid(5));
+        assertEquals(100, r.size());
+        for (int i = 0; i < 100; i += 2)
+            r.remove(pid(i));
+        r.remove(pid(0));
+        assertEquals(50, r.size());
+        for (int i = 0; i < 50; i++) {
+            PageId victim = r.victim(p -> true);
+            assertEquals(1, victim.getPageNumber() % 2);
+            r.remove(victim);
+        }
+        assertEquals(0, r.size());
+        assertNull(r.victim(p -> true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClockReplacerTest.class);
+    }
+}
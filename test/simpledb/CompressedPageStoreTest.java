@@ -0,0 +1,155 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+
+    private File dataFile;
+    private File indexFile;
+    private PageChannel channel;
+
+    @Before public void setUp() throws Exception {
+        dataFile = File.createTempFile("compressed", ".dat");
+        dataFile.deleteOnExit();
+        indexFile = new File(dataFile.getPath() + ".pidx");
+        indexFile.deleteOnExit();
+        channel = new PageChannel(dataFile);
+    }
+
+    @After public void tearDown() throws Exception {
+        channel.close();
+    }
+
+    private static byte[] page(int seed, int randomBytes) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        byte[] r = new byte[randomBytes];
+        new Random(seed).nextBytes(r);
+        System.arraycopy(r, 0, page, 0, randomBytes);
+        return page;
+    }
+
+    private static void assertPage(CompressedPageStore store, int pgNo, byte[] expected) throws Exception {
+        byte[] buf = new byte[expected.length];
+        store.readPage(pgNo, buf);
+        assertArrayEquals(expected, buf);
+    }
+
+    /**
+     * Unit test for CompressedPageStore.writePage() and readPage(), including
+     * pages that are never written
+     */
+    @Test public void writeThenRead() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(channel, PageCodec.LZ, indexFile);
+        store.writePage(0, page(0, 100));
+        store.writePage(2, page(2, 100));
+        assertEquals(3, store.numPages());
+        assertPage(store, 0, page(0, 100));
+        assertPage(store, 1, new byte[BufferPool.getPageSize()]);
+        assertPage(store, 2, page(2, 100));
+        assertTrue(channel.size() < 2 * BufferPool.getPageSize() / 4);
+    }
+
+    /**
+     * Unit test that a page that still fits its record is rewritten in place,
+     * and one that doesn't is moved to the end of the file
+     */
+    @Test public void rewrite() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(channel, PageCodec.RLE, indexFile);
+        store.writePage(0, page(0, 100));
+        store.writePage(1, page(1, 100));
+        long size = channel.size();
+
+        store.writePage(0, page(10, 90));
+        assertEquals(size, channel.size());
+        store.writePage(0, page(20, 1000));
+        assertTrue(channel.size() > size);
+
+        assertPage(store, 0, page(20, 1000));
+        assertPage(store, 1, page(1, 100));
+    }
+
+    /**
+     * Unit test that the index is saved by force(), and rebuilt from the data
+     * file if it is lost or out of date
+     */
+    @Test public void reopen() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(channel, PageCodec.LZ, indexFile);
+        for (int i = 0; i < 5; i++)
+            store.writePage(i, page(i, 200));
+        store.force();
+        store.close();
+        assertTrue(indexFile.exists());
+
+        store = new CompressedPageStore(channel, PageCodec.LZ, indexFile);
+        assertEquals(5, store.numPages());
+        assertPage(store, 3, page(3, 200));
+        // appended without saving the index
+        store.writePage(3, page(30, 2000));
+        store.close();
+
+        store = new CompressedPageStore(channel, PageCodec.LZ, indexFile);
+        assertEquals(5, store.numPages());
+        assertPage(store, 3, page(30, 2000));
+        store.close();
+
+        assertTrue(indexFile.delete());
+        store = new CompressedPageStore(channel, PageCodec.LZ, indexFile);
+        assertEquals(5, store.numPages());
+        for (int i = 0; i < 5; i++)
+            assertPage(store, i, i == 3 ? page(30, 2000) : page(i, 200));
+        store.close();
+    }
+
+    /**
+     * Unit test for a compressed HeapFile, written and read through the
+     * BufferPool
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        HeapFile hf = new HeapFile(dataFile, Utility.getTupleDesc(2),
+                HeapFile.PageFormat.FIXED, PageCodec.RLE);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[2000];
+        while (it.hasNext())
+            seen[((IntField) it.next().getField(0)).getValue()] = true;
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        boolean[] all = new boolean[2000];
+        Arrays.fill(all, true);
+        assertArrayEquals(all, seen);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -219,6 +222,137 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Unit test that a deadlock aborts only its youngest transaction, soon
+   * after it forms.
+   */
+  @Test public void youngestVictim() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+    lg2.join(5000);
+    assertNotNull(lg2.getError());
+    // the victim's grabber aborts it, which hands p1 to tid1
+    lg1.join(5000);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getDeadlockCount());
+    assertTrue(bp.getDeadlockCheckCount() > 0);
+    assertTrue(bp.getMaxDeadlockCheckNanos() > 0);
+  }
+
+  /**
+   * Unit test that the FEWEST_LOCKS policy aborts the transaction holding
+   * the fewest locks, even if it is the oldest.
+   */
+  @Test public void fewestLocksVictim() throws Exception {
+    bp.setDeadlockVictimPolicy(BufferPool.VictimPolicy.FEWEST_LOCKS);
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+    lg1.join(5000);
+    assertNotNull(lg1.getError());
+    lg2.join(5000);
+    assertTrue(lg2.acquired());
+  }
+
+  /**
+   * Unit test that a long wait that isn't a deadlock is never aborted.
+   */
+  @Test public void noFalseAbort() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(2000);
+    assertFalse(lg2.acquired());
+    assertNull(lg2.getError());
+
+    bp.transactionComplete(tid1);
+    lg2.join(5000);
+    assertTrue(lg2.acquired());
+    assertEquals(0, bp.getDeadlockCount());
+  }
+
+  /**
+   * Unit test that under wait-die the younger transaction of a would-be
+   * deadlock is aborted as soon as it asks to wait for the older one.
+   */
+  @Test public void waitDie() throws Exception {
+    bp.setDeadlockPolicy(BufferPool.DeadlockPolicy.WAIT_DIE);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    // the older transaction waits
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+    assertNull(lg1.getError());
+
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    lg2.join(5000);
+    assertNotNull(lg2.getError());
+    lg1.join(5000);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getDeadlockPreventionAbortCount());
+    assertEquals(0, bp.getDeadlockCheckCount());
+  }
+
+  /**
+   * Unit test that under wound-wait an older transaction aborts the younger
+   * one it would wait for, if the younger one is waiting.
+   */
+  @Test public void woundWaiting() throws Exception {
+    bp.setDeadlockPolicy(BufferPool.DeadlockPolicy.WOUND_WAIT);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    // the younger transaction waits
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg2.acquired());
+    assertNull(lg2.getError());
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    lg2.join(5000);
+    assertNotNull(lg2.getError());
+    lg1.join(5000);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getDeadlockPreventionAbortCount());
+    assertEquals(0, bp.getDeadlockCheckCount());
+  }
+
+  /**
+   * Unit test that under wound-wait a younger transaction that isn't
+   * waiting is aborted at its next lock request.
+   */
+  @Test public void woundRunning() throws Exception {
+    bp.setDeadlockPolicy(BufferPool.DeadlockPolicy.WOUND_WAIT);
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+
+    LockGrabber lg2 = startGrabber(tid2, p2, Permissions.READ_ONLY);
+    lg2.join(5000);
+    assertNotNull(lg2.getError());
+    lg1.join(5000);
+    assertTrue(lg1.acquired());
+  }
+
+  /**
+   * Unit test that the deadlock policy is parsed from its name.
+   */
+  @Test public void parseDeadlockPolicy() {
+    assertEquals(BufferPool.DeadlockPolicy.WAIT_DIE, BufferPool.DeadlockPolicy.parse("wait-die"));
+    assertEquals(BufferPool.DeadlockPolicy.WOUND_WAIT, BufferPool.DeadlockPolicy.parse(" Wound_Wait"));
+    assertEquals(BufferPool.DeadlockPolicy.DETECT, BufferPool.DeadlockPolicy.parse("detect"));
+  }
+
   /**
    * JUnit suite target
    */
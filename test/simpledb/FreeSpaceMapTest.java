@@ -0,0 +1,164 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File heapFile;
+    private File mapFile;
+
+    @Before public void setUp() throws Exception {
+        heapFile = File.createTempFile("fsm", ".dat");
+        heapFile.deleteOnExit();
+        mapFile = new File(heapFile.getPath() + ".fsm");
+        mapFile.deleteOnExit();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.setFree() and FreeSpaceMap.nextFreePage()
+     */
+    @Test public void nextFreePage() {
+        FreeSpaceMap fsm = new FreeSpaceMap(mapFile);
+        fsm.reset(10);
+        assertEquals(-1, fsm.nextFreePage(0));
+
+        fsm.setFree(3, true);
+        fsm.setFree(7, true);
+        assertEquals(3, fsm.nextFreePage(0));
+        assertEquals(7, fsm.nextFreePage(4));
+
+        fsm.setFree(3, false);
+        assertEquals(7, fsm.nextFreePage(0));
+
+        // setting a page past the end grows the map
+        fsm.setFree(20, true);
+        assertEquals(21, fsm.numPages());
+        assertEquals(20, fsm.nextFreePage(8));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.save() and FreeSpaceMap.load(), including
+     * maps that span more than one chunk
+     */
+    @Test public void saveAndLoad() throws Exception {
+        int numPages = FreeSpaceMap.CHUNK_BYTES * 8 + 100;
+        FreeSpaceMap fsm = new FreeSpaceMap(mapFile);
+        fsm.reset(numPages);
+        fsm.setFree(5, true);
+        fsm.setFree(numPages - 1, true);
+        fsm.save();
+        fsm.close();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(mapFile);
+        assertTrue(loaded.load(numPages));
+        assertEquals(5, loaded.nextFreePage(0));
+        assertEquals(numPages - 1, loaded.nextFreePage(6));
+
+        // a map that doesn't cover the heap file's pages is not trusted
+        assertFalse(new FreeSpaceMap(mapFile).load(numPages + 1));
+        loaded.close();
+    }
+
+    /**
+     * Unit test that a map changed since it was last saved is not trusted
+     */
+    @Test public void staleMap() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(mapFile);
+        fsm.reset(1);
+        fsm.save();
+        fsm.close();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(mapFile);
+        assertTrue(loaded.load(1));
+        loaded.setFree(0, true);
+        loaded.close();
+        assertFalse(new FreeSpaceMap(mapFile).load(1));
+
+        loaded.save();
+        loaded.close();
+        assertTrue(new FreeSpaceMap(mapFile).load(1));
+
+        // nor is a saved map that recovery has invalidated
+        FreeSpaceMap recovered = new FreeSpaceMap(mapFile);
+        recovered.invalidate();
+        recovered.close();
+        assertFalse(new FreeSpaceMap(mapFile).load(1));
+    }
+
+    /**
+     * Unit test that a map whose bitmap doesn't match its checksum is not
+     * trusted
+     */
+    @Test public void corruptMap() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(mapFile);
+        fsm.reset(100);
+        fsm.setFree(50, true);
+        fsm.save();
+        fsm.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(mapFile, "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write(0xff);
+        }
+        assertFalse(new FreeSpaceMap(mapFile).load(100));
+    }
+
+    /**
+     * Unit test that a page an aborted insert filled is used again
+     */
+    @Test public void abortedInsertFreesPage() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(0, 2));
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        int slots = ((HeapFilePage) bp.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 1; i < slots; i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+
+        // fills the page, then aborts
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(slots, 2));
+        assertEquals(0, ((HeapFilePage) bp.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(slots, 2));
+        bp.transactionComplete(tid);
+        assertEquals(1, hf.numPages());
+    }
+
+    /**
+     * Unit test that there's no map to load if it was never saved
+     */
+    @Test public void missingMap() throws Exception {
+        try (FileOutputStream fos = new FileOutputStream(heapFile)) {
+            fos.write(new byte[0]);
+        }
+        assertFalse(new FreeSpaceMap(mapFile).load(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
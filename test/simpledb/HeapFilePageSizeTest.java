@@ -0,0 +1,171 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class HeapFilePageSizeTest extends SimpleDbTestBase {
+
+    private File f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".pidx").deleteOnExit();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private HeapFile open(HeapFile.PageFormat format, PageCodec codec, int pageSize) {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), format, codec, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** Inserts n tuples into hf, commits and flushes them. */
+    private List<List<Integer>> insert(HeapFile hf, int n) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+            tuples.add(Arrays.asList(i, i));
+        }
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+        return tuples;
+    }
+
+    /**
+     * Unit test that a file written by the encoder with pages of another size
+     * records it, and reads back with pages of that size
+     */
+    @Test public void encodedFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            tuples.add(Arrays.asList(i, -i));
+        HeapFileEncoder.convert(tuples, f, 16384, 2);
+
+        HeapFile hf = Utility.openHeapFile(2, f);
+        assertEquals(16384, hf.getPageSize());
+        int perPage = (16384 * 8) / (8 * 8 + 1);
+        assertEquals((5000 + perPage - 1) / perPage, hf.numPages());
+        assertEquals(HeapFile.HEADER_SIZE + hf.numPages() * 16384L, f.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that a new file gets a header, and is read with pages of its
+     * size when reopened
+     */
+    @Test public void newFile() throws Exception {
+        HeapFile hf = open(HeapFile.PageFormat.FIXED, null, 32768);
+        assertEquals(HeapFile.HEADER_SIZE, f.length());
+        List<List<Integer>> tuples = insert(hf, 6000);
+        assertEquals(2, hf.numPages());
+        assertEquals(HeapFile.HEADER_SIZE + 2 * 32768L, f.length());
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open(HeapFile.PageFormat.FIXED, null, 0);
+        assertEquals(32768, hf.getPageSize());
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that compressed slotted files keep their records past the
+     * header
+     */
+    @Test public void compressedFile() throws Exception {
+        HeapFile hf = open(HeapFile.PageFormat.SLOTTED, PageCodec.LZ, 8192);
+        List<List<Integer>> tuples = insert(hf, 3000);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open(HeapFile.PageFormat.SLOTTED, PageCodec.LZ, 0);
+        assertEquals(8192, hf.getPageSize());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that a file without a header has pages of the database's size
+     */
+    @Test public void headerless() throws Exception {
+        HeapFile hf = open(HeapFile.PageFormat.FIXED, null, BufferPool.getPageSize());
+        assertEquals(BufferPool.getPageSize(), hf.getPageSize());
+        assertEquals(0, f.length());
+        List<List<Integer>> tuples = insert(hf, 1000);
+        assertEquals(hf.numPages() * (long) BufferPool.getPageSize(), f.length());
+
+        hf = open(HeapFile.PageFormat.FIXED, null, BufferPool.getPageSize());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that a headerless file whose first page happens to begin
+     * with the header's magic number is still read as headerless
+     */
+    @Test public void magicWithoutHeader() throws Exception {
+        // even the page size and its checksum are those of a header
+        byte[] page = new byte[BufferPool.getPageSize()];
+        Arrays.fill(page, (byte) 0xff);
+        ByteBuffer.wrap(page).putLong(0x5344424845415046L).putInt(16384);
+        CRC32 crc = new CRC32();
+        crc.update(page, 0, 12);
+        ByteBuffer.wrap(page, 12, 4).putInt((int) crc.getValue());
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(page);
+        }
+        HeapFile hf = open(HeapFile.PageFormat.FIXED, null, 0);
+        assertEquals(BufferPool.getPageSize(), hf.getPageSize());
+        assertEquals(1, hf.numPages());
+    }
+
+    /**
+     * Unit test that unsupported sizes and sizes that don't match the file
+     * are rejected
+     */
+    @Test public void badSizes() throws Exception {
+        for (int size : new int[] { 256, 3000, 128 * 1024 }) {
+            try {
+                open(HeapFile.PageFormat.FIXED, null, size);
+                fail("expected IllegalArgumentException for " + size);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(0, f.length());
+
+        open(HeapFile.PageFormat.FIXED, null, 16384);
+        try {
+            open(HeapFile.PageFormat.FIXED, null, 8192);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFilePageSizeTest.class);
+    }
+}
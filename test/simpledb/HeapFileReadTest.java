@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -126,6 +127,65 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for reading a HeapFile through the memory-mapped path
+     */
+    @Test
+    public void testMemoryMappedIterator() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, tuples);
+        twoPageFile.setMemoryMapped(true);
+        assertTrue(twoPageFile.isMemoryMapped());
+
+        HeapPage page = (HeapPage) twoPageFile.readPage(
+                new HeapPageId(twoPageFile.getId(), 1));
+        assertEquals(488, page.getNumEmptySlots());
+
+        SystemTestUtil.matchTuples(twoPageFile, tid, tuples);
+    }
+
+    /**
+     * Unit test for HeapFile.iterator() with read-ahead
+     */
+    @Test
+    public void testReadAheadIterator() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile fivePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 5,
+                null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = fivePageFile.iterator(tid, 3);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage()
+     */
+    @Test
+    public void prefetchPage() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Database.getBufferPool().prefetchPage(pid);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.getBufferPool().getPrefetchedCount() == 0
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, Database.getBufferPool().getPrefetchedCount());
+
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_ONLY);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
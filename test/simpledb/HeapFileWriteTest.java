@@ -10,9 +10,14 @@ import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +55,88 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A HeapFile whose writes of empty pages are slow, so that inserters
+     * appending pages overlap.
+     */
+    private static class SlowHeapFile extends HeapFile {
+        SlowHeapFile(HeapFile hf) {
+            super(hf.getFile(), hf.getTupleDesc());
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (!((HeapFilePage) page).iterator().hasNext()) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            super.writePage(page);
+        }
+    }
+
+    /**
+     * Unit test that transactions appending pages to a file at the same time
+     * lose none of the tuples they commit
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final int threads = 2;
+        final int transactions = 3;
+        // a page's worth, so that each transaction appends a page
+        final int tuples = 504;
+        HeapFile slow = new SlowHeapFile(empty);
+        Database.getCatalog().addTable(slow);
+        BufferPool bp = Database.getBufferPool();
+        List<Thread> inserters = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int n = 0; n < threads; n++) {
+            final int first = n * transactions * tuples;
+            inserters.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < transactions; i++) {
+                        while (true) {
+                            TransactionId me = new TransactionId();
+                            try {
+                                for (int j = 0; j < tuples; j++)
+                                    bp.insertTuple(me, slow.getId(),
+                                            Utility.getHeapTuple(first + i * tuples + j, 2));
+                                bp.transactionComplete(me);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                bp.transactionComplete(me, false);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : inserters)
+            t.start();
+        for (Thread t : inserters)
+            t.join();
+        if (!errors.isEmpty())
+            throw errors.get(0);
+
+        // committed under FORCE, so the file on disk must have them all
+        boolean[] seen = new boolean[threads * transactions * tuples];
+        for (int pgNo = 0; pgNo < slow.numPages(); pgNo++) {
+            HeapFilePage pg = (HeapFilePage) slow.readPage(new HeapPageId(slow.getId(), pgNo));
+            for (Iterator<Tuple> it = pg.iterator(); it.hasNext(); ) {
+                int v = ((IntField) it.next().getField(0)).getValue();
+                assertFalse(seen[v]);
+                seen[v] = true;
+            }
+        }
+        for (int v = 0; v < seen.length; v++)
+            assertTrue("lost tuple " + v, seen[v]);
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
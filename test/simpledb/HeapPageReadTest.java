@@ -102,6 +102,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator() on a page in lazy mode
+     */
+    @Test public void testLazyIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA.clone(), true);
+        Iterator<Tuple> it = page.iterator();
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(tup instanceof LazyTuple);
+            assertEquals(EXAMPLE_VALUES[row][1], ((LazyTuple) tup).getInt(1));
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        // an untouched lazy page serializes back to the bytes it was read from
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -14,6 +15,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +133,68 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() and HeapPage.writePageData() after
+     * the page has been modified
+     */
+    @Test public void pageDataAfterUpdates() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[] {7, 8});
+        page.insertTuple(addition);
+        page.insertTuple(Utility.getHeapTuple(new int[] {9, 10}));
+
+        byte[] data = page.getPageData();
+        ByteBuffer buf = ByteBuffer.allocate(data.length);
+        page.writePageData(buf);
+        assertArrayEquals(data, buf.array());
+
+        // the image re-parses to the same set of tuples, lazily or not
+        for (boolean lazy : new boolean[] {false, true}) {
+            HeapPage copy = new HeapPage(pid, data.clone(), lazy);
+            assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+            Iterator<Tuple> it = page.iterator();
+            Iterator<Tuple> copyIt = copy.iterator();
+            while (it.hasNext())
+                assertTrue(TestUtil.compareTuples(it.next(), copyIt.next()));
+            assertFalse(copyIt.hasNext());
+        }
+        assertEquals(addition.getRecordId(), first.getRecordId());
+    }
+
+    /**
+     * Unit test that a lazily decoded tuple keeps its values after it is
+     * deleted and its slot is reused
+     */
+    @Test public void deleteLazyTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone(), true);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(HeapPageReadTest.EXAMPLE_VALUES[0]), first));
+    }
+
+    /**
+     * Unit test that a tuple changed in place through Tuple.setField is
+     * serialized with its new values, lazily decoded or not
+     */
+    @Test public void changeInPlace() throws Exception {
+        for (boolean lazy : new boolean[] {false, true}) {
+            HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone(), lazy);
+            Tuple first = page.iterator().next();
+            first.setField(1, new IntField(-1));
+            Tuple inserted = Utility.getHeapTuple(new int[] {7, 8});
+            page.insertTuple(inserted);
+            inserted.setField(0, new IntField(-2));
+
+            HeapPage copy = new HeapPage(pid, page.getPageData());
+            assertTrue(TestUtil.compareTuples(first, copy.getTuple(first.getRecordId().getTupleNumber())));
+            assertTrue(TestUtil.compareTuples(inserted, copy.getTuple(inserted.getRecordId().getTupleNumber())));
+            assertEquals(-1, ((IntField) copy.getTuple(0).getField(1)).getValue());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,6 +3,8 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
@@ -193,6 +195,51 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test that a read lock request queues behind a waiting write lock
+   * request, and that a release grants the queued request.
+   */
+  @Test public void readerQueuesBehindWriter() throws Exception {
+    bp.setLockTimeout(10000);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    grabLock(new TransactionId(), p0, Permissions.READ_ONLY, false);
+
+    bp.transactionComplete(tid1);
+    writer.join(5000);
+    assertTrue(writer.acquired());
+    assertTrue(bp.holdsLock(tid2, p0));
+  }
+
+  /**
+   * Unit test that a lock upgrade goes ahead of the waiting requests.
+   */
+  @Test public void upgradeQueuesFirst() throws Exception {
+    bp.setLockTimeout(10000);
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber upgrade = new TestUtil.LockGrabber(tid1, p0, Permissions.READ_WRITE);
+    upgrade.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(upgrade.acquired());
+
+    bp.transactionComplete(tid2);
+    upgrade.join(5000);
+    assertTrue(upgrade.acquired());
+    assertFalse(writer.acquired());
+
+    bp.transactionComplete(tid1);
+    writer.join(5000);
+    assertTrue(writer.acquired());
+  }
+
   /**
    * JUnit suite target
    */
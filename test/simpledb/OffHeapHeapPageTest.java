@@ -0,0 +1,166 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OffHeapHeapPageTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setOffHeapFrames(BufferPool.DEFAULT_PAGES * 2);
+    }
+
+    /** Reads every tuple of the file, through the pool or from disk. */
+    private List<List<Integer>> read(boolean fromDisk) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            Page pg = fromDisk ? hf.readPage(pid) : bp.getPage(tid, pid, Permissions.READ_ONLY);
+            for (Iterator<Tuple> it = ((HeapFilePage) pg).iterator(); it.hasNext(); )
+                rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        bp.transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Unit test that pages are read into arena frames, and hold the same
+     * tuples and image as a HeapPage
+     */
+    @Test public void readsIntoFrames() throws Exception {
+        FrameArena arena = bp.getFrameArena();
+        int free = arena.getFreeFrameCount();
+        Page pg = bp.getPage(new TransactionId(), new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(pg instanceof OffHeapHeapPage);
+        assertEquals(free - 1, arena.getFreeFrameCount());
+
+        byte[] data = pg.getPageData();
+        assertArrayEquals(data, new HeapPage((HeapPageId) pg.getId(), data).getPageData());
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        pg.writePageData(buf);
+        assertArrayEquals(data, buf.array());
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(tuples.size(), read(false).size());
+    }
+
+    /**
+     * Unit test that inserts and deletes change the frame, and that commits
+     * and aborts see the right before-image
+     */
+    @Test public void insertDeleteAbort() throws Exception {
+        TransactionId t1 = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(t1, hf.getId(), Utility.getHeapTuple(i, 3));
+        bp.transactionComplete(t1);
+        assertEquals(2010, read(true).size());
+
+        TransactionId t2 = new TransactionId();
+        Page pg = bp.getPage(t2, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        int empty = ((HeapFilePage) pg).getNumEmptySlots();
+        Tuple victim = ((HeapFilePage) pg).iterator().next();
+        List<Integer> row = SystemTestUtil.tupleToList(victim);
+        bp.deleteTuple(t2, victim);
+        // the deleted tuple was decoded before its slot was cleared
+        assertEquals(row, SystemTestUtil.tupleToList(victim));
+        assertEquals(empty + 1, ((HeapFilePage) pg).getNumEmptySlots());
+        bp.transactionComplete(t2, false);
+        assertEquals(2010, read(false).size());
+        assertEquals(2010, read(true).size());
+    }
+
+    /**
+     * Unit test that the tuples of an off-heap page can't be changed in
+     * place, which the page could never write
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewsAreReadOnly() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page pg = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        ((HeapFilePage) pg).iterator().next().setField(0, new IntField(-1));
+    }
+
+    /**
+     * Unit test that the arena hands out heap frames when it runs out, and
+     * reuses frames nothing references any more
+     */
+    @Test public void arenaReclaims() throws Exception {
+        FrameArena arena = new FrameArena(4, 4096);
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            frames.add(arena.allocate());
+        assertTrue(frames.get(0).isDirect());
+        assertEquals(4096, frames.get(0).capacity());
+        assertEquals(0, arena.getFreeFrameCount());
+        assertFalse(arena.allocate().isDirect());
+        assertEquals(1, arena.getHeapFrameCount());
+
+        frames.clear();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (arena.getFreeFrameCount() < 4 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(4, arena.getFreeFrameCount());
+        assertTrue(arena.allocate().isDirect());
+    }
+
+    /**
+     * Unit test that pages give their frames back as they are evicted, so
+     * that scanning a file many times the size of the pool, while keeping
+     * the tuples read, never runs the arena dry
+     */
+    @Test public void evictionFreesFrames() throws Exception {
+        bp = Database.resetBufferPool(2);
+        FrameArena arena = bp.setOffHeapFrames(2);
+        assertTrue(hf.numPages() > 2);
+        List<Tuple> kept = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            TransactionId tid = new TransactionId();
+            kept.clear();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                kept.add(it.next());
+            it.close();
+            bp.transactionComplete(tid);
+        }
+        assertEquals(0, arena.getHeapFrameCount());
+        // tuples of evicted pages still read what the page held
+        List<List<Integer>> rows = new ArrayList<>();
+        for (Tuple t : kept)
+            rows.add(SystemTestUtil.tupleToList(t));
+        assertEquals(tuples, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapHeapPageTest.class);
+    }
+}
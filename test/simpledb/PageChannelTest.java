@@ -0,0 +1,113 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.PageChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+    private File f;
+    private PageChannel channel;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        channel = new PageChannel(f);
+    }
+
+    @After public void tearDown() throws Exception {
+        channel.close();
+    }
+
+    /**
+     * Unit test for PageChannel.write() and PageChannel.read()
+     */
+    @Test public void writeThenRead() throws Exception {
+        byte[] page = new byte[64];
+        Arrays.fill(page, (byte) 7);
+        channel.write(128, page);
+        assertEquals(192, channel.size());
+
+        byte[] buf = new byte[64];
+        assertEquals(64, channel.read(128, buf));
+        assertArrayEquals(page, buf);
+
+        // the hole before the page reads back as zeroes
+        assertEquals(64, channel.read(0, buf));
+        assertArrayEquals(new byte[64], buf);
+    }
+
+    /**
+     * Unit test for PageChannel.read() at and past the end of the file
+     */
+    @Test public void readPastEnd() throws Exception {
+        channel.write(0, new byte[32]);
+        byte[] buf = new byte[64];
+        assertEquals(32, channel.read(0, buf));
+        assertEquals(-1, channel.read(32, buf));
+    }
+
+    /**
+     * Unit test for reopening a PageChannel after close()
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        byte[] page = {1, 2, 3, 4};
+        channel.write(0, page);
+        channel.force();
+        channel.close();
+
+        byte[] buf = new byte[4];
+        assertEquals(4, channel.read(0, buf));
+        assertArrayEquals(page, buf);
+    }
+
+    /**
+     * Unit test for reads served from a memory mapping, including reads of
+     * data appended after the file was first mapped
+     */
+    @Test public void mappedRead() throws Exception {
+        byte[] page = new byte[64];
+        Arrays.fill(page, (byte) 3);
+        channel.write(0, page);
+        channel.setMapped(true);
+        assertTrue(channel.isMapped());
+
+        byte[] buf = new byte[64];
+        assertEquals(64, channel.read(0, buf));
+        assertArrayEquals(page, buf);
+        assertEquals(-1, channel.read(64, buf));
+
+        Arrays.fill(page, (byte) 9);
+        channel.write(64, page);
+        assertEquals(64, channel.read(64, buf));
+        assertArrayEquals(page, buf);
+    }
+
+    /**
+     * Unit test for PageChannel.size() on a file that doesn't exist yet
+     */
+    @Test public void missingFile() throws Exception {
+        File missing = new File(f.getPath() + ".missing");
+        PageChannel pc = new PageChannel(missing);
+        assertEquals(0, pc.size());
+        assertEquals(-1, pc.read(0, new byte[8]));
+        assertFalse(missing.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.PageCodec;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+    private static byte[] roundTrip(PageCodec codec, byte[] data) {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int len = codec.compress(data, data.length, compressed);
+        assertTrue(len <= compressed.length);
+        byte[] out = new byte[data.length];
+        codec.decompress(compressed, 0, len, out);
+        assertArrayEquals(data, out);
+        return Arrays.copyOf(compressed, len);
+    }
+
+    /**
+     * A page image like a HeapPage's: a few used slots holding small ints and
+     * short zero-padded strings, then empty slots.
+     */
+    private static byte[] pageLike() {
+        byte[] page = new byte[4096];
+        for (int i = 0; i < 10; i++) {
+            int off = 4 + i * 136;
+            page[off + 3] = (byte) i;
+            page[off + 7] = 5;
+            System.arraycopy("hello".getBytes(), 0, page, off + 8, 5);
+        }
+        return page;
+    }
+
+    /**
+     * Unit test that both codecs reproduce their input exactly
+     */
+    @Test public void roundTrips() {
+        Random r = new Random(42);
+        byte[] random = new byte[4096];
+        r.nextBytes(random);
+        byte[] runs = new byte[4096];
+        for (int i = 0; i < runs.length; i++)
+            runs[i] = (byte) (i / 300);
+
+        for (PageCodec codec : PageCodec.values()) {
+            roundTrip(codec, new byte[0]);
+            roundTrip(codec, new byte[] { 1, 2, 3 });
+            roundTrip(codec, new byte[4096]);
+            roundTrip(codec, random);
+            roundTrip(codec, runs);
+            roundTrip(codec, pageLike());
+        }
+    }
+
+    /**
+     * Unit test that mostly empty pages compress well
+     */
+    @Test public void compressesPadding() {
+        for (PageCodec codec : PageCodec.values()) {
+            assertTrue(codec + " empty page", roundTrip(codec, new byte[4096]).length < 100);
+            assertTrue(codec + " sparse page", roundTrip(codec, pageLike()).length < 512);
+        }
+        // LZ also finds the repeated strings
+        assertTrue(roundTrip(PageCodec.LZ, pageLike()).length
+                < roundTrip(PageCodec.RLE, pageLike()).length);
+    }
+
+    /**
+     * Unit test that corrupt input is detected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shortOutput() {
+        byte[] compressed = roundTrip(PageCodec.RLE, new byte[100]);
+        PageCodec.RLE.decompress(compressed, 0, compressed.length, new byte[200]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageHandleTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        bp = Database.resetBufferPool(2);
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test that a pinned page is never evicted
+     */
+    @Test public void pinnedNotEvicted() throws Exception {
+        TransactionId tid = new TransactionId();
+        PageHandle h = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(pid(0), h.getPage().getId());
+        assertEquals(1, bp.getPinCount(pid(0)));
+
+        for (int i = 1; i < 5; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        long misses = bp.getMissCount();
+        assertSame(h.getPage(), bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertEquals(misses, bp.getMissCount());
+
+        h.close();
+        h.close();
+        assertFalse(h.isOpen());
+        assertEquals(0, bp.getPinCount(pid(0)));
+        for (int i = 1; i < 5; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(misses + 5, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that pins are counted, and that handles left open are closed
+     * when their transaction completes
+     */
+    @Test public void pinCounts() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageHandle a = bp.pinPage(t1, pid(0), Permissions.READ_ONLY);
+        PageHandle b = bp.pinPage(t2, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(t2, pid(1), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(0)));
+
+        a.close();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.transactionComplete(t2);
+        assertFalse(b.isOpen());
+        assertEquals(0, bp.getPinCount(pid(0)));
+        assertEquals(0, bp.getPinCount(pid(1)));
+        bp.transactionComplete(t1);
+    }
+
+    /**
+     * Unit test that a scan unpins each page when it moves on, and the last
+     * one when it is closed
+     */
+    @Test public void scanUnpins() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(3000, n);
+        assertEquals(0, bp.getPinCount(pid(0)));
+        it.close();
+        for (int i = 0; i < hf.numPages(); i++)
+            assertEquals(0, bp.getPinCount(pid(i)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageHandleTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /**
+     * Unit test for PaxHeapPage.insertTuple() and reading the page back from
+     * its image
+     */
+    @Test public void insertAndReread() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        // same number of slots as a HeapPage
+        assertEquals(29, page.getNumEmptySlots());
+        for (int i = 0; i < 20; i++)
+            page.insertTuple(tuple(i));
+
+        PaxHeapPage reread = new PaxHeapPage(pid, page.getPageData());
+        assertEquals(9, reread.getNumEmptySlots());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < 20; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(-i, reread.getInt(i, 2));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test that a tuple changed in place through Tuple.setField is
+     * serialized with its new values
+     */
+    @Test public void changeInPlace() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++)
+            page.insertTuple(tuple(i));
+        Tuple changed = page.iterator().next();
+        changed.setField(0, tuple(9).getField(0));
+
+        PaxHeapPage reread = new PaxHeapPage(pid, page.getPageData());
+        assertTrue(TestUtil.compareTuples(changed, reread.getTuple(0)));
+        assertTrue(TestUtil.compareTuples(tuple(1), reread.getTuple(1)));
+    }
+
+    /**
+     * Unit test for PaxHeapPage.iterator() over a subset of the columns
+     */
+    @Test public void projectedIterator() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+
+        int[] cols = { 2, 0 };
+        TupleDesc projected = TupleDesc.project(td, cols);
+        Iterator<Tuple> it = page.iterator(cols, projected);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(projected, t.getTupleDesc());
+            assertEquals(new IntField(-i), t.getField(0));
+            assertEquals(new IntField(i), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for PaxHeapPage.deleteTuple()
+     */
+    @Test public void deleteTuple() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple first = tuple(1);
+        Tuple second = tuple(2);
+        page.insertTuple(first);
+        page.insertTuple(second);
+        page.deleteTuple(first);
+
+        Iterator<Tuple> it = new PaxHeapPage(pid, page.getPageData()).iterator();
+        assertTrue(TestUtil.compareTuples(second, it.next()));
+        assertFalse(it.hasNext());
+
+        try {
+            page.deleteTuple(first);
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for aggregating one column of a PAX HeapFile through a
+     * projected SeqScan
+     */
+    @Test public void projectedScanAggregate() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3, "f"), HeapFile.PageFormat.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            for (int j = 0; j < 3; j++)
+                t.setField(j, new IntField(i * (j + 1)));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", new int[] { 1 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("t.f1", scan.getTupleDesc().getFieldName(0));
+
+        Aggregate sum = new Aggregate(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        assertEquals(new IntField(999000), sum.next().getField(0));
+        assertFalse(sum.hasNext());
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordLockingTest extends TestUtil.CreateHeapFile {
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setLockGranularity(BufferPool.LockGranularity.RECORD);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+    }
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Returns the first fields of the tuples tid sees in the file. */
+    private List<Integer> scan(TransactionId tid) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return values;
+    }
+
+    /**
+     * Returns the tuple of the file whose first field is v, found by a
+     * transaction of its own, so that the caller holds no lock on the other
+     * records.
+     */
+    private Tuple find(int v) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() == v)
+                    return t;
+            }
+        } finally {
+            it.close();
+            bp.transactionComplete(tid);
+        }
+        throw new AssertionError("no tuple " + v);
+    }
+
+    /** Returns the number of tuples on page 0 as it is on disk. */
+    private int onDisk() {
+        HeapFilePage pg = (HeapFilePage) empty.readPage(new HeapPageId(empty.getId(), 0));
+        int n = 0;
+        for (Iterator<Tuple> it = pg.iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /** Runs work in a thread, reporting whether it completed. */
+    private static class Worker extends Thread {
+        private final Work work;
+        volatile boolean done;
+        volatile Exception error;
+
+        interface Work {
+            void run() throws Exception;
+        }
+
+        Worker(Work work) {
+            this.work = work;
+            start();
+        }
+
+        public void run() {
+            try {
+                work.run();
+                done = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Unit test that transactions change different records of a page
+     * without waiting, and that only the committed changes survive
+     */
+    @Test public void concurrentWriters() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple three = find(3);
+        Tuple four = find(4);
+        bp.deleteTuple(t1, three);
+        bp.deleteTuple(t2, four);
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(100, 2));
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(200, 2));
+        bp.transactionComplete(t2, false);
+        // t1 no longer waits for t2's records, and doesn't see the one it deleted
+        assertEquals(10, scan(t1).size());
+        assertFalse(scan(t1).contains(3));
+        bp.transactionComplete(t1);
+
+        TransactionId t3 = new TransactionId();
+        List<Integer> values = scan(t3);
+        assertEquals(10, values.size());
+        assertFalse(values.contains(3));
+        assertTrue(values.contains(4));
+        assertTrue(values.contains(100));
+        assertFalse(values.contains(200));
+        bp.transactionComplete(t3);
+        assertEquals(10, onDisk());
+    }
+
+    /**
+     * Unit test that a commit writes its page without the records other
+     * transactions inserted and haven't committed
+     */
+    @Test public void commitLeavesOutOthersInserts() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(100, 2));
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(200, 2));
+        bp.transactionComplete(t2);
+        assertEquals(11, onDisk());
+        bp.transactionComplete(t1);
+        assertEquals(12, onDisk());
+    }
+
+    /**
+     * Unit test that a scan waits for the lock on a record another
+     * transaction deleted, and skips it once that transaction commits
+     */
+    @Test public void readerWaitsForDelete() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, find(5));
+        List<Integer> seen = new ArrayList<>();
+        Worker reader = new Worker(() -> seen.addAll(scan(t2)));
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.done);
+
+        bp.transactionComplete(t1);
+        reader.join(5000);
+        assertTrue(reader.done);
+        assertEquals(9, seen.size());
+        assertFalse(seen.contains(5));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Unit test that record locks beyond the page threshold are traded for
+     * a page lock, which then holds up writers of other records
+     */
+    @Test public void pageEscalation() throws Exception {
+        bp.setLockEscalation(4, 1000);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        assertEquals(10, scan(t1).size());
+        assertEquals(1, bp.getLockEscalationCount());
+        assertTrue(bp.holdsLock(t1, new HeapPageId(empty.getId(), 0)));
+
+        Worker writer = new Worker(() -> bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(100, 2)));
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.done);
+        bp.transactionComplete(t1);
+        writer.join(5000);
+        assertTrue(writer.done);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Unit test that record locks beyond the table threshold are traded for
+     * a table lock
+     */
+    @Test public void tableEscalation() throws Exception {
+        bp.setLockEscalation(1000, 4);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple one = find(1);
+        long escalations = bp.getLockEscalationCount();
+        bp.deleteTuple(t1, one);
+        assertEquals(9, scan(t1).size());
+        assertEquals(escalations + 1, bp.getLockEscalationCount());
+
+        // the table lock is exclusive, since one of the records was
+        Worker reader = new Worker(() -> scan(t2));
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.done);
+        bp.transactionComplete(t1);
+        reader.join(5000);
+        assertTrue(reader.done);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Unit test that record locking refuses STEAL/NO-FORCE, and that the
+     * granularity names parse
+     */
+    @Test public void settings() throws Exception {
+        try {
+            bp.setStealNoForce(true);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            bp.setLockEscalation(0, 10);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(BufferPool.LockGranularity.RECORD, BufferPool.LockGranularity.parse(" Record"));
+        assertEquals(BufferPool.LockGranularity.PAGE, BufferPool.LockGranularity.parse("page"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Simulates a buffer pool of capacity pages reading the specified page.
+     */
+    private static void access(ReplacementPolicy policy, Set<PageId> cached, int capacity, PageId pid) {
+        if (cached.contains(pid)) {
+            policy.recordAccess(pid);
+            return;
+        }
+        if (cached.size() >= capacity) {
+            PageId victim = policy.victim(p -> true);
+            assertTrue(cached.remove(victim));
+        }
+        policy.add(pid);
+        cached.add(pid);
+    }
+
+    /**
+     * Unit test that every policy returns each tracked page exactly once as a
+     * victim, never returns a page that isn't evictable, and forgets removed
+     * pages
+     */
+    @Test public void contract() {
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            ReplacementPolicy policy = type.create(10);
+            assertNull(type.toString(), policy.victim(p -> true));
+            for (int i = 0; i < 10; i++)
+                policy.add(pid(i));
+            policy.add(pid(3));
+            policy.recordAccess(pid(4));
+            policy.recordAccess(pid(42));
+            policy.remove(pid(7));
+            assertEquals(type.toString(), 9, policy.size());
+            assertNull(type.toString(), policy.victim(p -> false));
+
+            Set<PageId> seen = new HashSet<>();
+            PageId victim;
+            while ((victim = policy.victim(p -> p.getPageNumber() != 5)) != null)
+                assertTrue(type.toString(), seen.add(victim));
+            assertEquals(type.toString(), 8, seen.size());
+            assertFalse(type.toString(), seen.contains(pid(5)));
+            assertFalse(type.toString(), seen.contains(pid(7)));
+            assertEquals(type.toString(), 1, policy.size());
+        }
+    }
+
+    /**
+     * Unit test that LRU-K, 2Q and ARC keep a hot working set cached through a
+     * scan larger than the pool
+     */
+    @Test public void scanResistance() {
+        int capacity = 10;
+        ReplacementPolicy.Type[] types = { ReplacementPolicy.Type.LRU_K,
+                ReplacementPolicy.Type.TWO_Q, ReplacementPolicy.Type.ARC };
+        for (ReplacementPolicy.Type type : types) {
+            ReplacementPolicy policy = type.create(capacity);
+            Set<PageId> cached = new HashSet<>();
+            int cold = 1000;
+            // a hot set of 5 pages, interleaved with pages read once
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 5; i++)
+                    access(policy, cached, capacity, pid(i));
+                for (int i = 0; i < 5; i++)
+                    access(policy, cached, capacity, pid(cold++));
+            }
+            // a scan of 100 pages
+            for (int i = 0; i < 100; i++)
+                access(policy, cached, capacity, pid(cold++));
+            for (int i = 0; i < 5; i++)
+                assertTrue(type + " evicted hot page " + i, cached.contains(pid(i)));
+        }
+    }
+
+    /**
+     * Unit test that every policy lists exactly its tracked pages in
+     * priority order, its next victim last
+     */
+    @Test public void pages() {
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            ReplacementPolicy policy = type.create(10);
+            Set<PageId> cached = new HashSet<>();
+            for (int i = 0; i < 30; i++)
+                access(policy, cached, 10, pid(i % 3 == 0 ? 0 : i));
+            List<PageId> pages = policy.pages();
+            assertEquals(type.toString(), cached, new HashSet<>(pages));
+            assertEquals(type.toString(), cached.size(), pages.size());
+            assertEquals(type.toString(), pages.get(pages.size() - 1), policy.victim(p -> true));
+        }
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.Type.parse()
+     */
+    @Test public void parse() {
+        assertEquals(ReplacementPolicy.Type.LRU_K, ReplacementPolicy.Type.parse("lru-k"));
+        assertEquals(ReplacementPolicy.Type.TWO_Q, ReplacementPolicy.Type.parse("2q"));
+        assertEquals(ReplacementPolicy.Type.ARC, ReplacementPolicy.Type.parse(" ARC "));
+    }
+
+    /**
+     * Unit test for the BufferPool's hit and miss counters
+     */
+    @Test public void hitCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(3, ReplacementPolicy.Type.ARC);
+        assertEquals(ReplacementPolicy.Type.ARC, bp.getReplacementPolicy());
+        assertEquals(0.0, bp.getHitRatio(), 0);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        }
+        assertEquals(2, bp.getMissCount());
+        assertEquals(6, bp.getHitCount());
+        assertEquals(0.75, bp.getHitRatio(), 1e-9);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> tuples(HeapFilePage page) {
+        List<Tuple> ret = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            ret.add(it.next());
+        return ret;
+    }
+
+    /**
+     * Unit test that an all-zero page is an empty SlottedHeapPage
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        // 4092 free bytes, 4 bytes of slot entry and 6 of record per tuple
+        assertEquals(409, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() and reading the page back
+     * from its image
+     */
+    @Test public void insertAndReread() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 100; i++)
+            page.insertTuple(tuple(i, "tuple number " + i));
+
+        List<Tuple> reread = tuples(new SlottedHeapPage(pid, page.getPageData()));
+        assertEquals(100, reread.size());
+        for (int i = 0; i < 100; i++) {
+            Tuple t = reread.get(i);
+            assertTrue(TestUtil.compareTuples(tuple(i, "tuple number " + i), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+    }
+
+    /**
+     * Unit test that a tuple changed in place through Tuple.setField is
+     * written with its new values, whether its record shrinks or grows
+     */
+    @Test public void changeInPlace() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++)
+            page.insertTuple(tuple(i, "tuple number " + i));
+        List<Tuple> read = tuples(page);
+        read.get(0).setField(1, new StringField("a", Type.STRING_LEN));
+        read.get(2).setField(1, new StringField("a much longer string", Type.STRING_LEN));
+
+        List<Tuple> reread = tuples(new SlottedHeapPage(pid, page.getPageData()));
+        assertTrue(TestUtil.compareTuples(tuple(0, "a"), reread.get(0)));
+        assertTrue(TestUtil.compareTuples(tuple(1, "tuple number 1"), reread.get(1)));
+        assertTrue(TestUtil.compareTuples(tuple(2, "a much longer string"), reread.get(2)));
+    }
+
+    /**
+     * Unit test that short strings don't take up a fixed-size slot each
+     */
+    @Test public void capacity() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        Tuple t = tuple(n, "twelve chars");
+        while (page.hasRoomFor(t)) {
+            page.insertTuple(t);
+            t = tuple(++n, "twelve chars");
+        }
+        // each tuple takes 4 + 2 + 12 bytes of record and 4 of slot entry
+        assertEquals(4092 / 22, n);
+        assertEquals(0, page.getNumEmptySlots());
+
+        try {
+            page.insertTuple(t);
+            fail("inserted a tuple into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that space freed by deletes is reused, compacting the page
+     * when needed
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abcdefghij")))
+            page.insertTuple(tuple(n++, "abcdefghij"));
+
+        // free every other tuple; no single gap is big enough for a longer string
+        List<Tuple> all = tuples(page);
+        for (int i = 0; i < all.size(); i += 2)
+            page.deleteTuple(all.get(i));
+        Tuple longer = tuple(-1, "abcdefghijklmnopqrstuvwxyz");
+        assertTrue(page.hasRoomFor(longer));
+        page.insertTuple(longer);
+        assertEquals(new RecordId(pid, 0), longer.getRecordId());
+
+        List<Tuple> reread = tuples(new SlottedHeapPage(pid, page.getPageData()));
+        assertEquals(all.size() - (all.size() + 1) / 2 + 1, reread.size());
+        assertTrue(TestUtil.compareTuples(longer, reread.get(0)));
+        for (int i = 1; i < reread.size(); i++)
+            assertTrue(TestUtil.compareTuples(tuple(2 * i - 1, "abcdefghij"), reread.get(i)));
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple() of a tuple that was
+     * already deleted
+     */
+    @Test(expected = DbException.class)
+    public void deleteEmptySlot() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = tuple(1, "one");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    /**
+     * Unit test for a HeapFile of SlottedHeapPages, written and read through
+     * the BufferPool
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "row " + i));
+        Database.getBufferPool().transactionComplete(tid);
+        // a fixed-format file would need 34 pages
+        assertEquals(5, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("row " + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
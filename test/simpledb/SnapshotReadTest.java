@@ -0,0 +1,231 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReadTest extends TestUtil.CreateHeapFile {
+
+    /** Time to wait for a scan that shouldn't block, in ms */
+    private static final int TIMEOUT = 5000;
+
+    private BufferPool bp;
+    private PageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSnapshotReads(true);
+        insert(0, 10);
+        p0 = new HeapPageId(empty.getId(), 0);
+    }
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Inserts the tuples from to to in a transaction, and commits it. */
+    private void insert(int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+    }
+
+    /** Returns the first fields of the tuples tid sees in the file. */
+    private List<Integer> scan(TransactionId tid) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return values;
+    }
+
+    private TransactionId snapshot() {
+        TransactionId tid = new TransactionId();
+        bp.beginSnapshot(tid);
+        return tid;
+    }
+
+    /**
+     * Unit test that a snapshot reads a page a writer has locked without
+     * waiting, as it was last committed, and takes no lock
+     */
+    @Test public void readerDoesNotBlock() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(100, 2));
+        assertTrue(bp.holdsLock(writer, p0));
+
+        TransactionId reader = snapshot();
+        List<Integer> seen = new ArrayList<>();
+        Thread t = new Thread(() -> {
+            try {
+                seen.addAll(scan(reader));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        t.start();
+        t.join(TIMEOUT);
+        assertFalse(t.isAlive());
+        assertEquals(10, seen.size());
+        assertFalse(bp.holdsLock(reader, p0));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+    }
+
+    /**
+     * Unit test that a snapshot keeps reading what was committed when it
+     * began, and that the versions it read are dropped when it completes
+     */
+    @Test public void consistentSnapshot() throws Exception {
+        TransactionId reader = snapshot();
+        assertEquals(10, scan(reader).size());
+        insert(10, 15);
+        TransactionId deleter = new TransactionId();
+        DbFileIterator it = empty.iterator(deleter);
+        it.open();
+        bp.deleteTuple(deleter, it.next());
+        it.close();
+        bp.transactionComplete(deleter);
+
+        assertEquals(10, scan(reader).size());
+        TransactionId later = snapshot();
+        assertEquals(14, scan(later).size());
+        assertEquals(2, bp.getSnapshotVersionCount());
+
+        // the later snapshot reads the current versions
+        bp.transactionComplete(reader);
+        assertEquals(0, bp.getSnapshotVersionCount());
+        assertEquals(14, scan(later).size());
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * Unit test that no versions are kept once no snapshot can read them
+     */
+    @Test public void noSnapshotsNoVersions() throws Exception {
+        insert(10, 20);
+        assertEquals(0, bp.getSnapshotVersionCount());
+    }
+
+    /**
+     * Unit test that snapshots share a page's committed image until a
+     * commit changes the page
+     */
+    @Test public void sharedImage() throws Exception {
+        TransactionId r1 = snapshot();
+        TransactionId r2 = snapshot();
+        Page image = bp.getPage(r1, p0, Permissions.READ_ONLY);
+        assertSame(image, bp.getPage(r2, p0, Permissions.READ_ONLY));
+        assertSame(image, bp.getPage(r1, p0, Permissions.READ_ONLY));
+
+        insert(10, 11);
+        TransactionId r3 = snapshot();
+        Page next = bp.getPage(r3, p0, Permissions.READ_ONLY);
+        assertNotSame(image, next);
+        assertSame(image, bp.getPage(r1, p0, Permissions.READ_ONLY));
+        assertSame(next, bp.getPage(r3, p0, Permissions.READ_ONLY));
+        assertEquals(11, scan(r3).size());
+        assertEquals(10, scan(r2).size());
+        bp.transactionComplete(r1);
+        bp.transactionComplete(r2);
+        bp.transactionComplete(r3);
+    }
+
+    /**
+     * Unit test that a snapshot transaction can't change pages
+     */
+    @Test public void readOnly() throws Exception {
+        TransactionId reader = snapshot();
+        try {
+            bp.getPage(reader, p0, Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            bp.insertTuple(reader, empty.getId(), Utility.getHeapTuple(100, 2));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Unit test that under record locking a snapshot sees neither
+     * uncommitted records nor those committed after it began
+     */
+    @Test public void recordLocking() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSnapshotReads(true);
+        bp.setLockGranularity(BufferPool.LockGranularity.RECORD);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(100, 2));
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(200, 2));
+        TransactionId reader = snapshot();
+        bp.transactionComplete(t2);
+
+        assertEquals(10, scan(reader).size());
+        TransactionId later = snapshot();
+        List<Integer> values = scan(later);
+        assertEquals(11, values.size());
+        assertTrue(values.contains(200));
+        bp.transactionComplete(t1);
+        assertEquals(11, scan(later).size());
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * Unit test that snapshot reads refuse STEAL, and snapshots need them on
+     */
+    @Test public void settings() throws Exception {
+        try {
+            bp.setStealNoForce(true);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        TransactionId reader = snapshot();
+        try {
+            bp.setSnapshotReads(false);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+        bp.setSnapshotReads(false);
+        try {
+            snapshot();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class StealNoForceTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        bp = Database.resetBufferPool(3);
+    }
+
+    /** Counts the tuples of the file on disk. */
+    private int countOnDisk() {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            Page pg = hf.readPage(new HeapPageId(hf.getId(), i));
+            for (Iterator<Tuple> it = ((HeapFilePage) pg).iterator(); it.hasNext(); it.next())
+                n++;
+        }
+        return n;
+    }
+
+    private void insert(TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+    }
+
+    /**
+     * Unit test that a transaction changing more pages than the pool holds
+     * fails under NO-STEAL
+     */
+    @Test(expected = DbException.class)
+    public void noStealRunsOut() throws Exception {
+        insert(new TransactionId(), 5000);
+    }
+
+    /**
+     * Unit test that such a transaction commits under STEAL/NO-FORCE
+     */
+    @Test public void largeCommit() throws Exception {
+        bp.setStealNoForce(true);
+        TransactionId tid = new TransactionId();
+        insert(tid, 5000);
+        assertTrue(bp.getStealCount() > 0);
+        bp.transactionComplete(tid);
+        // NO-FORCE: some committed pages may still only be in the pool
+        bp.flushAllPages();
+        assertEquals(6000, countOnDisk());
+    }
+
+    /**
+     * Unit test that aborting such a transaction undoes the pages it evicted
+     */
+    @Test public void largeAbort() throws Exception {
+        bp.setStealNoForce(true);
+        TransactionId tid = new TransactionId();
+        insert(tid, 5000);
+        assertTrue(bp.getStealCount() > 0);
+        bp.transactionComplete(tid, false);
+        bp.flushAllPages();
+        assertEquals(1000, countOnDisk());
+    }
+
+    /**
+     * Unit test that a transaction evicts pages another transaction dirtied
+     * when they fill the pool, and that the other's abort undoes them
+     */
+    @Test public void stealOthersPages() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        bp.setStealNoForce(true);
+        TransactionId t1 = new TransactionId();
+        insert(t1, 1500);
+        long steals = bp.getStealCount();
+
+        // every frame holds a page t1 dirtied
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t2, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(bp.getStealCount() > steals);
+        bp.transactionComplete(t2);
+
+        bp.transactionComplete(t1, false);
+        bp.flushAllPages();
+        assertEquals(1000, countOnDisk());
+    }
+
+    /**
+     * Unit test that commit leaves pages to be written later, and that an
+     * abort after it restores the committed version
+     */
+    @Test public void noForce() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setStealNoForce(true);
+        TransactionId t1 = new TransactionId();
+        insert(t1, 10);
+        bp.transactionComplete(t1);
+        assertTrue(bp.getPendingWriteCount() > 0);
+        assertEquals(1000, countOnDisk());
+
+        TransactionId t2 = new TransactionId();
+        insert(t2, 10);
+        bp.transactionComplete(t2, false);
+        bp.flushAllPages();
+        assertEquals(0, bp.getPendingWriteCount());
+        assertEquals(1010, countOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
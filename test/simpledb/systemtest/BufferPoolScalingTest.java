@@ -0,0 +1,174 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares the throughput of a buffer pool with a single shard and with the
+ * default number of shards. The test has threads read pages that aren't
+ * cached from a file whose reads are slow: as a miss doesn't hold its shard
+ * while it reads, a single shard must read pages about as fast as many
+ * shards do, overlapping the reads. main() also prints the read throughput
+ * of cached pages with 1 to 32 threads, for a duration in milliseconds.
+ */
+public class BufferPoolScalingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 4096;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    /** Reads per transaction, so that lock lists stay short. */
+    private static final int READS_PER_TRANSACTION = 64;
+    private static final int MISS_THREADS = 8;
+    /** Pages each thread reads in. */
+    private static final int MISS_PAGES = 8;
+    private static final long READ_MILLIS = 20;
+
+    /** A heap file whose page reads take READ_MILLIS each, like a slow disk's. */
+    private static class SlowHeapFile extends HeapFile {
+        SlowHeapFile(HeapFile f) {
+            super(f.getFile(), f.getTupleDesc());
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(READ_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Runs threads readers for millis milliseconds against bp.
+     *
+     * @return the number of reads per second
+     */
+    private static double run(BufferPool bp, HeapFile f, int threads, long millis) throws Exception {
+        int pages = f.numPages();
+        long[] reads = new long[threads];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long end = System.nanoTime() + millis * 1000000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random rand = new Random(id);
+                try {
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < READS_PER_TRANSACTION; i++) {
+                            PageId pid = new HeapPageId(f.getId(), rand.nextInt(pages));
+                            if (!pid.equals(bp.getPage(tid, pid, Permissions.READ_ONLY).getId()))
+                                throw new AssertionError("wrong page for " + pid);
+                        }
+                        bp.transactionComplete(tid);
+                        reads[id] += READS_PER_TRANSACTION;
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        long total = 0;
+        for (long r : reads)
+            total += r;
+        return total * 1e9 / elapsed;
+    }
+
+    /**
+     * Has MISS_THREADS threads each read MISS_PAGES pages of f, none of them
+     * cached, into a new pool with the specified number of shards.
+     *
+     * @return the number of pages read per second
+     */
+    private static double missRate(HeapFile f, int shards) throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, ReplacementPolicy.Type.CLOCK, shards);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < MISS_THREADS; t++) {
+            final int first = t * MISS_PAGES;
+            workers.add(new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int i = first; i < first + MISS_PAGES; i++) {
+                        PageId pid = new HeapPageId(f.getId(), i);
+                        if (!pid.equals(bp.getPage(tid, pid, Permissions.READ_ONLY).getId()))
+                            throw new AssertionError("wrong page for " + pid);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertEquals(MISS_THREADS * MISS_PAGES, bp.getMissCount());
+        return MISS_THREADS * MISS_PAGES * 1e9 / elapsed;
+    }
+
+    private static void benchmark(HeapFile f, long millis) throws Exception {
+        int[] shardCounts = {1, BufferPool.defaultShards(POOL_PAGES)};
+        for (int shards : shardCounts) {
+            BufferPool bp = new BufferPool(POOL_PAGES, ReplacementPolicy.Type.CLOCK, shards);
+            // warm the pool, so that every run reads cached pages only
+            run(bp, f, 1, millis);
+            for (int threads : THREADS) {
+                double rate = run(bp, f, threads, millis);
+                System.out.printf("BufferPoolScalingTest shards=%d threads=%d reads/s=%.0f%n",
+                        shards, threads, rate);
+            }
+        }
+    }
+
+    @Test public void testMissesOfOneShard() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 40, null, null);
+        assertTrue(f.numPages() >= MISS_THREADS * MISS_PAGES);
+        HeapFile slow = new SlowHeapFile(f);
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        double one = missRate(slow, 1);
+        double many = missRate(slow, BufferPool.defaultShards(POOL_PAGES));
+        assertTrue(BufferPool.defaultShards(POOL_PAGES) > 1);
+        // one read at a time would be 1000 / READ_MILLIS pages a second
+        assertTrue("a single shard reads one page at a time: " + one + " pages/s",
+                one > 2 * 1000.0 / READ_MILLIS);
+        assertTrue("a single shard reads " + one + " pages/s, " + many + " with many shards",
+                one > many / 2);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolScalingTest.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 500, null, null);
+        benchmark(f, args.length > 0 ? Long.parseLong(args[0]) : 2000);
+    }
+}
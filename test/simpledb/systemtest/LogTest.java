@@ -435,6 +435,165 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestNoForceCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits under NO-FORCE, so its pages are only in the pool
+        // crash without flushing the pool
+        // T1's data should be there
+
+        Database.getBufferPool().setStealNoForce(true);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        insertRow(hf2, t1, 21);
+        t1.commit();
+        assertTrue(Database.getBufferPool().getPendingWriteCount() > 0);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        look(hf2, t, 21, true);
+        t.commit();
+    }
+
+    @Test public void TestStealAbortCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 changes more pages than the pool holds, so some are stolen
+        // T1 aborts
+        // T2 inserts and commits under NO-FORCE
+        // crash
+        // only T2 data should be there
+
+        BufferPool bp = Database.resetBufferPool(3);
+        bp.setStealNoForce(true);
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 2000; i++)
+            bp.insertTuple(t1.getId(), hf1.getId(), Utility.getHeapTuple(new int[] { 1000 + i, 0 }));
+        assertTrue(bp.getStealCount() > 0);
+        t1.abort();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 21);
+        t2.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 1000, false);
+        look(hf1, t, 2999, false);
+        look(hf2, t, 21, true);
+        t.commit();
+    }
+
+    @Test public void TestFreeSpaceAfterCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // hf1 is big enough for its free space map to be saved, and only
+        // its last page has an empty slot
+        // T1 fills that slot, and its page and the map are flushed
+        // crash
+        // T1's insert is undone, and the slot should be reused, not lost
+
+        int perPage = (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        int numPages = 130;
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < numPages * perPage - 1; i++)
+            tuples.add(Arrays.asList(100000 + i, 0));
+        HeapFileEncoder.convert(tuples, file1, BufferPool.getPageSize(), 2);
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        assertEquals(numPages, hf1.numPages());
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 1);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, false);
+        insertRow(hf1, t, 2);
+        t.commit();
+        assertEquals(numPages, hf1.numPages());
+    }
+
+    /** A HeapFile whose writes fail while failWrites is set. */
+    static class FailingHeapFile extends HeapFile {
+        volatile boolean failWrites = false;
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (failWrites)
+                throw new IOException("LogTest: write failed");
+            super.writePage(page);
+        }
+    }
+
+    @Test public void TestFailedCommitAborts()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts, but its pages can't be written when it commits
+        // the commit fails and T1 is aborted
+        // crash
+        // T1's data should not be there, before or after recovery
+
+        FailingHeapFile failing = new FailingHeapFile(file1.getAbsoluteFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(failing, "failing");
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(failing, t1, 3);
+        failing.failWrites = true;
+        try {
+            t1.commit();
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        failing.failWrites = false;
+
+        Transaction t = new Transaction();
+        t.start();
+        look(failing, t, 1, true);
+        look(failing, t, 3, false);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        t.commit();
+    }
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
@@ -3,16 +3,25 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 import simpledb.storage.BufferPool;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.Parser;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
 import simpledb.optimizer.TableStats;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -81,6 +90,84 @@ public class QueryTest {
 		p.processNextStatement("SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;");
 	}
 	
+	/** Adds the number of fields each SeqScan of plan returns to widths. */
+	private static void scanWidths(OpIterator plan, List<Integer> widths) {
+		if (plan instanceof SeqScan)
+			widths.add(plan.getTupleDesc().numFields());
+		else if (plan instanceof Operator)
+			for (OpIterator child : ((Operator) plan).getChildren())
+				scanWidths(child, widths);
+	}
+
+	/** Runs a plan, returning the first fields of its tuples, sorted. */
+	private static List<Integer> run(OpIterator plan) throws Exception {
+		List<Integer> values = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext()) {
+			Tuple t = plan.next();
+			values.add(((IntField) t.getField(0)).getValue());
+		}
+		plan.close();
+		Collections.sort(values);
+		return values;
+	}
+
+	/**
+	 * Checks that the scans of a planned query return only the fields the
+	 * query refers to, and that the query still returns the right tuples.
+	 */
+	@Test(timeout=20000) public void projectionPushdown() throws Exception {
+		final int IO_COST = 101;
+		List<List<Integer>> wideTuples = new ArrayList<>();
+		HeapFile wide = SystemTestUtil.createRandomHeapFile(6, 1000, null, wideTuples, "c");
+		Database.getCatalog().addTable(wide, "wide");
+		List<List<Integer>> narrowTuples = new ArrayList<>();
+		HeapFile narrow = SystemTestUtil.createRandomHeapFile(3, 100, null, narrowTuples, "c");
+		Database.getCatalog().addTable(narrow, "narrow");
+		TableStats.setTableStats("wide", new TableStats(wide.getId(), IO_COST));
+		TableStats.setTableStats("narrow", new TableStats(narrow.getId(), IO_COST));
+
+		Transaction t = new Transaction();
+		t.start();
+		Parser p = new Parser();
+		p.setTransaction(t);
+
+		OpIterator plan = p.generateLogicalPlan(t.getId(),
+				"SELECT wide.c4 FROM wide WHERE wide.c1 < 32768;")
+				.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+		List<Integer> widths = new ArrayList<>();
+		scanWidths(plan, widths);
+		assertEquals(Collections.singletonList(2), widths);
+		List<Integer> expected = new ArrayList<>();
+		for (List<Integer> tuple : wideTuples)
+			if (tuple.get(1) < 32768)
+				expected.add(tuple.get(4));
+		Collections.sort(expected);
+		assertEquals(expected, run(plan));
+
+		plan = p.generateLogicalPlan(t.getId(),
+				"SELECT wide.c5 FROM wide, narrow WHERE wide.c0 = narrow.c2;")
+				.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+		widths.clear();
+		scanWidths(plan, widths);
+		Collections.sort(widths);
+		assertEquals(Arrays.asList(1, 2), widths);
+		expected.clear();
+		for (List<Integer> w : wideTuples)
+			for (List<Integer> n : narrowTuples)
+				if (w.get(0).equals(n.get(2)))
+					expected.add(w.get(5));
+		Collections.sort(expected);
+		assertEquals(expected, run(plan));
+
+		plan = p.generateLogicalPlan(t.getId(), "SELECT * FROM wide WHERE wide.c1 < 32768;")
+				.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+		widths.clear();
+		scanWidths(plan, widths);
+		assertEquals(Collections.singletonList(6), widths);
+		t.commit();
+	}
+
 	/*
 	  Build a large series of tables; then run the command-line query code and execute a query.
 	  The number of tables is large enough that the query will only succeed within the
@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Delete;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Runs snapshot readers next to writers that each replace the one row of a
+ * table with a row holding the next value, checking that every snapshot
+ * sees exactly one row and that the values never go back.
+ */
+public class SnapshotReadTest extends SimpleDbTestBase {
+    private static final int WRITERS = 4;
+    private static final int INCREMENTS = 10;
+    private static final int READERS = 2;
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Reads the table's rows in a snapshot transaction. */
+    private static List<Integer> readSnapshot(int tableId) throws Exception {
+        Transaction tr = new Transaction();
+        tr.startSnapshot();
+        List<Integer> values = new ArrayList<>();
+        SeqScan ss = new SeqScan(tr.getId(), tableId, "");
+        ss.open();
+        while (ss.hasNext())
+            values.add(((IntField) ss.next().getField(0)).getValue());
+        ss.close();
+        tr.commit();
+        return values;
+    }
+
+    /** Replaces the table's row with one holding the next value, retrying on abort. */
+    private static void increment(int tableId) throws Exception {
+        while (true) {
+            Transaction tr = new Transaction();
+            tr.start();
+            try {
+                SeqScan ss = new SeqScan(tr.getId(), tableId, "");
+                ss.open();
+                Tuple t = ss.next();
+                ss.close();
+                Tuple next = new Tuple(t.getTupleDesc());
+                next.setField(0, new IntField(((IntField) t.getField(0)).getValue() + 1));
+
+                Delete del = new Delete(tr.getId(), new SeqScan(tr.getId(), tableId, ""));
+                del.open();
+                del.next();
+                del.close();
+                List<Tuple> rows = new ArrayList<>();
+                rows.add(next);
+                Insert ins = new Insert(tr.getId(), new TupleIterator(next.getTupleDesc(), rows), tableId);
+                ins.open();
+                ins.next();
+                ins.close();
+                tr.commit();
+                return;
+            } catch (TransactionAbortedException e) {
+                tr.transactionComplete(true);
+            }
+        }
+    }
+
+    private void run(BufferPool.LockGranularity granularity) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 1, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSnapshotReads(true);
+        bp.setLockGranularity(granularity);
+        int start = readSnapshot(table.getId()).get(0);
+
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        for (int i = 0; i < WRITERS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < INCREMENTS; j++)
+                        increment(table.getId());
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread(() -> {
+                try {
+                    int last = start;
+                    while (writing.get()) {
+                        List<Integer> values = readSnapshot(table.getId());
+                        if (values.size() != 1 || values.get(0) < last)
+                            throw new DbException("snapshot read " + values + " after " + last);
+                        last = values.get(0);
+                    }
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        writing.set(false);
+        for (Thread t : readers)
+            t.join();
+
+        if (!errors.isEmpty())
+            throw errors.get(0);
+        List<Integer> values = readSnapshot(table.getId());
+        assertEquals(1, values.size());
+        assertEquals(start + WRITERS * INCREMENTS, (int) values.get(0));
+        assertEquals(0, bp.getSnapshotVersionCount());
+    }
+
+    @Test public void pageLocking() throws Exception {
+        run(BufferPool.LockGranularity.PAGE);
+    }
+
+    @Test public void recordLocking() throws Exception {
+        run(BufferPool.LockGranularity.RECORD);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}